@@ -1,7 +1,10 @@
 package ru.practicum.main.service;
 
+import com.google.protobuf.Timestamp;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import ru.practicum.main.client.request.RequestClient;
 import ru.practicum.main.client.user.UserClient;
 import ru.practicum.main.dto.response.request.ConfirmedRequestsCountDto;
@@ -10,9 +13,12 @@ import ru.practicum.main.exception.NotFoundException;
 import ru.practicum.main.model.Event;
 import ru.practicum.stats.client.CollectorClient;
 import ru.practicum.stats.client.RecommendationsClient;
+import ru.practicum.stats.proto.EventInfoProto;
 import ru.practicum.stats.proto.InteractionsCountRequestProto;
 import ru.practicum.stats.proto.RecommendedEventProto;
 
+import java.time.Instant;
+import java.time.ZoneId;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -145,4 +151,41 @@ public abstract class AbstractEventService {
             throw new NotFoundException("Пользователь c userId " + userId + " не найден");
         }
     }
+
+    // Дата мероприятия нужна агрегатору, чтобы забывать завершившиеся мероприятия.
+    // Внутри транзакции отправка откладывается до её фиксации: откат не должен публиковать несохранённую дату,
+    // а ожидание коллектора - держать транзакцию открытой
+    protected void sendEventInfo(Event event) {
+        if (event.getEventDate() == null) {
+            return;
+        }
+        Instant eventDate = event.getEventDate().atZone(ZoneId.systemDefault()).toInstant();
+        EventInfoProto eventInfo = EventInfoProto.newBuilder()
+                .setEventId(event.getId())
+                .setCategoryId(event.getCategory().getId())
+                .setEventDate(Timestamp.newBuilder()
+                        .setSeconds(eventDate.getEpochSecond())
+                        .setNanos(eventDate.getNano())
+                        .build())
+                .build();
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            publishEventInfo(eventInfo);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                publishEventInfo(eventInfo);
+            }
+        });
+    }
+
+    private void publishEventInfo(EventInfoProto eventInfo) {
+        try {
+            collectorClient.sendEventInfo(eventInfo);
+        } catch (Exception e) {
+            log.warn("Не удалось отправить данные мероприятия {} в коллектор: {}",
+                    eventInfo.getEventId(), e.getMessage());
+        }
+    }
 }
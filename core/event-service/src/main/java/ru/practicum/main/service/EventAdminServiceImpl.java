@@ -103,6 +103,7 @@ public class EventAdminServiceImpl extends AbstractEventService implements Event
             event.setEventDate(updateRequest.getEventDate());
         }
         Event updatedEvent = eventRepository.save(event);
+        sendEventInfo(updatedEvent);
 
         UserDto userDto = getUserById(event.getInitiatorId());
 
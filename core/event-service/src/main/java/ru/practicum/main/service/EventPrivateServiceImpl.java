@@ -90,6 +90,7 @@ public class EventPrivateServiceImpl extends AbstractEventService implements Eve
         Event event = EventMapper.toEventFromNewEventDto(newEventDto, userId, category, savedLocationEntity);
         event.setConfirmedRequests(0);
         Event savedEvent = eventRepository.save(event);
+        sendEventInfo(savedEvent);
         log.info("Событие создано успешно: ID {}", savedEvent.getId());
         EventFullDto result = EventMapper.toEventFullDto(savedEvent, userDto);
         result.setRating(0.0);
@@ -130,6 +131,7 @@ public class EventPrivateServiceImpl extends AbstractEventService implements Eve
         Integer confirmedRequests = getConfirmedRequestsCount(eventId);
         event.setConfirmedRequests(confirmedRequests);
         Event updatedEvent = eventRepository.save(event);
+        sendEventInfo(updatedEvent);
         EventFullDto result = EventMapper.toEventFullDto(updatedEvent, userDto);
         result.setRating(getEventRating(eventId));
         log.info("Событие {} пользователя {} успешно обновлено", eventId, userId);
@@ -0,0 +1,11 @@
+package ru.practicum.stats.aggregator.config;
+
+/**
+ * Как результаты пакета и офсеты консьюмера попадают в Kafka.
+ */
+public enum DeliveryMode {
+    // flush продюсера после каждого опроса и асинхронная фиксация офсетов: возможна повторная отправка
+    FLUSH_PER_POLL,
+    // сходства пакета и офсеты фиксируются одной транзакцией Kafka
+    TRANSACTIONAL
+}
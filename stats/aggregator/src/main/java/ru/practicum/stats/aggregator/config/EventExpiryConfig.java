@@ -0,0 +1,27 @@
+package ru.practicum.stats.aggregator.config;
+
+import lombok.Getter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "aggregator.expiry")
+@Getter
+public class EventExpiryConfig {
+    // Включено ли удаление завершившихся мероприятий из состояния агрегатора.
+    // Удаляются только мероприятия, данные которых были отправлены в топик после создания или изменения
+    private final boolean enabled;
+    // Сколько времени после даты мероприятия оно ещё участвует в расчёте сходства
+    private final Duration margin;
+    // Как часто искать завершившиеся мероприятия
+    private final Duration sweepInterval;
+
+    public EventExpiryConfig(@DefaultValue("false") boolean enabled,
+                             @DefaultValue("7d") Duration margin,
+                             @DefaultValue("10m") Duration sweepInterval) {
+        this.enabled = enabled;
+        this.margin = margin;
+        this.sweepInterval = sweepInterval;
+    }
+}
@@ -0,0 +1,13 @@
+package ru.practicum.stats.aggregator.config;
+
+/**
+ * Какие мероприятия пользователя с длинной историей участвуют в пересчёте пар при его новом действии.
+ */
+public enum HeavyUserPolicy {
+    // последние мероприятия в порядке первого взаимодействия пользователя с ними
+    CAP_RECENT,
+    // мероприятия с наибольшим весом действия, при равном весе - более поздние
+    CAP_HEAVIEST,
+    // случайная выборка ожидаемого размера; решение для пары пользователя постоянно между действиями
+    SAMPLE
+}
@@ -14,6 +14,8 @@ import java.util.Properties;
 public class KafkaAggregatorConfig {
     private final ProducerConfig producer;
     private final ConsumerConfig consumer;
+    // Консьюмер дат мероприятий, нужен только при включённом удалении завершившихся мероприятий
+    private final ConsumerConfig events;
 
     @Getter
     @Setter
@@ -0,0 +1,39 @@
+package ru.practicum.stats.aggregator.config;
+
+import lombok.Getter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+@ConfigurationProperties(prefix = "aggregator.pipeline")
+@Getter
+public class PipelineConfig {
+    // Число потоков-обработчиков действий. Действия распределяются между ними по пользователю,
+    // у каждого потока свой сегмент матрицы весов пользователей
+    private final int workers;
+    // Режим отправки результатов пакета и фиксации офсетов
+    private final DeliveryMode delivery;
+    // transactional.id продюсера в режиме TRANSACTIONAL; должен быть постоянным для экземпляра агрегатора
+    private final String transactionalId;
+    // Формат записей топика сходств
+    private final SimilarityFormat format;
+    // Наибольшее число пар в одной записи формата BATCH
+    private final int batchEntries;
+
+    public PipelineConfig(@DefaultValue("1") int workers,
+                          @DefaultValue("FLUSH_PER_POLL") DeliveryMode delivery,
+                          @DefaultValue("stats.aggregator") String transactionalId,
+                          @DefaultValue("PAIR") SimilarityFormat format,
+                          @DefaultValue("1000") int batchEntries) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("aggregator.pipeline.workers должно быть не меньше 1");
+        }
+        if (batchEntries < 1) {
+            throw new IllegalArgumentException("aggregator.pipeline.batch-entries должно быть не меньше 1");
+        }
+        this.workers = workers;
+        this.delivery = delivery;
+        this.transactionalId = transactionalId;
+        this.format = format;
+        this.batchEntries = batchEntries;
+    }
+}
@@ -0,0 +1,48 @@
+package ru.practicum.stats.aggregator.config;
+
+import lombok.Getter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "aggregator.similarity")
+@Getter
+public class SimilarityConfig {
+    // Минимальное изменение сходства пары относительно последнего отправленного значения,
+    // при котором оно отправляется сразу. 0 - отправлять каждое обновление
+    private final double minScoreChange;
+    // Как часто отправлять накопленные мелкие изменения, чтобы они не копились бесконечно
+    private final Duration forceFlushInterval;
+    // Сколько лучших соседей каждого мероприятия публиковать. 0 - публиковать все пары
+    private final int topK;
+    // Размер истории, начиная с которого действие пользователя пересчитывает не все его пары. 0 - без ограничений
+    private final int heavyUserThreshold;
+    // Как выбирать мероприятия-партнёры для пользователей с длинной историей
+    private final HeavyUserPolicy heavyUserPolicy;
+    // Сколько мероприятий-партнёров учитывать для такого пользователя
+    private final int heavyUserPartners;
+
+    public SimilarityConfig(@DefaultValue("0") double minScoreChange,
+                            @DefaultValue("1m") Duration forceFlushInterval,
+                            @DefaultValue("0") int topK,
+                            @DefaultValue("0") int heavyUserThreshold,
+                            @DefaultValue("CAP_RECENT") HeavyUserPolicy heavyUserPolicy,
+                            @DefaultValue("500") int heavyUserPartners) {
+        if (topK < 0) {
+            throw new IllegalArgumentException("aggregator.similarity.top-k не может быть отрицательным");
+        }
+        if (heavyUserThreshold < 0) {
+            throw new IllegalArgumentException("aggregator.similarity.heavy-user-threshold не может быть отрицательным");
+        }
+        if (heavyUserThreshold > 0 && heavyUserPartners <= 0) {
+            throw new IllegalArgumentException("aggregator.similarity.heavy-user-partners должен быть положительным");
+        }
+        this.minScoreChange = minScoreChange;
+        this.forceFlushInterval = forceFlushInterval;
+        this.topK = topK;
+        this.heavyUserThreshold = heavyUserThreshold;
+        this.heavyUserPolicy = heavyUserPolicy;
+        this.heavyUserPartners = heavyUserPartners;
+    }
+}
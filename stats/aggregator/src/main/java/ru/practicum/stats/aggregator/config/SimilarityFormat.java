@@ -0,0 +1,11 @@
+package ru.practicum.stats.aggregator.config;
+
+/**
+ * В каком виде сходства записываются в топик сходств.
+ */
+public enum SimilarityFormat {
+    // запись на каждую пару с ключом "eventA_eventB"; удалённая пара - tombstone
+    PAIR,
+    // пакет сходств на каждый опрос и партицию с заголовком формата; удалённая пара - сходство 0
+    BATCH
+}
@@ -0,0 +1,31 @@
+package ru.practicum.stats.aggregator.config;
+
+import lombok.Getter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "aggregator.snapshot")
+@Getter
+public class SnapshotConfig {
+    // Включены ли снимки состояния агрегатора
+    private final boolean enabled;
+    // Каталог на локальном диске, в котором хранятся снимки
+    private final Path directory;
+    // Как часто делать снимок
+    private final Duration interval;
+    // Сколько последних снимков хранить
+    private final int retained;
+
+    public SnapshotConfig(@DefaultValue("false") boolean enabled,
+                          @DefaultValue("snapshots") Path directory,
+                          @DefaultValue("5m") Duration interval,
+                          @DefaultValue("2") int retained) {
+        this.enabled = enabled;
+        this.directory = directory;
+        this.interval = interval;
+        this.retained = retained;
+    }
+}
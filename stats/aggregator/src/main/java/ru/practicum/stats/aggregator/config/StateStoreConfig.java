@@ -0,0 +1,30 @@
+package ru.practicum.stats.aggregator.config;
+
+import lombok.Getter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import ru.practicum.stats.aggregator.storage.StorageType;
+
+import java.nio.file.Path;
+
+@ConfigurationProperties(prefix = "aggregator.state")
+@Getter
+public class StateStoreConfig {
+    // Реализация хранилища матриц весов
+    private final StorageType storage;
+    // Каталог файлов, отображаемых в память, для режима MAPPED
+    private final Path mappedDirectory;
+    // Ожидаемое число мероприятий и пар для начального размера таблиц в режиме MAPPED
+    private final long expectedEvents;
+    private final long expectedPairs;
+
+    public StateStoreConfig(@DefaultValue("HEAP") StorageType storage,
+                            @DefaultValue("aggregator-state") Path mappedDirectory,
+                            @DefaultValue("100000") long expectedEvents,
+                            @DefaultValue("10000000") long expectedPairs) {
+        this.storage = storage;
+        this.mappedDirectory = mappedDirectory;
+        this.expectedEvents = expectedEvents;
+        this.expectedPairs = expectedPairs;
+    }
+}
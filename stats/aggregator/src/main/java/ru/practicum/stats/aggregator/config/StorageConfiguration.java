@@ -0,0 +1,45 @@
+package ru.practicum.stats.aggregator.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.practicum.stats.aggregator.storage.HashMapUserWeightsStore;
+import ru.practicum.stats.aggregator.storage.HashMapWeightSumsStore;
+import ru.practicum.stats.aggregator.storage.MappedWeightSumsStore;
+import ru.practicum.stats.aggregator.storage.PrimitiveUserWeightsStore;
+import ru.practicum.stats.aggregator.storage.PrimitiveWeightSumsStore;
+import ru.practicum.stats.aggregator.storage.ShardedUserWeightsStore;
+import ru.practicum.stats.aggregator.storage.UserWeightsStore;
+import ru.practicum.stats.aggregator.storage.WeightSumsStore;
+
+@Slf4j
+@Configuration
+public class StorageConfiguration {
+
+    @Bean
+    public UserWeightsStore userWeightsStore(StateStoreConfig config, PipelineConfig pipelineConfig) {
+        log.info("Хранилище весов пользователей: {}, сегментов: {}", config.getStorage(), pipelineConfig.getWorkers());
+        if (pipelineConfig.getWorkers() > 1) {
+            return new ShardedUserWeightsStore(pipelineConfig.getWorkers(), () -> createUserWeightsStore(config));
+        }
+        return createUserWeightsStore(config);
+    }
+
+    @Bean
+    public WeightSumsStore weightSumsStore(StateStoreConfig config) {
+        log.info("Хранилище сумм весов: {}", config.getStorage());
+        return switch (config.getStorage()) {
+            case HEAP -> new HashMapWeightSumsStore();
+            case PRIMITIVE -> new PrimitiveWeightSumsStore();
+            case MAPPED -> new MappedWeightSumsStore(config.getMappedDirectory(),
+                    config.getExpectedEvents(), config.getExpectedPairs());
+        };
+    }
+
+    private static UserWeightsStore createUserWeightsStore(StateStoreConfig config) {
+        return switch (config.getStorage()) {
+            case HEAP -> new HashMapUserWeightsStore();
+            case PRIMITIVE, MAPPED -> new PrimitiveUserWeightsStore();
+        };
+    }
+}
@@ -1,30 +1,60 @@
 package ru.practicum.stats.aggregator.service;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.AuthorizationException;
+import org.apache.kafka.common.errors.OutOfOrderSequenceException;
+import org.apache.kafka.common.errors.ProducerFencedException;
 import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.utils.Utils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import ru.practicum.stats.aggregator.config.DeliveryMode;
 import ru.practicum.stats.aggregator.config.KafkaAggregatorConfig;
+import ru.practicum.stats.aggregator.config.PipelineConfig;
+import ru.practicum.stats.aggregator.config.SimilarityFormat;
+import ru.practicum.stats.avro.EventAvro;
+import ru.practicum.stats.avro.EventSimilarityBatchAvro;
+import ru.practicum.stats.avro.EventSimilarityEntryAvro;
 import ru.practicum.stats.avro.UserActionAvro;
 import ru.practicum.stats.avro.EventSimilarityAvro;
+import ru.practicum.stats.avro.deserializer.EventSimilarityBatchDeserializer;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class AggregationStarter {
     private final EventsSimilarityService eventsSimilarityService;
+    private final StateSnapshotService snapshotService;
+    private final EventExpiryService eventExpiryService;
 
     private static final Map<TopicPartition, OffsetAndMetadata> currentOffsets = new HashMap<>();
 
@@ -32,16 +62,69 @@ public class AggregationStarter {
     private final KafkaConsumer<String, UserActionAvro> consumer;
 
     private final KafkaAggregatorConfig.ProducerConfig producerConfig;
-    private final KafkaProducer<String, EventSimilarityAvro> producer;
+    private final KafkaProducer<String, SpecificRecordBase> producer;
+
+    // В формате BATCH пары одной партиции за опрос уходят одной записью, не больше batchEntries пар в записи
+    private final boolean batchFormat;
+    private final int batchEntries;
+
+    // В режиме TRANSACTIONAL сходства пакета и его офсеты фиксируются одной транзакцией
+    private final boolean transactional;
+    private final Timer batchTimer;
+    // Действия с идентификаторами, которые не помещаются в хранилище, пропускаются
+    private final Counter rejectedActionsCounter;
+
+    // Даты мероприятий: читаются с начала топика при каждом старте, офсеты не фиксируются
+    private final KafkaAggregatorConfig.ConsumerConfig eventsConfig;
+    private final KafkaConsumer<String, EventAvro> eventsConsumer;
+
+    // Офсеты из восстановленного снимка: применяются один раз, при первом назначении партиций
+    private Map<TopicPartition, Long> snapshotOffsets;
+
+    // Периодический снимок пишется в отдельном потоке, пока консьюмер на паузе продолжает опросы
+    private final ExecutorService snapshotWriter;
+    private boolean snapshotInProgress;
 
     @Autowired
-    public AggregationStarter(EventsSimilarityService eventsSimilarityService, KafkaAggregatorConfig kafkaConfig) {
+    public AggregationStarter(EventsSimilarityService eventsSimilarityService, StateSnapshotService snapshotService,
+                              EventExpiryService eventExpiryService, KafkaAggregatorConfig kafkaConfig,
+                              PipelineConfig pipelineConfig, MeterRegistry meterRegistry) {
         this.eventsSimilarityService = eventsSimilarityService;
+        this.snapshotService = snapshotService;
+        this.eventExpiryService = eventExpiryService;
         this.consumerConfig = kafkaConfig.getConsumer();
         this.producerConfig = kafkaConfig.getProducer();
+        this.eventsConfig = kafkaConfig.getEvents();
+
+        this.transactional = pipelineConfig.getDelivery() == DeliveryMode.TRANSACTIONAL;
+        this.batchFormat = pipelineConfig.getFormat() == SimilarityFormat.BATCH;
+        this.batchEntries = pipelineConfig.getBatchEntries();
+        this.batchTimer = Timer.builder("aggregator.batch.duration")
+                .description("Время обработки пакета вместе с отправкой сходств и фиксацией офсетов")
+                .tag("delivery", pipelineConfig.getDelivery().name())
+                .register(meterRegistry);
+        this.rejectedActionsCounter = Counter.builder("aggregator.actions.rejected")
+                .description("Количество действий, пропущенных из-за идентификаторов вне диапазона хранилища")
+                .register(meterRegistry);
 
+        Properties producerProperties = new Properties();
+        producerProperties.putAll(producerConfig.getProperties());
+        if (transactional) {
+            producerProperties.put(ProducerConfig.TRANSACTIONAL_ID_CONFIG, pipelineConfig.getTransactionalId());
+        }
         this.consumer = new KafkaConsumer<>(consumerConfig.getProperties());
-        this.producer = new KafkaProducer<>(producerConfig.getProperties());
+        this.producer = new KafkaProducer<>(producerProperties);
+        if (eventExpiryService.isEnabled() && eventsConfig == null) {
+            throw new IllegalStateException("Для удаления завершившихся мероприятий нужен aggregator.kafka.events");
+        }
+        this.eventsConsumer = eventExpiryService.isEnabled()
+                ? new KafkaConsumer<>(eventsConfig.getProperties())
+                : null;
+        this.snapshotWriter = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "AggregatorSnapshotWriter");
+            thread.setDaemon(true);
+            return thread;
+        });
 
         // регистрируем хук, в котором вызываем метод wakeup.
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
@@ -52,28 +135,69 @@ public class AggregationStarter {
 
     public void start() {
         log.info("Starting Aggregator service...");
+        boolean stoppedGracefully = false;
         try {
-            consumer.subscribe(List.of(consumerConfig.getTopic()));
+            // восстанавливаем состояние из последнего снимка, если он есть
+            Map<TopicPartition, Long> restoredOffsets = snapshotService.restoreLatest(this::matchesTopic);
+            snapshotOffsets = restoredOffsets.isEmpty() ? null : new HashMap<>(restoredOffsets);
+            if (snapshotOffsets != null) {
+                // списки лучших соседей в снимок не входят - строим их по восстановленным суммам весов
+                eventsSimilarityService.rebuildNeighbours();
+            }
+
+            consumer.subscribe(List.of(consumerConfig.getTopic()), new ConsumerRebalanceListener() {
+                @Override
+                public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+                }
+
+                @Override
+                public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+                    seekToSnapshot(partitions);
+                    // пока пишется снимок, новые партиции тоже не должны отдавать записи
+                    if (snapshotInProgress) {
+                        consumer.pause(partitions);
+                    }
+                }
+            });
+
+            if (eventsConsumer != null) {
+                eventsConsumer.subscribe(List.of(eventsConfig.getTopic()));
+            }
+            if (transactional) {
+                // заодно отменяет незавершённую транзакцию предыдущего экземпляра с тем же transactional.id
+                producer.initTransactions();
+            }
 
             while (true) {
+                pollEvents();
                 ConsumerRecords<String, UserActionAvro> records = consumer.poll(consumerConfig.getPollTimeout());
-                int count = 0;
-                for (ConsumerRecord<String, UserActionAvro> record : records) {
-                    log.trace("Обработка сообщения от хаба {} из партиции {} с офсетом {}.",
-                            record.key(), record.partition(), record.offset());
-                    // обрабатываем очередную запись
-                    handleRecord(record.value());
-                    // фиксируем оффсеты обработанных записей, если нужно
-                    manageOffsets(record, count, consumer);
-                    count++;
+                long started = System.nanoTime();
+                // пакет обрабатывается целиком: по каждой паре мероприятий отправляется только итоговое сходство,
+                // поэтому офсеты двигаются лишь после отправки всего пакета
+                if (transactional) {
+                    handleBatchInTransaction(records);
+                } else {
+                    sendSimilarities(countSimilarity(records));
+                    producer.flush();
+                    // фиксируем максимальный оффсет обработанных записей
+                    currentOffsets.putAll(batchOffsets(records));
+                    consumer.commitAsync();
+                }
+                batchTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+
+                // все записи пакета обработаны - состояние согласовано с позициями консьюмера
+                if (snapshotService.isSnapshotDue()) {
+                    takeSnapshotWhilePolling();
+                }
+                // удаление идёт между пакетами в этом же потоке, поэтому хранилища не нужно синхронизировать
+                if (eventExpiryService.isSweepDue()) {
+                    eventExpiryService.sweep();
                 }
-                producer.flush();
-                // фиксируем максимальный оффсет обработанных записей
-                consumer.commitAsync();
             }
         } catch (WakeupException ignores) {
             // игнорируем - закрываем консьюмер и продюсер в блоке finally
             log.info("Получен сигнал завершения работы. WakeupException. Aggregator. AggregationStarter");
+            stoppedGracefully = true;
         } catch (Exception e) {
             log.error("Ошибка во время обработки событий от датчиков", e);
         } finally {
@@ -84,47 +208,201 @@ public class AggregationStarter {
 
                 // здесь нужно вызвать метод продюсера для сброса данных в буффере
                 producer.flush();
-                // здесь нужно вызвать метод консьюмера для фиксиции смещений
-                consumer.commitSync(currentOffsets);
-
+                // здесь нужно вызвать метод консьюмера для фиксиции смещений;
+                // в транзакционном режиме офсеты фиксируются только вместе с результатами пакета
+                if (!transactional) {
+                    consumer.commitSync(currentOffsets);
+                }
+                // прерывание произошло между пакетами, поэтому состояние можно сохранить
+                if (stoppedGracefully) {
+                    takeSnapshot();
+                }
             } finally {
+                snapshotWriter.shutdownNow();
                 log.info("Закрываем консьюмер");
                 consumer.close();
                 log.info("Закрываем продюсер");
                 producer.close();
+                if (eventsConsumer != null) {
+                    eventsConsumer.close();
+                }
             }
         }
     }
 
-    private static void manageOffsets(ConsumerRecord<String, UserActionAvro> record, int count,
-                                      KafkaConsumer<String, UserActionAvro> consumer) {
-        // обновляем текущий оффсет для топика-партиции
-        currentOffsets.put(
-                new TopicPartition(record.topic(), record.partition()),
-                new OffsetAndMetadata(record.offset() + 1)
-        );
+    private void pollEvents() {
+        if (eventsConsumer == null) {
+            return;
+        }
+        for (ConsumerRecord<String, EventAvro> record : eventsConsumer.poll(eventsConfig.getPollTimeout())) {
+            if (record.value() != null) {
+                eventExpiryService.registerEvent(record.value());
+            }
+        }
+    }
 
-        if (count % 100 == 0) {
-            consumer.commitAsync(currentOffsets, (offsets, exception) -> {
-                if (exception != null) {
-                    log.warn("Ошибка во время фиксации оффсетов: {}", offsets, exception);
+    private void seekToSnapshot(Collection<TopicPartition> partitions) {
+        if (snapshotOffsets == null) {
+            return;
+        }
+        for (TopicPartition partition : partitions) {
+            Long offset = snapshotOffsets.get(partition);
+            if (offset != null) {
+                log.info("Продолжаем чтение партиции {} с офсета {} из снимка", partition, offset);
+                consumer.seek(partition, offset);
+            } else {
+                // действий из этой партиции в снимке нет - перечитываем её целиком
+                log.info("Партиции {} нет в снимке, читаем её с начала", partition);
+                consumer.seekToBeginning(List.of(partition));
+            }
+        }
+        snapshotOffsets = null;
+    }
+
+    // Снимок от пересозданного или очищенного топика ссылается на офсеты, которых в партиции нет:
+    // продолжение с них потеряло бы или учло бы повторно часть действий
+    private boolean matchesTopic(Map<TopicPartition, Long> offsets) {
+        Map<TopicPartition, Long> beginning = consumer.beginningOffsets(offsets.keySet());
+        Map<TopicPartition, Long> end = consumer.endOffsets(offsets.keySet());
+        for (Map.Entry<TopicPartition, Long> entry : offsets.entrySet()) {
+            Long first = beginning.get(entry.getKey());
+            Long last = end.get(entry.getKey());
+            if (first == null || last == null || entry.getValue() < first || entry.getValue() > last) {
+                log.warn("Офсет {} партиции {} из снимка вне диапазона [{}, {}]",
+                        entry.getValue(), entry.getKey(), first, last);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void takeSnapshot() {
+        if (consumer.assignment().isEmpty()) {
+            return;
+        }
+        snapshotService.takeSnapshot(positions());
+    }
+
+    // Запись большого состояния может длиться дольше max.poll.interval.ms. Поэтому файл пишется в отдельном
+    // потоке, а этот поток ставит партиции на паузу и продолжает опросы: консьюмер остаётся в группе,
+    // но записей не получает, и хранилища не меняются, пока их читает запись снимка
+    private void takeSnapshotWhilePolling() {
+        if (consumer.assignment().isEmpty()) {
+            return;
+        }
+        Map<TopicPartition, Long> positions = positions();
+        snapshotInProgress = true;
+        consumer.pause(consumer.assignment());
+        CompletableFuture<Void> snapshot =
+                CompletableFuture.runAsync(() -> snapshotService.takeSnapshot(positions), snapshotWriter);
+        try {
+            while (!snapshot.isDone()) {
+                ConsumerRecords<String, UserActionAvro> records = consumer.poll(consumerConfig.getPollTimeout());
+                // записи не обрабатываются: партиция возвращается к первой из них и встаёт на паузу
+                for (TopicPartition partition : records.partitions()) {
+                    consumer.seek(partition, records.records(partition).get(0).offset());
+                    consumer.pause(List.of(partition));
                 }
-            });
+            }
+            snapshot.join();
+        } finally {
+            // при прерывании опроса снимок дописывается до конца: иначе его перебьёт снимок при завершении
+            if (!snapshot.isDone()) {
+                try {
+                    snapshot.join();
+                } catch (RuntimeException e) {
+                    log.warn("Ошибка записи снимка состояния", e);
+                }
+            }
+            snapshotInProgress = false;
+            consumer.resume(consumer.assignment());
+        }
+    }
+
+    private Map<TopicPartition, Long> positions() {
+        Map<TopicPartition, Long> positions = new HashMap<>();
+        for (TopicPartition partition : consumer.assignment()) {
+            positions.put(partition, consumer.position(partition));
+        }
+        return positions;
+    }
+
+    private void handleBatchInTransaction(ConsumerRecords<String, UserActionAvro> records) {
+        List<EventSimilarityAvro> similarities = countSimilarity(records);
+        Map<TopicPartition, OffsetAndMetadata> offsets = batchOffsets(records);
+        if (similarities.isEmpty() && offsets.isEmpty()) {
+            return;
+        }
+        try {
+            producer.beginTransaction();
+            // внутри транзакции продюсер отправляет записи без ожидания, ошибки всплывут при commitTransaction
+            sendSimilarities(similarities);
+            producer.sendOffsetsToTransaction(offsets, consumer.groupMetadata());
+            producer.commitTransaction();
+        } catch (ProducerFencedException | OutOfOrderSequenceException | AuthorizationException e) {
+            // транзакцию уже нельзя отменить: продюсер непригоден, работа прекращается
+            throw new IllegalStateException("Продюсер не может продолжать транзакции", e);
+        } catch (KafkaException e) {
+            producer.abortTransaction();
+            // пакет уже учтён в состоянии, а его офсеты не зафиксированы: продолжать нельзя,
+            // после перезапуска состояние восстановится из снимка, сделанного после последней транзакции
+            throw new IllegalStateException("Транзакция пакета отменена", e);
         }
+        currentOffsets.putAll(offsets);
     }
 
-    private void handleRecord(UserActionAvro userActionAvro) {
-        List<EventSimilarityAvro> similarities = eventsSimilarityService.countSimilarity(userActionAvro);
+    private List<EventSimilarityAvro> countSimilarity(ConsumerRecords<String, UserActionAvro> records) {
+        List<UserActionAvro> userActions = new ArrayList<>(records.count());
+        for (ConsumerRecord<String, UserActionAvro> record : records) {
+            log.trace("Обработка сообщения от хаба {} из партиции {} с офсетом {}.",
+                    record.key(), record.partition(), record.offset());
+            if (!eventsSimilarityService.supportsAction(record.value())) {
+                log.warn("Пропускаем действие с неподдерживаемыми идентификаторами из партиции {} с офсетом {}: {}",
+                        record.partition(), record.offset(), record.value());
+                rejectedActionsCounter.increment();
+                continue;
+            }
+            // действия с удалёнными мероприятиями не должны заново наполнять их состояние
+            if (!eventExpiryService.isExpired(record.value().getEventId())) {
+                userActions.add(record.value());
+            }
+        }
+        return eventsSimilarityService.countSimilarity(userActions);
+    }
+
+    // Офсеты, которые нужно зафиксировать после обработки пакета
+    private static Map<TopicPartition, OffsetAndMetadata> batchOffsets(
+            ConsumerRecords<String, UserActionAvro> records) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        for (ConsumerRecord<String, UserActionAvro> record : records) {
+            offsets.put(
+                    new TopicPartition(record.topic(), record.partition()),
+                    new OffsetAndMetadata(record.offset() + 1)
+            );
+        }
+        return offsets;
+    }
+
+    private void sendSimilarities(List<EventSimilarityAvro> similarities) {
+        if (batchFormat) {
+            sendSimilarityBatches(similarities);
+        } else {
+            sendSimilarityPairs(similarities);
+        }
+    }
+
+    private void sendSimilarityPairs(List<EventSimilarityAvro> similarities) {
         for (EventSimilarityAvro similarity : similarities) {
             try {
                 log.info("Начинаю отправку сообщений {} в топик {}", similarity, producerConfig.getTopic());
                 String key = similarity.getEventA() + "_" + similarity.getEventB();
-                ProducerRecord<String, EventSimilarityAvro> record = new ProducerRecord<>(
+                // удалённая пара отправляется как tombstone - запись с пустым значением
+                ProducerRecord<String, SpecificRecordBase> record = new ProducerRecord<>(
                         producerConfig.getTopic(),
                         null,
                         similarity.getTimestamp().toEpochMilli(),
                         key,
-                        similarity);
+                        similarity.getScore() > 0 ? similarity : null);
                 log.info("Отправляю сходство {} -> ключ: {}", similarity, key);
                 producer.send(record, (metadata, exception) -> {
                     if (exception != null) {
@@ -140,4 +418,62 @@ public class AggregationStarter {
             }
         }
     }
+
+    // Пары раскладываются по партициям так же, как их ключи "eventA_eventB" в формате PAIR,
+    // поэтому обновления одной пары всегда идут через одну партицию и не обгоняют друг друга
+    private void sendSimilarityBatches(List<EventSimilarityAvro> similarities) {
+        if (similarities.isEmpty()) {
+            return;
+        }
+        String topic = producerConfig.getTopic();
+        int partitions = producer.partitionsFor(topic).size();
+        Map<Integer, List<EventSimilarityAvro>> partitionSimilarities = new HashMap<>();
+        for (EventSimilarityAvro similarity : similarities) {
+            byte[] key = (similarity.getEventA() + "_" + similarity.getEventB()).getBytes(StandardCharsets.UTF_8);
+            int partition = Utils.toPositive(Utils.murmur2(key)) % partitions;
+            partitionSimilarities.computeIfAbsent(partition, p -> new ArrayList<>()).add(similarity);
+        }
+
+        partitionSimilarities.forEach((partition, partitionBatch) -> {
+            for (int from = 0; from < partitionBatch.size(); from += batchEntries) {
+                List<EventSimilarityAvro> chunk =
+                        partitionBatch.subList(from, Math.min(from + batchEntries, partitionBatch.size()));
+                sendSimilarityBatch(topic, partition, chunk);
+            }
+        });
+    }
+
+    private void sendSimilarityBatch(String topic, int partition, List<EventSimilarityAvro> chunk) {
+        try {
+            List<EventSimilarityEntryAvro> entries = new ArrayList<>(chunk.size());
+            Instant timestamp = Instant.EPOCH;
+            for (EventSimilarityAvro similarity : chunk) {
+                entries.add(EventSimilarityEntryAvro.newBuilder()
+                        .setEventA(similarity.getEventA())
+                        .setEventB(similarity.getEventB())
+                        .setScore(similarity.getScore())
+                        .build());
+                if (similarity.getTimestamp().isAfter(timestamp)) {
+                    timestamp = similarity.getTimestamp();
+                }
+            }
+            EventSimilarityBatchAvro batch = EventSimilarityBatchAvro.newBuilder()
+                    .setEntries(entries)
+                    .setTimestamp(timestamp)
+                    .build();
+            RecordHeaders headers = new RecordHeaders();
+            headers.add(EventSimilarityBatchDeserializer.FORMAT_HEADER,
+                    EventSimilarityBatchDeserializer.BATCH_FORMAT.getBytes(StandardCharsets.UTF_8));
+            ProducerRecord<String, SpecificRecordBase> record =
+                    new ProducerRecord<>(topic, partition, timestamp.toEpochMilli(), null, batch, headers);
+            log.info("Отправляю пакет из {} сходств в партицию {} топика {}", entries.size(), partition, topic);
+            producer.send(record, (metadata, exception) -> {
+                if (exception != null) {
+                    log.error("Ошибка отправки пакета сходств в топик {}", topic, exception);
+                }
+            });
+        } catch (Exception e) {
+            log.error("Ошибка обработки пакета сходств", e);
+        }
+    }
 }
@@ -0,0 +1,25 @@
+package ru.practicum.stats.aggregator.service;
+
+import ru.practicum.stats.avro.EventAvro;
+
+public interface EventExpiryService {
+
+    boolean isEnabled();
+
+    /**
+     * Запоминает дату мероприятия. Перенос даты в будущее возвращает удалённое мероприятие в расчёт.
+     */
+    void registerEvent(EventAvro event);
+
+    /**
+     * Удалено ли мероприятие как завершившееся. Действия с такими мероприятиями не учитываются.
+     */
+    boolean isExpired(long eventId);
+
+    boolean isSweepDue();
+
+    /**
+     * Удаляет из состояния мероприятия, дата которых прошла больше чем на заданный запас.
+     */
+    void sweep();
+}
@@ -0,0 +1,89 @@
+package ru.practicum.stats.aggregator.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import ru.practicum.stats.aggregator.config.EventExpiryConfig;
+import ru.practicum.stats.aggregator.storage.LongDoubleHashMap;
+import ru.practicum.stats.aggregator.storage.LongObjectHashMap;
+import ru.practicum.stats.avro.EventAvro;
+
+import java.time.Instant;
+
+/**
+ * Хранит даты мероприятий и периодически удаляет из состояния агрегатора завершившиеся.
+ * Даты в снимки не попадают: при старте топик мероприятий перечитывается с начала.
+ * Не потокобезопасен - вызывается из потока цикла опроса.
+ */
+@Slf4j
+@Service
+public class EventExpiryServiceImpl implements EventExpiryService {
+    private final EventExpiryConfig config;
+    private final EventsSimilarityService eventsSimilarityService;
+
+    // Даты мероприятий, которые ещё участвуют в расчёте: eventId -> eventDate
+    private final LongObjectHashMap<Instant> activeEvents = new LongObjectHashMap<>();
+    // Удалённые мероприятия: eventId -> eventDate в миллисекундах
+    private final LongDoubleHashMap expiredEvents = new LongDoubleHashMap();
+
+    private final Counter expiredCounter;
+    private long lastSweepMillis = System.currentTimeMillis();
+
+    public EventExpiryServiceImpl(EventExpiryConfig config, EventsSimilarityService eventsSimilarityService,
+                                  MeterRegistry meterRegistry) {
+        this.config = config;
+        this.eventsSimilarityService = eventsSimilarityService;
+        this.expiredCounter = Counter.builder("aggregator.expiry.events.expired")
+                .description("Количество завершившихся мероприятий, удалённых из состояния агрегатора")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    @Override
+    public void registerEvent(EventAvro event) {
+        expiredEvents.remove(event.getId());
+        activeEvents.put(event.getId(), event.getEventDate());
+    }
+
+    @Override
+    public boolean isExpired(long eventId) {
+        return expiredEvents.containsKey(eventId);
+    }
+
+    @Override
+    public boolean isSweepDue() {
+        return config.isEnabled()
+                && System.currentTimeMillis() - lastSweepMillis >= config.getSweepInterval().toMillis();
+    }
+
+    @Override
+    public void sweep() {
+        long started = System.nanoTime();
+        lastSweepMillis = System.currentTimeMillis();
+        Instant threshold = Instant.now().minus(config.getMargin());
+
+        LongDoubleHashMap batch = new LongDoubleHashMap();
+        activeEvents.forEach((eventId, eventDate) -> {
+            if (eventDate.isBefore(threshold)) {
+                batch.put(eventId, eventDate.toEpochMilli());
+            }
+        });
+        if (batch.size() == 0) {
+            return;
+        }
+        // один проход по хранилищам на все мероприятия, завершившиеся с прошлой проверки
+        eventsSimilarityService.removeEvents(batch::containsKey);
+        batch.forEach((eventId, eventDate) -> {
+            activeEvents.remove(eventId);
+            expiredEvents.put(eventId, eventDate);
+        });
+        expiredCounter.increment(batch.size());
+        log.info("Удалено завершившихся мероприятий: {} за {} мс", batch.size(),
+                (System.nanoTime() - started) / 1_000_000);
+    }
+}
@@ -0,0 +1,12 @@
+package ru.practicum.stats.aggregator.service;
+
+import ru.practicum.stats.avro.EventSimilarityAvro;
+
+/**
+ * Пара мероприятий как ключ отображения: в отличие от упакованного ключа, принимает любые идентификаторы long.
+ */
+record EventPair(long eventA, long eventB) {
+    static EventPair of(EventSimilarityAvro similarity) {
+        return new EventPair(similarity.getEventA(), similarity.getEventB());
+    }
+}
@@ -4,7 +4,34 @@ import ru.practicum.stats.avro.EventSimilarityAvro;
 import ru.practicum.stats.avro.UserActionAvro;
 
 import java.util.List;
+import java.util.function.LongPredicate;
 
 public interface EventsSimilarityService {
     List<EventSimilarityAvro> countSimilarity(UserActionAvro userAction);
+
+    /**
+     * Обрабатывает пакет действий и возвращает итоговое сходство каждой затронутой пакетом пары мероприятий.
+     * Действия одного пользователя применяются в порядке их следования в пакете.
+     * Может вернуть и отложенные ранее сходства, поэтому вызывается и для пустых пакетов.
+     * Сходство 0 означает, что пара больше не публикуется и должна быть удалена у получателей.
+     */
+    List<EventSimilarityAvro> countSimilarity(List<UserActionAvro> userActions);
+
+    /**
+     * Можно ли учесть действие: хранилища с упакованными ключами и параллельные обработчики
+     * принимают только идентификаторы из диапазона [0, 2^32). Остальные действия вызывающая сторона пропускает.
+     */
+    boolean supportsAction(UserActionAvro userAction);
+
+    /**
+     * Забывает мероприятия, удовлетворяющие условию: веса пользователей, суммы весов и все их пары.
+     * Вызывается между пакетами, в том же потоке, что и countSimilarity.
+     */
+    void removeEvents(LongPredicate eventFilter);
+
+    /**
+     * Заново строит списки лучших соседей по текущим суммам весов. Вызывается после загрузки снимка состояния,
+     * иначе первые же пары после рестарта заняли бы пустые списки и вытеснили бы опубликованных соседей.
+     */
+    void rebuildNeighbours();
 }
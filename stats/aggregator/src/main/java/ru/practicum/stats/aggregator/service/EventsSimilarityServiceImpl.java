@@ -1,13 +1,30 @@
 package ru.practicum.stats.aggregator.service;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import ru.practicum.stats.aggregator.config.PipelineConfig;
+import ru.practicum.stats.aggregator.config.SimilarityConfig;
+import ru.practicum.stats.aggregator.storage.LongObjectHashMap;
+import ru.practicum.stats.aggregator.storage.PackedKeys;
+import ru.practicum.stats.aggregator.storage.ShardedUserWeightsStore;
+import ru.practicum.stats.aggregator.storage.UserWeightsStore;
+import ru.practicum.stats.aggregator.storage.WeightSumsStore;
 import ru.practicum.stats.avro.ActionTypeAvro;
 import ru.practicum.stats.avro.EventSimilarityAvro;
 import ru.practicum.stats.avro.UserActionAvro;
 
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongPredicate;
 
 @Slf4j
 @Service
@@ -19,14 +36,65 @@ public class EventsSimilarityServiceImpl implements EventsSimilarityService {
             ActionTypeAvro.REGISTER, 0.8,
             ActionTypeAvro.LIKE, 1.0);
 
-    // Матрица весов: Map<eventId, Map<userId, maxWeight>>
-    private final Map<Long, Map<Long, Double>> eventUserWeights = new HashMap<>();
-
-    // Суммы весов для каждого мероприятия: Map<eventId, sumOfWeights>
-    private final Map<Long, Double> eventTotalWeights = new HashMap<>();
-
-    // Суммы минимальных весов для пар мероприятий: Map<eventA, Map<eventB, minSum>>
-    private final Map<Long, Map<Long, Double>> minWeightsSums = new HashMap<>();
+    // Матрица весов пользователей и индекс мероприятий каждого пользователя
+    private final UserWeightsStore userWeightsStore;
+
+    // Суммы весов мероприятий и суммы минимальных весов для пар мероприятий
+    private final WeightSumsStore weightSumsStore;
+
+    // Объём работы на одно действие: сколько мероприятий пользователя обошли и сколько пар обновили
+    private final DistributionSummary visitedEventsSummary;
+    private final DistributionSummary updatedPairsSummary;
+
+    // Сколько отправок сходства сэкономило объединение обновлений одной пары в пределах пакета
+    private final Counter savedEmissionsCounter;
+    private final Map<EventPair, EventSimilarityAvro> coalescedPairs = new HashMap<>();
+
+    // Отсекает незначительные изменения сходства относительно последнего отправленного значения
+    private final TopNeighboursFilter topNeighboursFilter;
+    private final SignificantChangeFilter significantChangeFilter;
+
+    // Обработчики пакетов: каждый работает со своим сегментом весов пользователей и копит свои дельты,
+    // а слияние дельт в суммы весов и расчёт сходства выполняются в вызывающем потоке
+    private final int workers;
+    private final ExecutorService workerPool;
+    private final WeightDeltas[] shardDeltas;
+    // Ограничение пересчёта пар для пользователей с длинной историей - своё у каждого обработчика
+    private final HeavyUserLimiter[] heavyUserLimiters;
+    private final LongObjectHashMap<Instant> mergedPairs = new LongObjectHashMap<>();
+
+    public EventsSimilarityServiceImpl(UserWeightsStore userWeightsStore, WeightSumsStore weightSumsStore,
+                                       PipelineConfig pipelineConfig, SimilarityConfig similarityConfig,
+                                       MeterRegistry meterRegistry) {
+        this.userWeightsStore = userWeightsStore;
+        this.weightSumsStore = weightSumsStore;
+        this.workers = pipelineConfig.getWorkers();
+        this.shardDeltas = new WeightDeltas[workers];
+        this.heavyUserLimiters = new HeavyUserLimiter[workers];
+        for (int i = 0; i < workers; i++) {
+            shardDeltas[i] = new WeightDeltas();
+            heavyUserLimiters[i] = new HeavyUserLimiter(similarityConfig, meterRegistry);
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workerPool = workers > 1
+                ? Executors.newFixedThreadPool(workers, runnable -> {
+                    Thread thread = new Thread(runnable, "AggregationWorker-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                })
+                : null;
+        this.visitedEventsSummary = DistributionSummary.builder("aggregator.similarity.events.visited")
+                .description("Количество мероприятий пользователя, просмотренных при обработке одного действия")
+                .register(meterRegistry);
+        this.updatedPairsSummary = DistributionSummary.builder("aggregator.similarity.pairs.updated")
+                .description("Количество пар мероприятий, сумма минимальных весов которых изменилась за одно действие")
+                .register(meterRegistry);
+        this.savedEmissionsCounter = Counter.builder("aggregator.similarity.emissions.saved")
+                .description("Количество обновлений сходства, поглощённых более поздним обновлением той же пары в пакете")
+                .register(meterRegistry);
+        this.topNeighboursFilter = new TopNeighboursFilter(similarityConfig.getTopK(), meterRegistry);
+        this.significantChangeFilter = new SignificantChangeFilter(similarityConfig, meterRegistry);
+    }
 
     @Override
     public List<EventSimilarityAvro> countSimilarity(UserActionAvro userAction) {
@@ -38,19 +106,17 @@ public class EventsSimilarityServiceImpl implements EventsSimilarityService {
         log.debug("Processing action: userId={}, eventId={}, weight={}", userId, eventId, weight);
 
         // Получаем текущий максимальный вес для данного пользователя и мероприятия
-        Double currentMaxWeight = eventUserWeights
-                .computeIfAbsent(eventId, k -> new HashMap<>())
-                .get(userId);
+        // (0.0 - пользователь ещё не взаимодействовал с мероприятием)
+        double previousWeight = userWeightsStore.getWeight(eventId, userId);
 
         // Если вес не изменился (или стал меньше), не обновляем
-        if (currentMaxWeight != null && weight <= currentMaxWeight) {
+        if (weight <= previousWeight) {
             log.debug("Weight not changed or decreased for userId={}, eventId={}", userId, eventId);
             return Collections.emptyList();
         }
 
         // Обновляем максимальный вес
-        double previousWeight = currentMaxWeight != null ? currentMaxWeight : 0.0;
-        eventUserWeights.get(eventId).put(userId, weight);
+        userWeightsStore.putWeight(eventId, userId, weight);
 
         // Обновляем суммы весов для мероприятия
         updateEventTotalWeight(eventId, weight, previousWeight);
@@ -59,12 +125,179 @@ public class EventsSimilarityServiceImpl implements EventsSimilarityService {
         return updateAndCalculateSimilarities(eventId, userId, weight, previousWeight, timestamp);
     }
 
+    @Override
+    public List<EventSimilarityAvro> countSimilarity(List<UserActionAvro> userActions) {
+        // пустой пакет тоже проходит через фильтр - в нём может наступить время принудительной отправки
+        return significantChangeFilter.apply(topNeighboursFilter.apply(workerPool == null
+                ? coalesceSimilarities(userActions)
+                : countSimilarityInParallel(userActions)));
+    }
+
+    private List<EventSimilarityAvro> countSimilarityInParallel(List<UserActionAvro> userActions) {
+        if (userActions.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        // Распределяем действия по обработчикам: все действия пользователя попадают к одному обработчику
+        List<List<UserActionAvro>> shardActions = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            shardActions.add(new ArrayList<>());
+        }
+        for (UserActionAvro userAction : userActions) {
+            shardActions.get(ShardedUserWeightsStore.shardOf(userAction.getUserId(), workers)).add(userAction);
+        }
+
+        List<Future<?>> futures = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            List<UserActionAvro> actions = shardActions.get(i);
+            WeightDeltas deltas = shardDeltas[i];
+            HeavyUserLimiter limiter = heavyUserLimiters[i];
+            deltas.clear();
+            futures.add(workerPool.submit(() ->
+                    actions.forEach(userAction -> applyUserAction(userAction, deltas, limiter))));
+        }
+        // Дожидаемся, пока все обработчики закончат свою часть пакета
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Обработка пакета действий прервана", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Ошибка обработчика пакета действий", e.getCause());
+            }
+        }
+        return mergeDeltas();
+    }
+
+    @Override
+    public boolean supportsAction(UserActionAvro userAction) {
+        long userId = userAction.getUserId();
+        long eventId = userAction.getEventId();
+        // дельты параллельных обработчиков хранят пары в упакованных ключах при любом хранилище
+        return userWeightsStore.supportsId(userId)
+                && userWeightsStore.supportsId(eventId)
+                && weightSumsStore.supportsId(eventId)
+                && (workerPool == null || PackedKeys.fits(eventId));
+    }
+
+    @Override
+    public void removeEvents(LongPredicate eventFilter) {
+        long weights = userWeightsStore.removeEvents(eventFilter);
+        long pairs = weightSumsStore.removeEvents(eventFilter);
+        topNeighboursFilter.removeEvents(eventFilter);
+        significantChangeFilter.removeEvents(eventFilter);
+        log.info("Удалено весов пользователей: {}, пар мероприятий: {}", weights, pairs);
+    }
+
+    @Override
+    public void rebuildNeighbours() {
+        if (!topNeighboursFilter.isEnabled()) {
+            return;
+        }
+        long started = System.nanoTime();
+        topNeighboursFilter.clear();
+        weightSumsStore.forEachMinWeightsSum((eventA, eventB, sum) ->
+                topNeighboursFilter.restore(eventA, eventB, calculateSimilarity(eventA, eventB)));
+        log.info("Списки лучших соседей восстановлены по {} парам за {} мс",
+                weightSumsStore.pairsCount(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (workerPool != null) {
+            workerPool.shutdownNow();
+        }
+    }
+
+    // Обрабатывает действия по одному и оставляет для каждой пары только последнее обновление сходства в пакете.
+    // Отправляется ровно то значение, которое ушло бы последним при отправке после каждого действия,
+    // поэтому итоговое состояние анализатора не меняется
+    private List<EventSimilarityAvro> coalesceSimilarities(List<UserActionAvro> userActions) {
+        coalescedPairs.clear();
+        int produced = 0;
+        for (UserActionAvro userAction : userActions) {
+            for (EventSimilarityAvro similarity : countSimilarity(userAction)) {
+                coalescedPairs.put(EventPair.of(similarity), similarity);
+                produced++;
+            }
+        }
+        List<EventSimilarityAvro> similarities = new ArrayList<>(coalescedPairs.values());
+        savedEmissionsCounter.increment(produced - similarities.size());
+        return similarities;
+    }
+
+    // Обновляет вес пользователя и копит изменения сумм весов, не трогая общее хранилище сумм
+    private void applyUserAction(UserActionAvro userAction, WeightDeltas deltas, HeavyUserLimiter limiter) {
+        long userId = userAction.getUserId();
+        long eventId = userAction.getEventId();
+        double weight = ACTION_WEIGHTS.get(userAction.getActionType());
+        Instant timestamp = userAction.getTimestamp();
+
+        double previousWeight = userWeightsStore.getWeight(eventId, userId);
+        if (weight <= previousWeight) {
+            return;
+        }
+        userWeightsStore.putWeight(eventId, userId, weight);
+        deltas.eventTotals.addTo(eventId, weight - previousWeight);
+
+        UpdateCounters counters = new UpdateCounters();
+        limiter.forEachPartner(userWeightsStore, userId, eventId, (otherEventId, otherWeight) -> {
+            if (otherEventId == eventId) {
+                return;
+            }
+            counters.visitedEvents++;
+
+            long pair = PackedKeys.unorderedPair(eventId, otherEventId);
+            double minWeightDelta = calculateMinWeightDelta(weight, previousWeight, otherWeight);
+            if (minWeightDelta != 0) {
+                deltas.minWeightsSums.addTo(pair, minWeightDelta);
+                counters.updatedPairs++;
+            }
+            // сходство пары меняется и без изменения суммы минимальных весов - из-за суммы весов мероприятия
+            deltas.touchPair(pair, timestamp);
+            deltas.pairTouches++;
+        });
+        visitedEventsSummary.record(counters.visitedEvents);
+        updatedPairsSummary.record(counters.updatedPairs);
+    }
+
+    // Применяет дельты всех обработчиков к общему хранилищу и считает сходство затронутых пар
+    private List<EventSimilarityAvro> mergeDeltas() {
+        mergedPairs.clear();
+        long pairTouches = 0;
+        for (WeightDeltas deltas : shardDeltas) {
+            pairTouches += deltas.pairTouches;
+            deltas.eventTotals.forEach(weightSumsStore::addEventTotal);
+            deltas.minWeightsSums.forEach((pair, delta) ->
+                    weightSumsStore.addMinWeightsSum(PackedKeys.high(pair), PackedKeys.low(pair), delta));
+            deltas.touchedPairs.forEach((pair, timestamp) -> {
+                Instant current = mergedPairs.get(pair);
+                if (current == null || timestamp.isAfter(current)) {
+                    mergedPairs.put(pair, timestamp);
+                }
+            });
+        }
+
+        List<EventSimilarityAvro> similarities = new ArrayList<>(mergedPairs.size());
+        mergedPairs.forEach((pair, timestamp) -> {
+            long eventA = PackedKeys.high(pair);
+            long eventB = PackedKeys.low(pair);
+            double similarity = calculateSimilarity(eventA, eventB);
+            if (similarity > 0) {
+                similarities.add(createEventSimilarity(eventA, eventB, similarity, timestamp));
+            }
+        });
+        // при отправке после каждого действия каждое касание пары стало бы отдельным сообщением
+        savedEmissionsCounter.increment(pairTouches - mergedPairs.size());
+        log.info("Пакет обработан: затронуто пар {}, сходств к отправке {}", mergedPairs.size(), similarities.size());
+        return similarities;
+    }
+
     private void updateEventTotalWeight(long eventId, double newWeight, double previousWeight) {
-        double currentTotal = eventTotalWeights.getOrDefault(eventId, 0.0);
-        double updatedTotal = currentTotal - previousWeight + newWeight;
-        eventTotalWeights.put(eventId, updatedTotal);
+        double updatedTotal = weightSumsStore.addEventTotal(eventId, newWeight - previousWeight);
 
-        log.debug("Updated total weight for event {}: {} -> {}", eventId, currentTotal, updatedTotal);
+        log.debug("Updated total weight for event {}: {}", eventId, updatedTotal);
     }
 
     private List<EventSimilarityAvro> updateAndCalculateSimilarities(
@@ -72,26 +305,23 @@ public class EventsSimilarityServiceImpl implements EventsSimilarityService {
             Instant timestamp) {
 
         List<EventSimilarityAvro> similarities = new ArrayList<>();
+        UpdateCounters counters = new UpdateCounters();
 
-        // Находим все мероприятия, с которыми взаимодействовал данный пользователь
-        for (Map.Entry<Long, Map<Long, Double>> entry : eventUserWeights.entrySet()) {
-            long otherEventId = entry.getKey();
-
+        // Обходим только мероприятия, с которыми взаимодействовал данный пользователь
+        // (для пользователя с длинной историей - только часть из них)
+        HeavyUserLimiter limiter = heavyUserLimiters[0];
+        limiter.forEachPartner(userWeightsStore, userId, updatedEventId, (otherEventId, otherWeight) -> {
             // Пропускаем то же самое мероприятие
             if (otherEventId == updatedEventId) {
-                continue;
-            }
-
-            // Проверяем, взаимодействовал ли пользователь с другим мероприятием
-            Double otherWeight = entry.getValue().get(userId);
-            if (otherWeight == null) {
-                continue; // Пользователь не взаимодействовал с другим мероприятием
+                return;
             }
+            counters.visitedEvents++;
 
             // Обновляем сумму минимальных весов для пары мероприятий
             double minWeightDelta = calculateMinWeightDelta(newWeight, previousWeight, otherWeight);
             if (minWeightDelta != 0) {
                 updateMinWeightSum(updatedEventId, otherEventId, minWeightDelta);
+                counters.updatedPairs++;
             }
 
             // Пересчитываем сходство после обновления
@@ -100,9 +330,9 @@ public class EventsSimilarityServiceImpl implements EventsSimilarityService {
                 similarities.add(createEventSimilarity(updatedEventId, otherEventId, similarity, timestamp));
                 log.debug("Added similarity for pair ({}, {}): {}", updatedEventId, otherEventId, similarity);
             }
-
-
-        }
+        });
+        visitedEventsSummary.record(counters.visitedEvents);
+        updatedPairsSummary.record(counters.updatedPairs);
         log.info("Generated {} similarity updates for event {}", similarities.size(), updatedEventId);
         // Возвращаем первое обновленное сходство (или пустое, если ничего не изменилось)
         return similarities;
@@ -115,36 +345,22 @@ public class EventsSimilarityServiceImpl implements EventsSimilarityService {
     }
 
     private void updateMinWeightSum(long eventA, long eventB, double delta) {
-        long first = Math.min(eventA, eventB);
-        long second = Math.max(eventA, eventB);
-
-        double currentSum = minWeightsSums
-                .computeIfAbsent(first, k -> new HashMap<>())
-                .getOrDefault(second, 0.0);
+        double updatedSum = weightSumsStore.addMinWeightsSum(eventA, eventB, delta);
 
-        minWeightsSums
-                .computeIfAbsent(first, k -> new HashMap<>())
-                .put(second, currentSum + delta);
-
-        log.debug("Updated min weight sum for pair ({}, {}): {} -> {}", first, second, currentSum, currentSum + delta);
+        log.debug("Updated min weight sum for pair ({}, {}): {}", eventA, eventB, updatedSum);
     }
 
     private double calculateSimilarity(long eventA, long eventB) {
-        long first = Math.min(eventA, eventB);
-        long second = Math.max(eventA, eventB);
-
-        Double sMin = minWeightsSums
-                .computeIfAbsent(first, k -> new HashMap<>())
-                .get(second);
+        double sMin = weightSumsStore.getMinWeightsSum(eventA, eventB);
 
-        if (sMin == null || sMin == 0) {
+        if (sMin == 0) {
             return 0.0;
         }
 
-        Double sA = eventTotalWeights.get(eventA);
-        Double sB = eventTotalWeights.get(eventB);
+        double sA = weightSumsStore.getEventTotal(eventA);
+        double sB = weightSumsStore.getEventTotal(eventB);
 
-        if (sA == null || sB == null || sA == 0 || sB == 0) {
+        if (sA == 0 || sB == 0) {
             return 0.0;
         }
 
@@ -167,4 +383,10 @@ public class EventsSimilarityServiceImpl implements EventsSimilarityService {
                 .setTimestamp(timestamp)
                 .build();
     }
+
+    // Счётчики работы, выполненной при обработке одного действия
+    private static class UpdateCounters {
+        private int visitedEvents;
+        private int updatedPairs;
+    }
 }
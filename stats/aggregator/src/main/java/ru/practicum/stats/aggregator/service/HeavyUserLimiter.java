@@ -0,0 +1,154 @@
+package ru.practicum.stats.aggregator.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import ru.practicum.stats.aggregator.config.HeavyUserPolicy;
+import ru.practicum.stats.aggregator.config.SimilarityConfig;
+import ru.practicum.stats.aggregator.storage.UserWeightsStore;
+import ru.practicum.stats.aggregator.storage.UserWeightsStore.EventWeightConsumer;
+
+import java.util.Arrays;
+
+/**
+ * Ограничивает число мероприятий-партнёров, с которыми пересчитываются пары при действии пользователя
+ * с длинной историей. Без ограничения каждое действие такого пользователя обходит всю его историю.
+ * <p>
+ * Пропущенные пары не получают вклад этого действия в сумму минимальных весов, поэтому их сходство
+ * занижено - это цена ограничения, которую показывает счётчик пропущенных партнёров.
+ * Экземпляр держит буферы для выбора и используется одним потоком.
+ */
+class HeavyUserLimiter {
+    private final int threshold;
+    private final HeavyUserPolicy policy;
+    private final int partners;
+
+    private final Counter heavyActionsCounter;
+    private final Counter skippedPartnersCounter;
+
+    // История пользователя в порядке обхода хранилища - только для CAP_HEAVIEST
+    private long[] eventIds = new long[0];
+    private double[] weights = new double[0];
+    private double[] sortedWeights = new double[0];
+
+    HeavyUserLimiter(SimilarityConfig similarityConfig, MeterRegistry meterRegistry) {
+        this.threshold = similarityConfig.getHeavyUserThreshold();
+        this.policy = similarityConfig.getHeavyUserPolicy();
+        this.partners = similarityConfig.getHeavyUserPartners();
+        this.heavyActionsCounter = Counter.builder("aggregator.similarity.heavy-user.actions")
+                .description("Количество действий пользователей, история которых превысила порог")
+                .register(meterRegistry);
+        this.skippedPartnersCounter = Counter.builder("aggregator.similarity.heavy-user.partners.skipped")
+                .description("Количество мероприятий-партнёров, пропущенных при пересчёте пар")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Обходит мероприятия пользователя, с которыми нужно пересчитать пары для действия с eventId.
+     * Само мероприятие eventId тоже передаётся обработчику, как и при обходе хранилища.
+     */
+    void forEachPartner(UserWeightsStore store, long userId, long eventId, EventWeightConsumer consumer) {
+        int historySize = threshold > 0 ? store.countUserEvents(userId) : 0;
+        // история включает само мероприятие действия
+        if (threshold == 0 || historySize <= threshold || historySize - 1 <= partners) {
+            store.forEachUserEvent(userId, consumer);
+            return;
+        }
+        heavyActionsCounter.increment();
+        int considered = switch (policy) {
+            case CAP_RECENT -> forEachRecent(store, userId, eventId, historySize, consumer);
+            case CAP_HEAVIEST -> forEachHeaviest(store, userId, eventId, historySize, consumer);
+            case SAMPLE -> forEachSampled(store, userId, eventId, historySize, consumer);
+        };
+        skippedPartnersCounter.increment(historySize - 1 - considered);
+    }
+
+    private int forEachRecent(UserWeightsStore store, long userId, long eventId, int historySize,
+                              EventWeightConsumer consumer) {
+        // последние partners мероприятий, не считая eventId: оно может стоять где угодно в истории
+        int[] position = new int[1];
+        int[] considered = new int[1];
+        store.forEachUserEvent(userId, (otherEventId, otherWeight) -> {
+            if (otherEventId == eventId) {
+                return;
+            }
+            if (position[0]++ >= historySize - 1 - partners) {
+                consumer.accept(otherEventId, otherWeight);
+                considered[0]++;
+            }
+        });
+        return considered[0];
+    }
+
+    private int forEachHeaviest(UserWeightsStore store, long userId, long eventId, int historySize,
+                                EventWeightConsumer consumer) {
+        ensureCapacity(historySize);
+        int[] size = new int[1];
+        store.forEachUserEvent(userId, (otherEventId, otherWeight) -> {
+            if (otherEventId != eventId) {
+                eventIds[size[0]] = otherEventId;
+                weights[size[0]] = otherWeight;
+                size[0]++;
+            }
+        });
+        int count = size[0];
+
+        // вес, начиная с которого мероприятие попадает в число partners самых тяжёлых
+        System.arraycopy(weights, 0, sortedWeights, 0, count);
+        Arrays.sort(sortedWeights, 0, count);
+        double cutoff = sortedWeights[count - partners];
+        int aboveCutoff = 0;
+        for (int i = 0; i < count; i++) {
+            if (weights[i] > cutoff) {
+                aboveCutoff++;
+            }
+        }
+
+        // мест для мероприятий с весом ровно cutoff может не хватить всем - отдаём их более поздним
+        int atCutoff = partners - aboveCutoff;
+        int considered = 0;
+        for (int i = count - 1; i >= 0; i--) {
+            if (weights[i] > cutoff || (weights[i] == cutoff && atCutoff-- > 0)) {
+                consumer.accept(eventIds[i], weights[i]);
+                considered++;
+            }
+        }
+        return considered;
+    }
+
+    private int forEachSampled(UserWeightsStore store, long userId, long eventId, int historySize,
+                               EventWeightConsumer consumer) {
+        // решение зависит только от пользователя, пары и доли выборки: пока история не выросла,
+        // пара пользователя либо всегда учитывается, либо всегда пропускается
+        double rate = (double) partners / (historySize - 1);
+        long bound = (long) (rate * (1L << 53));
+        int[] considered = new int[1];
+        store.forEachUserEvent(userId, (otherEventId, otherWeight) -> {
+            if (otherEventId == eventId) {
+                return;
+            }
+            // ключ пары не упакован в 32-битные половины, чтобы принимать любые идентификаторы long
+            long pair = mix(Math.min(eventId, otherEventId)) ^ Math.max(eventId, otherEventId);
+            if ((mix(pair ^ (userId * 0x9E37_79B9_7F4A_7C15L)) >>> 11) < bound) {
+                consumer.accept(otherEventId, otherWeight);
+                considered[0]++;
+            }
+        });
+        return considered[0];
+    }
+
+    private void ensureCapacity(int size) {
+        if (eventIds.length < size) {
+            eventIds = new long[size];
+            weights = new double[size];
+            sortedWeights = new double[size];
+        }
+    }
+
+    // Финализатор MurmurHash3: равномерно распределяет биты ключа по всему результату
+    private static long mix(long key) {
+        long h = key;
+        h = (h ^ (h >>> 33)) * 0xFF51_AFD7_ED55_8CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CE_B9FE_1A85_EC53L;
+        return h ^ (h >>> 33);
+    }
+}
@@ -0,0 +1,98 @@
+package ru.practicum.stats.aggregator.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import ru.practicum.stats.aggregator.config.SimilarityConfig;
+import ru.practicum.stats.avro.EventSimilarityAvro;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongPredicate;
+
+/**
+ * Пропускает к отправке только те сходства, которые отличаются от последнего отправленного значения пары
+ * больше, чем на порог. Отложенные изменения отправляются принудительно раз в forceFlushInterval.
+ * Удаления пар (сходство 0) порог не проходят: они отправляются всегда, а отложенное значение пары забывается,
+ * чтобы при сбросе не вернуть удалённую пару получателям.
+ */
+@Slf4j
+class SignificantChangeFilter {
+    private final double minScoreChange;
+    private final long forceFlushIntervalMillis;
+
+    // Последнее отправленное сходство пары
+    private final Map<EventPair, Double> publishedScores = new HashMap<>();
+    // Последнее не отправленное сходство пары
+    private final Map<EventPair, EventSimilarityAvro> pending = new HashMap<>();
+
+    private final Counter suppressedCounter;
+    private long lastFlushMillis = System.currentTimeMillis();
+
+    SignificantChangeFilter(SimilarityConfig config, MeterRegistry meterRegistry) {
+        this.minScoreChange = config.getMinScoreChange();
+        this.forceFlushIntervalMillis = config.getForceFlushInterval().toMillis();
+        this.suppressedCounter = Counter.builder("aggregator.similarity.emissions.suppressed")
+                .description("Количество обновлений сходства, отложенных из-за изменения меньше порога")
+                .register(meterRegistry);
+    }
+
+    boolean isEnabled() {
+        return minScoreChange > 0;
+    }
+
+    List<EventSimilarityAvro> apply(List<EventSimilarityAvro> similarities) {
+        if (!isEnabled()) {
+            return similarities;
+        }
+        List<EventSimilarityAvro> significant = new ArrayList<>(similarities.size());
+        for (EventSimilarityAvro similarity : similarities) {
+            EventPair pair = EventPair.of(similarity);
+            if (similarity.getScore() == 0.0) {
+                // после удаления следующее сходство пары отправится как новое
+                publishedScores.remove(pair);
+                pending.remove(pair);
+                significant.add(similarity);
+                continue;
+            }
+            Double published = publishedScores.get(pair);
+            if (published == null || Math.abs(similarity.getScore() - published) > minScoreChange) {
+                publishedScores.put(pair, similarity.getScore());
+                significant.add(similarity);
+                if (pending.containsKey(pair)) {
+                    // отложенное значение устарело - при сбросе оно совпадёт с отправленным и будет пропущено
+                    pending.put(pair, similarity);
+                }
+            } else {
+                pending.put(pair, similarity);
+                suppressedCounter.increment();
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - lastFlushMillis >= forceFlushIntervalMillis) {
+            lastFlushMillis = now;
+            int before = significant.size();
+            // отправляем отложенные значения, которые так и не были перекрыты значимым изменением
+            pending.forEach((pair, similarity) -> {
+                Double published = publishedScores.get(pair);
+                if (published == null || published != similarity.getScore()) {
+                    publishedScores.put(pair, similarity.getScore());
+                    significant.add(similarity);
+                }
+            });
+            pending.clear();
+            log.info("Принудительная отправка отложенных сходств: {}", significant.size() - before);
+        }
+        return significant;
+    }
+
+    void removeEvents(LongPredicate eventFilter) {
+        publishedScores.keySet().removeIf(pair ->
+                eventFilter.test(pair.eventA()) || eventFilter.test(pair.eventB()));
+        pending.keySet().removeIf(pair ->
+                eventFilter.test(pair.eventA()) || eventFilter.test(pair.eventB()));
+    }
+}
@@ -0,0 +1,22 @@
+package ru.practicum.stats.aggregator.service;
+
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Map;
+import java.util.function.Predicate;
+
+public interface StateSnapshotService {
+
+    /**
+     * Загружает в хранилища самый свежий корректный снимок состояния, офсеты которого принимает offsetsValidator.
+     * Возвращает офсеты, с которых нужно продолжить чтение, или пустую карту, если подходящих снимков нет.
+     */
+    Map<TopicPartition, Long> restoreLatest(Predicate<Map<TopicPartition, Long>> offsetsValidator);
+
+    boolean isSnapshotDue();
+
+    /**
+     * Сохраняет текущее состояние вместе с офсетами, до которых (не включая) обработаны действия.
+     */
+    void takeSnapshot(Map<TopicPartition, Long> offsets);
+}
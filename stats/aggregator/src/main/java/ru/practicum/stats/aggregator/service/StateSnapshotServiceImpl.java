@@ -0,0 +1,270 @@
+package ru.practicum.stats.aggregator.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.stereotype.Service;
+import ru.practicum.stats.aggregator.config.SnapshotConfig;
+import ru.practicum.stats.aggregator.storage.UserWeightsStore;
+import ru.practicum.stats.aggregator.storage.WeightSumsStore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Снимки состояния агрегатора в бинарном файле на локальном диске.
+ * <p>
+ * Формат файла (все числа - big-endian):
+ * <pre>
+ * int    MAGIC, int VERSION, long createdAt
+ * int    число партиций, далее [UTF topic, int partition, long offset]
+ * long   число весов пользователей, далее [long eventId, long userId, double weight] -
+ *        по пользователям, в порядке первого взаимодействия пользователя с мероприятием
+ * long   число мероприятий, далее [long eventId, double total]
+ * long   число пар, далее [long eventA, long eventB, double minSum]
+ * long   CRC32 всех предыдущих байт
+ * </pre>
+ */
+@Slf4j
+@Service
+public class StateSnapshotServiceImpl implements StateSnapshotService {
+    private static final int MAGIC = 0x41475353; // "AGSS"
+    // версия 2: веса пользователей записываются в порядке их истории, от него зависит политика CAP_RECENT
+    private static final int VERSION = 2;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final SnapshotConfig config;
+    private final UserWeightsStore userWeightsStore;
+    private final WeightSumsStore weightSumsStore;
+
+    private long lastSnapshotMillis = System.currentTimeMillis();
+
+    public StateSnapshotServiceImpl(SnapshotConfig config, UserWeightsStore userWeightsStore,
+                                    WeightSumsStore weightSumsStore) {
+        this.config = config;
+        this.userWeightsStore = userWeightsStore;
+        this.weightSumsStore = weightSumsStore;
+    }
+
+    @Override
+    public Map<TopicPartition, Long> restoreLatest(Predicate<Map<TopicPartition, Long>> offsetsValidator) {
+        if (!config.isEnabled()) {
+            return Collections.emptyMap();
+        }
+        boolean failed = false;
+        for (Path snapshot : listSnapshots()) {
+            try {
+                long started = System.nanoTime();
+                // предыдущая попытка могла оставить в хранилищах часть записей
+                clearStores();
+                // Сначала проверяем контрольную сумму, чтобы не загрузить в хранилища часть повреждённого файла
+                verifyChecksum(snapshot);
+                Map<TopicPartition, Long> offsets = load(snapshot, offsetsValidator);
+                log.info("Состояние восстановлено из снимка {} ({} байт) за {} мс: весов {}, мероприятий {}, пар {}",
+                        snapshot, Files.size(snapshot), (System.nanoTime() - started) / 1_000_000,
+                        userWeightsStore.size(), weightSumsStore.eventsCount(), weightSumsStore.pairsCount());
+                return offsets;
+            } catch (IOException | RuntimeException e) {
+                failed = true;
+                log.warn("Не удалось прочитать снимок {}, пробуем предыдущий", snapshot, e);
+            }
+        }
+        if (failed) {
+            // ни один снимок не загрузился - состояние строится заново из топика
+            clearStores();
+        }
+        log.info("Снимков состояния в каталоге {} не найдено", config.getDirectory());
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public boolean isSnapshotDue() {
+        return config.isEnabled()
+                && System.currentTimeMillis() - lastSnapshotMillis >= config.getInterval().toMillis();
+    }
+
+    @Override
+    public void takeSnapshot(Map<TopicPartition, Long> offsets) {
+        if (!config.isEnabled()) {
+            return;
+        }
+        long started = System.nanoTime();
+        long createdAt = System.currentTimeMillis();
+        Path target = config.getDirectory().resolve(String.format("%s%020d%s", PREFIX, createdAt, SUFFIX));
+        Path temp = config.getDirectory().resolve(target.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(config.getDirectory());
+            write(temp, createdAt, offsets);
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            lastSnapshotMillis = createdAt;
+            log.info("Снимок состояния {} ({} байт) записан за {} мс, офсеты {}",
+                    target, Files.size(target), (System.nanoTime() - started) / 1_000_000, offsets);
+            deleteOutdated();
+        } catch (IOException | UncheckedIOException e) {
+            log.error("Ошибка записи снимка состояния {}", target, e);
+        }
+    }
+
+    private void write(Path file, long createdAt, Map<TopicPartition, Long> offsets) throws IOException {
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE), crc))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(createdAt);
+
+            out.writeInt(offsets.size());
+            for (Map.Entry<TopicPartition, Long> entry : offsets.entrySet()) {
+                out.writeUTF(entry.getKey().topic());
+                out.writeInt(entry.getKey().partition());
+                out.writeLong(entry.getValue());
+            }
+
+            out.writeLong(userWeightsStore.size());
+            userWeightsStore.forEach((eventId, userId, weight) -> unchecked(() -> {
+                out.writeLong(eventId);
+                out.writeLong(userId);
+                out.writeDouble(weight);
+            }));
+
+            out.writeLong(weightSumsStore.eventsCount());
+            weightSumsStore.forEachEventTotal((eventId, total) -> unchecked(() -> {
+                out.writeLong(eventId);
+                out.writeDouble(total);
+            }));
+
+            out.writeLong(weightSumsStore.pairsCount());
+            weightSumsStore.forEachMinWeightsSum((eventA, eventB, sum) -> unchecked(() -> {
+                out.writeLong(eventA);
+                out.writeLong(eventB);
+                out.writeDouble(sum);
+            }));
+
+            out.writeLong(crc.getValue());
+        }
+    }
+
+    private void verifyChecksum(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        long payloadSize = Files.size(file) - Long.BYTES;
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE), crc))) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long remaining = payloadSize;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new IllegalStateException("Снимок обрезан");
+                }
+                remaining -= read;
+            }
+            long expected = crc.getValue();
+            if (in.readLong() != expected) {
+                throw new IllegalStateException("Контрольная сумма снимка не совпадает");
+            }
+        }
+    }
+
+    private Map<TopicPartition, Long> load(Path file, Predicate<Map<TopicPartition, Long>> offsetsValidator)
+            throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IllegalStateException("Неизвестный формат снимка");
+            }
+            in.readLong(); // createdAt
+
+            Map<TopicPartition, Long> offsets = new HashMap<>();
+            int partitions = in.readInt();
+            for (int i = 0; i < partitions; i++) {
+                offsets.put(new TopicPartition(in.readUTF(), in.readInt()), in.readLong());
+            }
+            if (!offsetsValidator.test(offsets)) {
+                throw new IllegalStateException("Офсеты снимка не соответствуют топику: " + offsets);
+            }
+
+            for (long i = in.readLong(); i > 0; i--) {
+                userWeightsStore.putWeight(in.readLong(), in.readLong(), in.readDouble());
+            }
+            for (long i = in.readLong(); i > 0; i--) {
+                weightSumsStore.addEventTotal(in.readLong(), in.readDouble());
+            }
+            for (long i = in.readLong(); i > 0; i--) {
+                weightSumsStore.addMinWeightsSum(in.readLong(), in.readLong(), in.readDouble());
+            }
+            return offsets;
+        }
+    }
+
+    private void clearStores() {
+        userWeightsStore.removeEvents(eventId -> true);
+        weightSumsStore.removeEvents(eventId -> true);
+    }
+
+    // Снимки от самого нового к самому старому
+    private List<Path> listSnapshots() {
+        if (!Files.isDirectory(config.getDirectory())) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> files = Files.list(config.getDirectory())) {
+            return files
+                    .filter(file -> {
+                        String name = file.getFileName().toString();
+                        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+                    })
+                    .sorted(Collections.reverseOrder())
+                    .toList();
+        } catch (IOException e) {
+            log.error("Не удалось прочитать каталог снимков {}", config.getDirectory(), e);
+            return Collections.emptyList();
+        }
+    }
+
+    private void deleteOutdated() {
+        List<Path> snapshots = listSnapshots();
+        for (Path outdated : snapshots.subList(Math.min(Math.max(1, config.getRetained()), snapshots.size()),
+                snapshots.size())) {
+            try {
+                Files.deleteIfExists(outdated);
+                log.debug("Удалён устаревший снимок {}", outdated);
+            } catch (IOException e) {
+                log.warn("Не удалось удалить устаревший снимок {}", outdated, e);
+            }
+        }
+    }
+
+    private static void unchecked(IoAction action) {
+        try {
+            action.run();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface IoAction {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,169 @@
+package ru.practicum.stats.aggregator.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import ru.practicum.stats.aggregator.storage.LongObjectHashMap;
+import ru.practicum.stats.avro.EventSimilarityAvro;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongPredicate;
+
+/**
+ * Публикует только пары, входящие в K лучших соседей хотя бы одного из двух мероприятий.
+ * Когда пара вытесняется из списков обоих мероприятий, публикуется её удаление - сходство 0.
+ * <p>
+ * Суммы весов хранятся полностью, ограничивается только публикация. Оценка соседа в списке обновляется
+ * при каждом пересчёте пары, но сосед, чья оценка упала, вытесняется лишь более сильным кандидатом.
+ * <p>
+ * Списки не входят в снимок состояния: после восстановления они заново строятся по суммам весов
+ * через {@link #clear()} и {@link #restore(long, long, double)}.
+ */
+class TopNeighboursFilter {
+    private static final long REJECTED = -2;
+    private static final long RETAINED = -1;
+
+    private final int k;
+
+    // eventId -> лучшие соседи мероприятия
+    private final LongObjectHashMap<Neighbours> neighbours = new LongObjectHashMap<>();
+
+    private final Counter retractedCounter;
+
+    TopNeighboursFilter(int k, MeterRegistry meterRegistry) {
+        this.k = k;
+        this.retractedCounter = Counter.builder("aggregator.similarity.pairs.retracted")
+                .description("Количество пар, удалённых из публикации после вытеснения из K лучших соседей")
+                .register(meterRegistry);
+    }
+
+    boolean isEnabled() {
+        return k > 0;
+    }
+
+    List<EventSimilarityAvro> apply(List<EventSimilarityAvro> similarities) {
+        if (!isEnabled()) {
+            return similarities;
+        }
+        List<EventSimilarityAvro> published = new ArrayList<>(similarities.size());
+        for (EventSimilarityAvro similarity : similarities) {
+            long eventA = similarity.getEventA();
+            long eventB = similarity.getEventB();
+            long evictedFromA = neighboursOf(eventA).offer(eventB, similarity.getScore());
+            long evictedFromB = neighboursOf(eventB).offer(eventA, similarity.getScore());
+
+            if (evictedFromA != REJECTED || evictedFromB != REJECTED) {
+                published.add(similarity);
+            }
+            retractIfOrphaned(eventA, evictedFromA, similarity, published);
+            retractIfOrphaned(eventB, evictedFromB, similarity, published);
+        }
+        return published;
+    }
+
+    // Пара (eventId, evicted) больше не публикуется, если её нет и в списке второго мероприятия
+    private void retractIfOrphaned(long eventId, long evicted, EventSimilarityAvro cause,
+                                   List<EventSimilarityAvro> published) {
+        if (evicted < 0 || neighboursOf(evicted).contains(eventId)) {
+            return;
+        }
+        published.add(EventSimilarityAvro.newBuilder()
+                .setEventA(Math.min(eventId, evicted))
+                .setEventB(Math.max(eventId, evicted))
+                .setScore(0.0)
+                .setTimestamp(cause.getTimestamp())
+                .build());
+        retractedCounter.increment();
+    }
+
+    void clear() {
+        neighbours.clear();
+    }
+
+    // Вносит пару в списки без публикации: восстановленные списки отличаются от списков до остановки
+    // только тем, что в них нет соседей с упавшей оценкой, которых ещё не вытеснил сильный кандидат
+    void restore(long eventA, long eventB, double score) {
+        if (score > 0) {
+            neighboursOf(eventA).offer(eventB, score);
+            neighboursOf(eventB).offer(eventA, score);
+        }
+    }
+
+    // Забывает списки удалённых мероприятий и освобождает занятые ими места в списках остальных
+    void removeEvents(LongPredicate eventFilter) {
+        neighbours.removeIf((eventId, list) -> eventFilter.test(eventId));
+        neighbours.forEach((eventId, list) -> list.removeIf(eventFilter));
+    }
+
+    private Neighbours neighboursOf(long eventId) {
+        return neighbours.computeIfAbsent(eventId, id -> new Neighbours(k));
+    }
+
+    // K лучших соседей одного мероприятия в неупорядоченных массивах
+    private static final class Neighbours {
+        private final long[] ids;
+        private final double[] scores;
+        private int size;
+
+        private Neighbours(int k) {
+            this.ids = new long[k];
+            this.scores = new double[k];
+        }
+
+        private boolean contains(long id) {
+            return indexOf(id) >= 0;
+        }
+
+        /**
+         * Предлагает соседа с оценкой. Возвращает RETAINED, если сосед в списке и никто не вытеснен,
+         * REJECTED, если сосед в список не попал, или идентификатор вытесненного соседа.
+         */
+        private long offer(long id, double score) {
+            int index = indexOf(id);
+            if (index >= 0) {
+                scores[index] = score;
+                return RETAINED;
+            }
+            if (size < ids.length) {
+                ids[size] = id;
+                scores[size] = score;
+                size++;
+                return RETAINED;
+            }
+            int weakest = 0;
+            for (int i = 1; i < size; i++) {
+                if (scores[i] < scores[weakest]) {
+                    weakest = i;
+                }
+            }
+            if (score <= scores[weakest]) {
+                return REJECTED;
+            }
+            long evicted = ids[weakest];
+            ids[weakest] = id;
+            scores[weakest] = score;
+            return evicted;
+        }
+
+        private void removeIf(LongPredicate filter) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (!filter.test(ids[i])) {
+                    ids[kept] = ids[i];
+                    scores[kept] = scores[i];
+                    kept++;
+                }
+            }
+            size = kept;
+        }
+
+        private int indexOf(long id) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
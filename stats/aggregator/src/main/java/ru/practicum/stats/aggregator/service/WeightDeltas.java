@@ -0,0 +1,38 @@
+package ru.practicum.stats.aggregator.service;
+
+import ru.practicum.stats.aggregator.storage.LongDoubleHashMap;
+import ru.practicum.stats.aggregator.storage.LongObjectHashMap;
+
+import java.time.Instant;
+
+/**
+ * Изменения сумм весов, накопленные одним обработчиком за пакет действий.
+ * Суммы аддитивны, поэтому дельты разных обработчиков можно складывать в любом порядке.
+ */
+class WeightDeltas {
+    // eventId -> изменение суммы весов мероприятия
+    final LongDoubleHashMap eventTotals = new LongDoubleHashMap();
+
+    // unorderedPair(eventA, eventB) -> изменение суммы минимальных весов пары
+    final LongDoubleHashMap minWeightsSums = new LongDoubleHashMap();
+
+    // unorderedPair(eventA, eventB) -> время последнего действия, затронувшего пару
+    final LongObjectHashMap<Instant> touchedPairs = new LongObjectHashMap<>();
+
+    // Сколько раз действия пакета затронули какую-либо пару, с повторами
+    long pairTouches;
+
+    void touchPair(long pair, Instant timestamp) {
+        Instant current = touchedPairs.get(pair);
+        if (current == null || timestamp.isAfter(current)) {
+            touchedPairs.put(pair, timestamp);
+        }
+    }
+
+    void clear() {
+        eventTotals.clear();
+        minWeightsSums.clear();
+        touchedPairs.clear();
+        pairTouches = 0;
+    }
+}
@@ -0,0 +1,72 @@
+package ru.practicum.stats.aggregator.storage;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongPredicate;
+
+public class HashMapUserWeightsStore implements UserWeightsStore {
+
+    // Матрица весов: Map<eventId, Map<userId, maxWeight>>
+    private final Map<Long, Map<Long, Double>> eventUserWeights = new HashMap<>();
+
+    // Индекс мероприятий пользователя: Map<userId, Set<eventId>>
+    private final Map<Long, Set<Long>> userEvents = new HashMap<>();
+
+    @Override
+    public double getWeight(long eventId, long userId) {
+        return eventUserWeights.getOrDefault(eventId, Collections.emptyMap()).getOrDefault(userId, 0.0);
+    }
+
+    @Override
+    public void putWeight(long eventId, long userId, double weight) {
+        eventUserWeights.computeIfAbsent(eventId, k -> new HashMap<>()).put(userId, weight);
+        userEvents.computeIfAbsent(userId, k -> new LinkedHashSet<>()).add(eventId);
+    }
+
+    @Override
+    public void forEachUserEvent(long userId, EventWeightConsumer consumer) {
+        for (Long eventId : userEvents.getOrDefault(userId, Collections.emptySet())) {
+            consumer.accept(eventId, eventUserWeights.get(eventId).get(userId));
+        }
+    }
+
+    @Override
+    public int countUserEvents(long userId) {
+        return userEvents.getOrDefault(userId, Collections.emptySet()).size();
+    }
+
+    @Override
+    public void forEach(UserWeightConsumer consumer) {
+        userEvents.forEach((userId, events) -> events.forEach(eventId ->
+                consumer.accept(eventId, userId, eventUserWeights.get(eventId).get(userId))));
+    }
+
+    @Override
+    public long removeEvents(LongPredicate eventFilter) {
+        long removed = 0;
+        Iterator<Map.Entry<Long, Map<Long, Double>>> iterator = eventUserWeights.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Map<Long, Double>> entry = iterator.next();
+            if (eventFilter.test(entry.getKey())) {
+                removed += entry.getValue().size();
+                iterator.remove();
+            }
+        }
+        userEvents.values().removeIf(events -> {
+            events.removeIf(eventFilter::test);
+            return events.isEmpty();
+        });
+        return removed;
+    }
+
+    @Override
+    public long size() {
+        return eventUserWeights.values().stream()
+                .mapToLong(Map::size)
+                .sum();
+    }
+}
@@ -0,0 +1,82 @@
+package ru.practicum.stats.aggregator.storage;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.LongPredicate;
+
+public class HashMapWeightSumsStore implements WeightSumsStore {
+
+    // Суммы весов для каждого мероприятия: Map<eventId, sumOfWeights>
+    private final Map<Long, Double> eventTotalWeights = new HashMap<>();
+
+    // Суммы минимальных весов для пар мероприятий: Map<eventA, Map<eventB, minSum>>, где eventA < eventB
+    private final Map<Long, Map<Long, Double>> minWeightsSums = new HashMap<>();
+
+    @Override
+    public double getEventTotal(long eventId) {
+        return eventTotalWeights.getOrDefault(eventId, 0.0);
+    }
+
+    @Override
+    public double addEventTotal(long eventId, double delta) {
+        return eventTotalWeights.merge(eventId, delta, Double::sum);
+    }
+
+    @Override
+    public double getMinWeightsSum(long eventA, long eventB) {
+        return minWeightsSums.getOrDefault(Math.min(eventA, eventB), Collections.emptyMap())
+                .getOrDefault(Math.max(eventA, eventB), 0.0);
+    }
+
+    @Override
+    public double addMinWeightsSum(long eventA, long eventB, double delta) {
+        return minWeightsSums.computeIfAbsent(Math.min(eventA, eventB), k -> new HashMap<>())
+                .merge(Math.max(eventA, eventB), delta, Double::sum);
+    }
+
+    @Override
+    public void forEachEventTotal(EventTotalConsumer consumer) {
+        eventTotalWeights.forEach(consumer::accept);
+    }
+
+    @Override
+    public void forEachMinWeightsSum(PairSumConsumer consumer) {
+        minWeightsSums.forEach((eventA, sums) -> sums.forEach((eventB, sum) -> consumer.accept(eventA, eventB, sum)));
+    }
+
+    @Override
+    public long removeEvents(LongPredicate eventFilter) {
+        eventTotalWeights.keySet().removeIf(eventFilter::test);
+        long removed = 0;
+        Iterator<Map.Entry<Long, Map<Long, Double>>> iterator = minWeightsSums.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Map<Long, Double>> entry = iterator.next();
+            if (eventFilter.test(entry.getKey())) {
+                removed += entry.getValue().size();
+                iterator.remove();
+                continue;
+            }
+            int before = entry.getValue().size();
+            entry.getValue().keySet().removeIf(eventFilter::test);
+            removed += before - entry.getValue().size();
+            if (entry.getValue().isEmpty()) {
+                iterator.remove();
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public long eventsCount() {
+        return eventTotalWeights.size();
+    }
+
+    @Override
+    public long pairsCount() {
+        return minWeightsSums.values().stream()
+                .mapToLong(Map::size)
+                .sum();
+    }
+}
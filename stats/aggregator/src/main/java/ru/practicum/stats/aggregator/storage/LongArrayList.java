@@ -0,0 +1,44 @@
+package ru.practicum.stats.aggregator.storage;
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * Растущий список примитивных long без упаковки элементов.
+ */
+public class LongArrayList {
+    private static final int INITIAL_CAPACITY = 4;
+
+    private long[] elements = new long[INITIAL_CAPACITY];
+    private int size;
+
+    public void add(long value) {
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, size << 1);
+        }
+        elements[size++] = value;
+    }
+
+    public long get(int index) {
+        return elements[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Удаляет все элементы, удовлетворяющие условию, сохраняя порядок остальных, и возвращает их количество.
+     */
+    public int removeIf(LongPredicate predicate) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (!predicate.test(elements[i])) {
+                elements[kept++] = elements[i];
+            }
+        }
+        int removed = size - kept;
+        size = kept;
+        return removed;
+    }
+}
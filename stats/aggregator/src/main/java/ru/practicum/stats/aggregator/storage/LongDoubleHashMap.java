@@ -0,0 +1,246 @@
+package ru.practicum.stats.aggregator.storage;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Хеш-таблица long -> double с открытой адресацией и линейным пробированием.
+ * Не создаёт объектов на запись: ключи и значения хранятся в двух параллельных массивах.
+ * Нулевой ключ служит признаком пустой ячейки, поэтому его значение хранится отдельно.
+ * Удаление сдвигает следующие записи цепочки назад, поэтому таблица обходится без надгробий.
+ * <p>
+ * У каждой таблицы своё зерно хеш-функции. С общей функцией перенос записей одной таблицы в другую
+ * в порядке обхода ячеек (восстановление из снимка, слияние) вставлял бы ключи подряд идущими кластерами,
+ * и линейное пробирование деградировало бы почти до квадратичного. Зерна берутся из общей
+ * последовательности, поэтому раскладка и порядок обхода таблиц повторяются от запуска к запуску.
+ * Не потокобезопасна.
+ */
+public class LongDoubleHashMap {
+    private static final double LOAD_FACTOR = 0.7;
+    private static final int MIN_CAPACITY = 16;
+    private static final AtomicLong SEEDS = new AtomicLong();
+
+    private final long seed = nextSeed();
+
+    private long[] keys;
+    private double[] values;
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+
+    private boolean hasZeroKey;
+    private double zeroValue;
+
+    public LongDoubleHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongDoubleHashMap(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    public double get(long key, double defaultValue) {
+        if (key == 0) {
+            return hasZeroKey ? zeroValue : defaultValue;
+        }
+        int slot = findSlot(key);
+        return keys[slot] == key ? values[slot] : defaultValue;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == 0) {
+            return hasZeroKey;
+        }
+        return keys[findSlot(key)] == key;
+    }
+
+    public void put(long key, double value) {
+        if (key == 0) {
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroValue = value;
+            return;
+        }
+        int slot = findSlot(key);
+        if (keys[slot] == key) {
+            values[slot] = value;
+            return;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > resizeThreshold) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    /**
+     * Прибавляет delta к значению ключа (отсутствующий ключ считается равным 0.0) и возвращает результат.
+     */
+    public double addTo(long key, double delta) {
+        if (key == 0) {
+            double updated = (hasZeroKey ? zeroValue : 0.0) + delta;
+            put(0, updated);
+            return updated;
+        }
+        int slot = findSlot(key);
+        if (keys[slot] == key) {
+            values[slot] += delta;
+            return values[slot];
+        }
+        keys[slot] = key;
+        values[slot] = delta;
+        if (++size > resizeThreshold) {
+            rehash(keys.length << 1);
+        }
+        return delta;
+    }
+
+    public boolean remove(long key) {
+        if (key == 0) {
+            if (!hasZeroKey) {
+                return false;
+            }
+            hasZeroKey = false;
+            size--;
+            return true;
+        }
+        int slot = findSlot(key);
+        if (keys[slot] != key) {
+            return false;
+        }
+        deleteSlot(slot);
+        return true;
+    }
+
+    /**
+     * Удаляет все записи, удовлетворяющие условию, и возвращает их количество.
+     */
+    public int removeIf(LongDoublePredicate predicate) {
+        int removed = 0;
+        if (hasZeroKey && predicate.test(0, zeroValue)) {
+            hasZeroKey = false;
+            size--;
+            removed++;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            // после удаления в ячейку i может сдвинуться следующая запись - проверяем её тоже
+            while (keys[i] != 0 && predicate.test(keys[i], values[i])) {
+                deleteSlot(i);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void forEach(LongDoubleConsumer consumer) {
+        if (hasZeroKey) {
+            consumer.accept(0, zeroValue);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        size = 0;
+        hasZeroKey = false;
+    }
+
+    private int findSlot(long key) {
+        int slot = homeSlot(key);
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // Ячейка, с которой начинается поиск ключа
+    int homeSlot(long key) {
+        return mix(key, seed) & mask;
+    }
+
+    // Удаление со сдвигом: записи за освободившейся ячейкой, которые могут в ней лежать, сдвигаются назад
+    private void deleteSlot(int slot) {
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (keys[next] != 0) {
+            int home = homeSlot(keys[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = 0;
+        size--;
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        double[] oldValues = values;
+        allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = findSlot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new double[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    // Финализатор MurmurHash3: каждый бит результата зависит от всех битов ключа и зерна
+    static int mix(long key, long seed) {
+        long h = key ^ seed;
+        h = (h ^ (h >>> 33)) * 0xFF51_AFD7_ED55_8CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CE_B9FE_1A85_EC53L;
+        return (int) (h ^ (h >>> 33));
+    }
+
+    // n-е значение SplitMix64: соседние номера дают несвязанные зерна
+    static long nextSeed() {
+        long h = SEEDS.incrementAndGet() * 0x9E37_79B9_7F4A_7C15L;
+        h = (h ^ (h >>> 30)) * 0xBF58_476D_1CE4_E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D0_49BB_1331_11EBL;
+        return h ^ (h >>> 31);
+    }
+
+    static int mix(long key) {
+        long h = key * 0x9E37_79B9_7F4A_7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    static int tableSizeFor(int expectedSize) {
+        long required = Math.max(MIN_CAPACITY, (long) Math.ceil(expectedSize / LOAD_FACTOR));
+        if (required > (1 << 30)) {
+            throw new IllegalArgumentException("Слишком большой ожидаемый размер таблицы: " + expectedSize);
+        }
+        return Integer.highestOneBit((int) required - 1) << 1;
+    }
+
+    @FunctionalInterface
+    public interface LongDoubleConsumer {
+        void accept(long key, double value);
+    }
+
+    @FunctionalInterface
+    public interface LongDoublePredicate {
+        boolean test(long key, double value);
+    }
+}
@@ -0,0 +1,203 @@
+package ru.practicum.stats.aggregator.storage;
+
+import java.util.Arrays;
+import java.util.function.LongFunction;
+
+/**
+ * Хеш-таблица long -> V с открытой адресацией и линейным пробированием, без упаковки ключей в Long.
+ * Нулевой ключ служит признаком пустой ячейки, поэтому его значение хранится отдельно.
+ * Значения null не допускаются. Зерно хеш-функции своё у каждой таблицы, как в LongDoubleHashMap.
+ * Не потокобезопасна.
+ */
+public class LongObjectHashMap<V> {
+    private static final double LOAD_FACTOR = 0.7;
+
+    private final long seed = LongDoubleHashMap.nextSeed();
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+
+    private V zeroValue;
+
+    public LongObjectHashMap() {
+        allocate(LongDoubleHashMap.tableSizeFor(0));
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        if (key == 0) {
+            return zeroValue;
+        }
+        int slot = findSlot(key);
+        return keys[slot] == key ? (V) values[slot] : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V computeIfAbsent(long key, LongFunction<V> factory) {
+        if (key == 0) {
+            if (zeroValue == null) {
+                zeroValue = factory.apply(key);
+                size++;
+            }
+            return zeroValue;
+        }
+        int slot = findSlot(key);
+        if (keys[slot] == key) {
+            return (V) values[slot];
+        }
+        V value = factory.apply(key);
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > resizeThreshold) {
+            rehash(keys.length << 1);
+        }
+        return value;
+    }
+
+    public void put(long key, V value) {
+        if (key == 0) {
+            if (zeroValue == null) {
+                size++;
+            }
+            zeroValue = value;
+            return;
+        }
+        int slot = findSlot(key);
+        if (keys[slot] == key) {
+            values[slot] = value;
+            return;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > resizeThreshold) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    public V remove(long key) {
+        if (key == 0) {
+            V removed = zeroValue;
+            if (removed != null) {
+                zeroValue = null;
+                size--;
+            }
+            return removed;
+        }
+        int slot = findSlot(key);
+        if (keys[slot] != key) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        V removed = (V) values[slot];
+        deleteSlot(slot);
+        return removed;
+    }
+
+    /**
+     * Удаляет все записи, удовлетворяющие условию, и возвращает их количество.
+     */
+    @SuppressWarnings("unchecked")
+    public int removeIf(LongObjectPredicate<V> predicate) {
+        int removed = 0;
+        if (zeroValue != null && predicate.test(0, zeroValue)) {
+            zeroValue = null;
+            size--;
+            removed++;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            // после удаления в ячейку i может сдвинуться следующая запись - проверяем её тоже
+            while (keys[i] != 0 && predicate.test(keys[i], (V) values[i])) {
+                deleteSlot(i);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(LongObjectConsumer<V> consumer) {
+        if (zeroValue != null) {
+            consumer.accept(0, zeroValue);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                consumer.accept(keys[i], (V) values[i]);
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(values, null);
+        size = 0;
+        zeroValue = null;
+    }
+
+    private int findSlot(long key) {
+        int slot = homeSlot(key);
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // Ячейка, с которой начинается поиск ключа
+    int homeSlot(long key) {
+        return LongDoubleHashMap.mix(key, seed) & mask;
+    }
+
+    // Удаление со сдвигом, как в LongDoubleHashMap
+    private void deleteSlot(int slot) {
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (keys[next] != 0) {
+            int home = homeSlot(keys[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = 0;
+        values[gap] = null;
+        size--;
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = findSlot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    @FunctionalInterface
+    public interface LongObjectConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    @FunctionalInterface
+    public interface LongObjectPredicate<V> {
+        boolean test(long key, V value);
+    }
+}
@@ -0,0 +1,241 @@
+package ru.practicum.stats.aggregator.storage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Хеш-таблица long -> double с открытой адресацией, ячейки которой лежат в отображённом в память файле.
+ * Каждая ячейка занимает 16 байт: ключ и значение. Файл разбит на сегменты по 1 ГиБ,
+ * так как один MappedByteBuffer не может быть больше 2 ГиБ.
+ * <p>
+ * Таблица не переживает перезапуск: при создании файл перезаписывается, а долговременное хранение
+ * обеспечивают снимки состояния. Нулевой ключ служит признаком пустой ячейки и хранится в куче.
+ * Зерно хеш-функции своё у каждой таблицы, как в LongDoubleHashMap.
+ * Не потокобезопасна.
+ */
+@Slf4j
+public class MappedLongDoubleTable implements AutoCloseable {
+    private static final double LOAD_FACTOR = 0.7;
+    private static final int SLOT_BYTES = 16;
+    private static final int SEGMENT_SHIFT = 26;
+    private static final long SEGMENT_SLOTS = 1L << SEGMENT_SHIFT;
+    private static final long MIN_CAPACITY = 1024;
+
+    private final Path directory;
+    private final String name;
+    private final long seed = LongDoubleHashMap.nextSeed();
+
+    private int generation;
+    private Path file;
+    private MappedByteBuffer[] segments;
+    private long capacity;
+    private long mask;
+    private long size;
+    private long resizeThreshold;
+
+    private boolean hasZeroKey;
+    private double zeroValue;
+
+    public MappedLongDoubleTable(Path directory, String name, long expectedSize) {
+        this.directory = directory;
+        this.name = name;
+        long required = Math.max(MIN_CAPACITY, (long) Math.ceil(expectedSize / LOAD_FACTOR));
+        allocate(Long.highestOneBit(required - 1) << 1);
+    }
+
+    public double get(long key, double defaultValue) {
+        if (key == 0) {
+            return hasZeroKey ? zeroValue : defaultValue;
+        }
+        long slot = findSlot(key);
+        return keyAt(slot) == key ? valueAt(slot) : defaultValue;
+    }
+
+    /**
+     * Прибавляет delta к значению ключа (отсутствующий ключ считается равным 0.0) и возвращает результат.
+     */
+    public double addTo(long key, double delta) {
+        if (key == 0) {
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroValue += delta;
+            return zeroValue;
+        }
+        long slot = findSlot(key);
+        if (keyAt(slot) == key) {
+            double updated = valueAt(slot) + delta;
+            setValue(slot, updated);
+            return updated;
+        }
+        setKey(slot, key);
+        setValue(slot, delta);
+        if (++size > resizeThreshold) {
+            rehash(capacity << 1);
+        }
+        return delta;
+    }
+
+    /**
+     * Удаляет все записи, удовлетворяющие условию, и возвращает их количество.
+     * Освободившиеся ячейки заполняются сдвигом следующих записей цепочки, файл не сжимается.
+     */
+    public long removeIf(LongDoubleHashMap.LongDoublePredicate predicate) {
+        long removed = 0;
+        if (hasZeroKey && predicate.test(0, zeroValue)) {
+            hasZeroKey = false;
+            size--;
+            removed++;
+        }
+        for (long slot = 0; slot < capacity; slot++) {
+            // после удаления в ячейку может сдвинуться следующая запись - проверяем её тоже
+            long key = keyAt(slot);
+            while (key != 0 && predicate.test(key, valueAt(slot))) {
+                deleteSlot(slot);
+                removed++;
+                key = keyAt(slot);
+            }
+        }
+        return removed;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public void forEach(LongDoubleHashMap.LongDoubleConsumer consumer) {
+        if (hasZeroKey) {
+            consumer.accept(0, zeroValue);
+        }
+        for (long slot = 0; slot < capacity; slot++) {
+            long key = keyAt(slot);
+            if (key != 0) {
+                consumer.accept(key, valueAt(slot));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        segments = null;
+        deleteFile(file);
+    }
+
+    private long findSlot(long key) {
+        long slot = mix(key) & mask;
+        long current = keyAt(slot);
+        while (current != 0 && current != key) {
+            slot = (slot + 1) & mask;
+            current = keyAt(slot);
+        }
+        return slot;
+    }
+
+    private void deleteSlot(long slot) {
+        long gap = slot;
+        long next = (gap + 1) & mask;
+        long key = keyAt(next);
+        while (key != 0) {
+            long home = mix(key) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                setKey(gap, key);
+                setValue(gap, valueAt(next));
+                gap = next;
+            }
+            next = (next + 1) & mask;
+            key = keyAt(next);
+        }
+        setKey(gap, 0);
+        size--;
+    }
+
+    private long keyAt(long slot) {
+        return segments[(int) (slot >>> SEGMENT_SHIFT)].getLong(offset(slot));
+    }
+
+    private double valueAt(long slot) {
+        return segments[(int) (slot >>> SEGMENT_SHIFT)].getDouble(offset(slot) + Long.BYTES);
+    }
+
+    private void setKey(long slot, long key) {
+        segments[(int) (slot >>> SEGMENT_SHIFT)].putLong(offset(slot), key);
+    }
+
+    private void setValue(long slot, double value) {
+        segments[(int) (slot >>> SEGMENT_SHIFT)].putDouble(offset(slot) + Long.BYTES, value);
+    }
+
+    private static int offset(long slot) {
+        return (int) (slot & (SEGMENT_SLOTS - 1)) * SLOT_BYTES;
+    }
+
+    private void rehash(long newCapacity) {
+        MappedByteBuffer[] oldSegments = segments;
+        long oldCapacity = capacity;
+        Path oldFile = file;
+
+        allocate(newCapacity);
+        for (long slot = 0; slot < oldCapacity; slot++) {
+            int oldOffset = offset(slot);
+            MappedByteBuffer oldSegment = oldSegments[(int) (slot >>> SEGMENT_SHIFT)];
+            long key = oldSegment.getLong(oldOffset);
+            if (key != 0) {
+                long newSlot = findSlot(key);
+                setKey(newSlot, key);
+                setValue(newSlot, oldSegment.getDouble(oldOffset + Long.BYTES));
+            }
+        }
+        // отображение старого файла освободится сборщиком мусора, сам файл можно удалить сразу
+        deleteFile(oldFile);
+        log.info("Таблица {} увеличена до {} ячеек ({} записей)", name, newCapacity, size);
+    }
+
+    private void allocate(long newCapacity) {
+        Path newFile = directory.resolve(String.format("%s-%d.dat", name, generation++));
+        long bytes = newCapacity * SLOT_BYTES;
+        int segmentCount = (int) ((newCapacity + SEGMENT_SLOTS - 1) >>> SEGMENT_SHIFT);
+        MappedByteBuffer[] newSegments = new MappedByteBuffer[segmentCount];
+        try {
+            Files.createDirectories(directory);
+            try (FileChannel channel = FileChannel.open(newFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (int i = 0; i < segmentCount; i++) {
+                    long position = i * SEGMENT_SLOTS * SLOT_BYTES;
+                    // файл расширяется разреженно: ещё не тронутые страницы заполнены нулями и не занимают диск
+                    newSegments[i] = channel.map(FileChannel.MapMode.READ_WRITE, position,
+                            Math.min(SEGMENT_SLOTS * SLOT_BYTES, bytes - position));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось отобразить в память файл " + newFile, e);
+        }
+        file = newFile;
+        segments = newSegments;
+        capacity = newCapacity;
+        mask = newCapacity - 1;
+        resizeThreshold = (long) (newCapacity * LOAD_FACTOR);
+    }
+
+    private long mix(long key) {
+        long h = key ^ seed;
+        h = (h ^ (h >>> 33)) * 0xFF51_AFD7_ED55_8CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CE_B9FE_1A85_EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    private static void deleteFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Не удалось удалить файл {}", file, e);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package ru.practicum.stats.aggregator.storage;
+
+import java.nio.file.Path;
+import java.util.function.LongPredicate;
+
+/**
+ * Суммы весов в отображённых в память файлах: таблица пар может быть больше кучи,
+ * а какие страницы держать в памяти, решает страничный кеш ОС.
+ */
+public class MappedWeightSumsStore implements WeightSumsStore, AutoCloseable {
+
+    // Суммы весов мероприятий: eventId -> sumOfWeights
+    private final MappedLongDoubleTable eventTotalWeights;
+
+    // Суммы минимальных весов: unorderedPair(eventA, eventB) -> minSum
+    private final MappedLongDoubleTable minWeightsSums;
+
+    public MappedWeightSumsStore(Path directory, long expectedEvents, long expectedPairs) {
+        this.eventTotalWeights = new MappedLongDoubleTable(directory, "event-totals", expectedEvents);
+        this.minWeightsSums = new MappedLongDoubleTable(directory, "min-weights-sums", expectedPairs);
+    }
+
+    @Override
+    public double getEventTotal(long eventId) {
+        return eventTotalWeights.get(eventId, 0.0);
+    }
+
+    @Override
+    public double addEventTotal(long eventId, double delta) {
+        return eventTotalWeights.addTo(eventId, delta);
+    }
+
+    @Override
+    public double getMinWeightsSum(long eventA, long eventB) {
+        return minWeightsSums.get(PackedKeys.unorderedPair(eventA, eventB), 0.0);
+    }
+
+    @Override
+    public double addMinWeightsSum(long eventA, long eventB, double delta) {
+        return minWeightsSums.addTo(PackedKeys.unorderedPair(eventA, eventB), delta);
+    }
+
+    @Override
+    public void forEachEventTotal(EventTotalConsumer consumer) {
+        eventTotalWeights.forEach(consumer::accept);
+    }
+
+    @Override
+    public void forEachMinWeightsSum(PairSumConsumer consumer) {
+        minWeightsSums.forEach((key, sum) -> consumer.accept(PackedKeys.high(key), PackedKeys.low(key), sum));
+    }
+
+    @Override
+    public long removeEvents(LongPredicate eventFilter) {
+        eventTotalWeights.removeIf((eventId, total) -> eventFilter.test(eventId));
+        return minWeightsSums.removeIf((key, sum) ->
+                eventFilter.test(PackedKeys.high(key)) || eventFilter.test(PackedKeys.low(key)));
+    }
+
+    @Override
+    public long eventsCount() {
+        return eventTotalWeights.size();
+    }
+
+    @Override
+    public long pairsCount() {
+        return minWeightsSums.size();
+    }
+
+    @Override
+    public boolean supportsId(long eventId) {
+        return PackedKeys.fits(eventId);
+    }
+
+    @Override
+    public void close() {
+        eventTotalWeights.close();
+        minWeightsSums.close();
+    }
+}
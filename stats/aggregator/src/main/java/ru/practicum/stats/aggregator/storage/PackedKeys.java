@@ -0,0 +1,45 @@
+package ru.practicum.stats.aggregator.storage;
+
+import lombok.experimental.UtilityClass;
+
+/**
+ * Упаковка пары идентификаторов в один long: старшие 32 бита - первый идентификатор, младшие - второй.
+ * Идентификаторы мероприятий и пользователей должны лежать в диапазоне [0, 2^32).
+ */
+@UtilityClass
+public class PackedKeys {
+    private static final long MAX_ID = 0xFFFF_FFFFL;
+
+    public static long pack(long high, long low) {
+        return (checkId(high) << 32) | checkId(low);
+    }
+
+    /**
+     * Ключ неупорядоченной пары: меньший идентификатор всегда занимает старшие биты.
+     */
+    public static long unorderedPair(long eventA, long eventB) {
+        return pack(Math.min(eventA, eventB), Math.max(eventA, eventB));
+    }
+
+    /**
+     * Помещается ли идентификатор в половину упакованного ключа.
+     */
+    public static boolean fits(long id) {
+        return id >= 0 && id <= MAX_ID;
+    }
+
+    public static long high(long key) {
+        return key >>> 32;
+    }
+
+    public static long low(long key) {
+        return key & MAX_ID;
+    }
+
+    private static long checkId(long id) {
+        if (!fits(id)) {
+            throw new IllegalArgumentException("Идентификатор " + id + " не помещается в 32 бита упакованного ключа");
+        }
+        return id;
+    }
+}
@@ -0,0 +1,78 @@
+package ru.practicum.stats.aggregator.storage;
+
+import java.util.function.LongPredicate;
+
+/**
+ * Матрица весов на примитивных хеш-таблицах: пара (eventId, userId) упакована в один long-ключ,
+ * а индекс мероприятий пользователя хранится в виде списка примитивных идентификаторов.
+ */
+public class PrimitiveUserWeightsStore implements UserWeightsStore {
+
+    // Веса: pack(eventId, userId) -> maxWeight
+    private final LongDoubleHashMap weights = new LongDoubleHashMap();
+
+    // Индекс мероприятий пользователя: userId -> [eventId]
+    private final LongObjectHashMap<LongArrayList> userEvents = new LongObjectHashMap<>();
+
+    @Override
+    public double getWeight(long eventId, long userId) {
+        return weights.get(PackedKeys.pack(eventId, userId), 0.0);
+    }
+
+    @Override
+    public void putWeight(long eventId, long userId, double weight) {
+        long key = PackedKeys.pack(eventId, userId);
+        if (!weights.containsKey(key)) {
+            userEvents.computeIfAbsent(userId, k -> new LongArrayList()).add(eventId);
+        }
+        weights.put(key, weight);
+    }
+
+    @Override
+    public void forEachUserEvent(long userId, EventWeightConsumer consumer) {
+        LongArrayList events = userEvents.get(userId);
+        if (events == null) {
+            return;
+        }
+        for (int i = 0; i < events.size(); i++) {
+            long eventId = events.get(i);
+            consumer.accept(eventId, weights.get(PackedKeys.pack(eventId, userId), 0.0));
+        }
+    }
+
+    @Override
+    public int countUserEvents(long userId) {
+        LongArrayList events = userEvents.get(userId);
+        return events == null ? 0 : events.size();
+    }
+
+    @Override
+    public void forEach(UserWeightConsumer consumer) {
+        userEvents.forEach((userId, events) -> {
+            for (int i = 0; i < events.size(); i++) {
+                long eventId = events.get(i);
+                consumer.accept(eventId, userId, weights.get(PackedKeys.pack(eventId, userId), 0.0));
+            }
+        });
+    }
+
+    @Override
+    public long removeEvents(LongPredicate eventFilter) {
+        int removed = weights.removeIf((key, weight) -> eventFilter.test(PackedKeys.high(key)));
+        userEvents.removeIf((userId, events) -> {
+            events.removeIf(eventFilter);
+            return events.size() == 0;
+        });
+        return removed;
+    }
+
+    @Override
+    public long size() {
+        return weights.size();
+    }
+
+    @Override
+    public boolean supportsId(long id) {
+        return PackedKeys.fits(id);
+    }
+}
@@ -0,0 +1,67 @@
+package ru.practicum.stats.aggregator.storage;
+
+import java.util.function.LongPredicate;
+
+/**
+ * Суммы весов на примитивных хеш-таблицах: неупорядоченная пара мероприятий упакована в один long-ключ.
+ */
+public class PrimitiveWeightSumsStore implements WeightSumsStore {
+
+    // Суммы весов мероприятий: eventId -> sumOfWeights
+    private final LongDoubleHashMap eventTotalWeights = new LongDoubleHashMap();
+
+    // Суммы минимальных весов: unorderedPair(eventA, eventB) -> minSum
+    private final LongDoubleHashMap minWeightsSums = new LongDoubleHashMap();
+
+    @Override
+    public double getEventTotal(long eventId) {
+        return eventTotalWeights.get(eventId, 0.0);
+    }
+
+    @Override
+    public double addEventTotal(long eventId, double delta) {
+        return eventTotalWeights.addTo(eventId, delta);
+    }
+
+    @Override
+    public double getMinWeightsSum(long eventA, long eventB) {
+        return minWeightsSums.get(PackedKeys.unorderedPair(eventA, eventB), 0.0);
+    }
+
+    @Override
+    public double addMinWeightsSum(long eventA, long eventB, double delta) {
+        return minWeightsSums.addTo(PackedKeys.unorderedPair(eventA, eventB), delta);
+    }
+
+    @Override
+    public void forEachEventTotal(EventTotalConsumer consumer) {
+        eventTotalWeights.forEach(consumer::accept);
+    }
+
+    @Override
+    public void forEachMinWeightsSum(PairSumConsumer consumer) {
+        minWeightsSums.forEach((key, sum) -> consumer.accept(PackedKeys.high(key), PackedKeys.low(key), sum));
+    }
+
+    @Override
+    public long removeEvents(LongPredicate eventFilter) {
+        eventTotalWeights.removeIf((eventId, total) -> eventFilter.test(eventId));
+        return minWeightsSums.removeIf((key, sum) ->
+                eventFilter.test(PackedKeys.high(key)) || eventFilter.test(PackedKeys.low(key)));
+    }
+
+    @Override
+    public long eventsCount() {
+        return eventTotalWeights.size();
+    }
+
+    @Override
+    public long pairsCount() {
+        return minWeightsSums.size();
+    }
+
+    @Override
+    public boolean supportsId(long eventId) {
+        return PackedKeys.fits(eventId);
+    }
+}
@@ -0,0 +1,82 @@
+package ru.practicum.stats.aggregator.storage;
+
+import java.util.function.LongPredicate;
+import java.util.function.Supplier;
+
+/**
+ * Матрица весов, разбитая на независимые сегменты по пользователю.
+ * Все данные одного пользователя лежат в одном сегменте, поэтому потоки, обрабатывающие
+ * непересекающиеся множества сегментов, могут работать с хранилищем одновременно.
+ * Обход всей матрицы допустим только когда с сегментами никто не работает.
+ */
+public class ShardedUserWeightsStore implements UserWeightsStore {
+    private final UserWeightsStore[] shards;
+
+    public ShardedUserWeightsStore(int shardCount, Supplier<UserWeightsStore> shardFactory) {
+        this.shards = new UserWeightsStore[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = shardFactory.get();
+        }
+    }
+
+    /**
+     * Номер сегмента, в котором хранятся веса пользователя.
+     */
+    public static int shardOf(long userId, int shardCount) {
+        return Math.floorMod(LongDoubleHashMap.mix(userId), shardCount);
+    }
+
+    @Override
+    public double getWeight(long eventId, long userId) {
+        return shard(userId).getWeight(eventId, userId);
+    }
+
+    @Override
+    public void putWeight(long eventId, long userId, double weight) {
+        shard(userId).putWeight(eventId, userId, weight);
+    }
+
+    @Override
+    public void forEachUserEvent(long userId, EventWeightConsumer consumer) {
+        shard(userId).forEachUserEvent(userId, consumer);
+    }
+
+    @Override
+    public int countUserEvents(long userId) {
+        return shard(userId).countUserEvents(userId);
+    }
+
+    @Override
+    public void forEach(UserWeightConsumer consumer) {
+        for (UserWeightsStore shard : shards) {
+            shard.forEach(consumer);
+        }
+    }
+
+    @Override
+    public long removeEvents(LongPredicate eventFilter) {
+        long removed = 0;
+        for (UserWeightsStore shard : shards) {
+            removed += shard.removeEvents(eventFilter);
+        }
+        return removed;
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (UserWeightsStore shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    @Override
+    public boolean supportsId(long id) {
+        return shards[0].supportsId(id);
+    }
+
+    private UserWeightsStore shard(long userId) {
+        return shards[shardOf(userId, shards.length)];
+    }
+}
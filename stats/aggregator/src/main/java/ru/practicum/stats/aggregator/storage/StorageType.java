@@ -0,0 +1,10 @@
+package ru.practicum.stats.aggregator.storage;
+
+public enum StorageType {
+    // Вложенные HashMap с упакованными в объекты ключами и значениями
+    HEAP,
+    // Специализированные хеш-таблицы с открытой адресацией на примитивах
+    PRIMITIVE,
+    // Веса пользователей - как в PRIMITIVE, суммы весов мероприятий и пар - в отображённых в память файлах
+    MAPPED
+}
@@ -0,0 +1,64 @@
+package ru.practicum.stats.aggregator.storage;
+
+import java.util.function.LongPredicate;
+
+/**
+ * Хранилище максимальных весов действий пользователей с мероприятиями.
+ * Помимо матрицы весов поддерживает индекс мероприятий каждого пользователя.
+ */
+public interface UserWeightsStore {
+
+    /**
+     * Возвращает максимальный вес действия пользователя с мероприятием или 0.0, если взаимодействий не было.
+     */
+    double getWeight(long eventId, long userId);
+
+    void putWeight(long eventId, long userId, double weight);
+
+    /**
+     * Обходит все мероприятия, с которыми взаимодействовал пользователь, вместе с его весами,
+     * в порядке первого взаимодействия.
+     */
+    void forEachUserEvent(long userId, EventWeightConsumer consumer);
+
+    /**
+     * Количество мероприятий, с которыми взаимодействовал пользователь.
+     */
+    int countUserEvents(long userId);
+
+    /**
+     * Обходит всю матрицу весов по пользователям, мероприятия каждого пользователя - в порядке первого
+     * взаимодействия. Запись весов в этом порядке через putWeight восстанавливает тот же порядок истории.
+     * Используется для снимков состояния.
+     */
+    void forEach(UserWeightConsumer consumer);
+
+    /**
+     * Удаляет веса всех пользователей для мероприятий, удовлетворяющих условию, вместе с записями индекса.
+     * Проходит всю матрицу, поэтому мероприятия лучше удалять пачками. Возвращает число удалённых весов.
+     */
+    long removeEvents(LongPredicate eventFilter);
+
+    /**
+     * Количество пар (мероприятие, пользователь) в матрице весов.
+     */
+    long size();
+
+    /**
+     * Может ли хранилище принять идентификатор пользователя или мероприятия.
+     * Хранилища с упакованными ключами ограничены диапазоном [0, 2^32).
+     */
+    default boolean supportsId(long id) {
+        return true;
+    }
+
+    @FunctionalInterface
+    interface EventWeightConsumer {
+        void accept(long eventId, double weight);
+    }
+
+    @FunctionalInterface
+    interface UserWeightConsumer {
+        void accept(long eventId, long userId, double weight);
+    }
+}
@@ -0,0 +1,62 @@
+package ru.practicum.stats.aggregator.storage;
+
+import java.util.function.LongPredicate;
+
+/**
+ * Хранилище сумм весов: общая сумма весов каждого мероприятия и сумма минимальных весов каждой пары мероприятий.
+ * Пара мероприятий не упорядочена - (eventA, eventB) и (eventB, eventA) обозначают одну и ту же пару.
+ */
+public interface WeightSumsStore {
+
+    double getEventTotal(long eventId);
+
+    /**
+     * Прибавляет delta к сумме весов мероприятия и возвращает новое значение.
+     */
+    double addEventTotal(long eventId, double delta);
+
+    double getMinWeightsSum(long eventA, long eventB);
+
+    /**
+     * Прибавляет delta к сумме минимальных весов пары мероприятий и возвращает новое значение.
+     */
+    double addMinWeightsSum(long eventA, long eventB, double delta);
+
+    /**
+     * Обходит суммы весов всех мероприятий. Используется для снимков состояния.
+     */
+    void forEachEventTotal(EventTotalConsumer consumer);
+
+    /**
+     * Обходит суммы минимальных весов всех пар, eventA всегда меньше eventB. Используется для снимков состояния.
+     */
+    void forEachMinWeightsSum(PairSumConsumer consumer);
+
+    /**
+     * Удаляет суммы весов мероприятий, удовлетворяющих условию, и все пары, в которые они входят.
+     * Возвращает число удалённых пар.
+     */
+    long removeEvents(LongPredicate eventFilter);
+
+    long eventsCount();
+
+    long pairsCount();
+
+    /**
+     * Может ли хранилище принять идентификатор мероприятия.
+     * Хранилища с упакованными ключами пар ограничены диапазоном [0, 2^32).
+     */
+    default boolean supportsId(long eventId) {
+        return true;
+    }
+
+    @FunctionalInterface
+    interface EventTotalConsumer {
+        void accept(long eventId, double total);
+    }
+
+    @FunctionalInterface
+    interface PairSumConsumer {
+        void accept(long eventA, long eventB, double sum);
+    }
+}
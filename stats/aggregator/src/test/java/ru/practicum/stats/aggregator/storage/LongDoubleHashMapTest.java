@@ -0,0 +1,119 @@
+package ru.practicum.stats.aggregator.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongDoubleHashMapTest {
+
+    @Test
+    void storesZeroKeyApartFromEmptySlots() {
+        LongDoubleHashMap map = new LongDoubleHashMap();
+        assertFalse(map.containsKey(0));
+        assertEquals(-1.0, map.get(0, -1.0));
+
+        map.put(0, 1.5);
+        assertTrue(map.containsKey(0));
+        assertEquals(2.0, map.addTo(0, 0.5));
+        assertEquals(1, map.size());
+
+        List<Long> keys = new ArrayList<>();
+        map.forEach((key, value) -> keys.add(key));
+        assertEquals(List.of(0L), keys);
+
+        assertTrue(map.remove(0));
+        assertFalse(map.remove(0));
+        assertEquals(0, map.size());
+
+        map.put(0, 3.0);
+        assertEquals(1, map.removeIf((key, value) -> key == 0));
+        assertFalse(map.containsKey(0));
+    }
+
+    @Test
+    void removeShiftsFollowingChainEntriesBack() {
+        LongDoubleHashMap map = new LongDoubleHashMap();
+        // две записи с домашней ячейкой 4 и по одной с ячейками 5 и 6 занимают ячейки 4..7 подряд
+        long[] home4 = keysWithHomeSlot(map, 4, 2);
+        long home5 = keysWithHomeSlot(map, 5, 1)[0];
+        long home6 = keysWithHomeSlot(map, 6, 1)[0];
+        map.put(home4[0], 1.0);
+        map.put(home4[1], 2.0);
+        map.put(home5, 3.0);
+        map.put(home6, 4.0);
+
+        assertTrue(map.remove(home4[0]));
+
+        assertFalse(map.containsKey(home4[0]));
+        assertEquals(2.0, map.get(home4[1], 0.0));
+        assertEquals(3.0, map.get(home5, 0.0));
+        assertEquals(4.0, map.get(home6, 0.0));
+        assertEquals(3, map.size());
+
+        assertTrue(map.remove(home5));
+        assertEquals(2.0, map.get(home4[1], 0.0));
+        assertEquals(4.0, map.get(home6, 0.0));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    void removeIfFollowsChainsWrappingPastTheLastSlot() {
+        LongDoubleHashMap map = new LongDoubleHashMap();
+        int lastSlot = 15;
+        // три записи с домашней последней ячейкой занимают ячейки 15, 0 и 1, запись с ячейкой 0 - ячейку 2
+        long[] wrapped = keysWithHomeSlot(map, lastSlot, 3);
+        long home0 = keysWithHomeSlot(map, 0, 1)[0];
+        map.put(wrapped[0], 1.0);
+        map.put(wrapped[1], 2.0);
+        map.put(wrapped[2], 3.0);
+        map.put(home0, 4.0);
+
+        int removed = map.removeIf((key, value) -> value == 1.0 || value == 3.0);
+
+        assertEquals(2, removed);
+        assertEquals(2, map.size());
+        assertFalse(map.containsKey(wrapped[0]));
+        assertFalse(map.containsKey(wrapped[2]));
+        assertEquals(2.0, map.get(wrapped[1], 0.0));
+        assertEquals(4.0, map.get(home0, 0.0));
+
+        assertEquals(1, map.removeIf((key, value) -> value == 2.0));
+        assertEquals(4.0, map.get(home0, 0.0));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    void keepsAllEntriesAcrossRehash() {
+        LongDoubleHashMap map = new LongDoubleHashMap();
+        for (long key = -5_000; key < 5_000; key++) {
+            map.addTo(key * 7919, key);
+        }
+        assertEquals(10_000, map.size());
+        for (long key = -5_000; key < 5_000; key++) {
+            assertEquals(key, map.get(key * 7919, Double.NaN));
+        }
+
+        assertEquals(5_000, map.removeIf((key, value) -> value < 0));
+        assertEquals(5_000, map.size());
+        for (long key = -5_000; key < 5_000; key++) {
+            assertEquals(key >= 0, map.containsKey(key * 7919));
+        }
+    }
+
+    // Ключи с заданной домашней ячейкой в таблице текущего размера
+    private static long[] keysWithHomeSlot(LongDoubleHashMap map, int slot, int count) {
+        long[] keys = new long[count];
+        int found = 0;
+        for (long key = 1; found < count; key++) {
+            if (map.homeSlot(key) == slot && !map.containsKey(key)) {
+                keys[found++] = key;
+            }
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,117 @@
+package ru.practicum.stats.aggregator.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class LongObjectHashMapTest {
+
+    @Test
+    void storesZeroKeyApartFromEmptySlots() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+        assertNull(map.get(0));
+
+        String value = map.computeIfAbsent(0, key -> "zero");
+        assertSame(value, map.computeIfAbsent(0, key -> "other"));
+        assertEquals(1, map.size());
+
+        List<Long> keys = new ArrayList<>();
+        map.forEach((key, v) -> keys.add(key));
+        assertEquals(List.of(0L), keys);
+
+        assertEquals("zero", map.remove(0));
+        assertNull(map.remove(0));
+        assertEquals(0, map.size());
+
+        map.put(0, "again");
+        assertEquals(1, map.removeIf((key, v) -> key == 0));
+        assertNull(map.get(0));
+    }
+
+    @Test
+    void removeShiftsFollowingChainEntriesBack() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+        // две записи с домашней ячейкой 4 и по одной с ячейками 5 и 6 занимают ячейки 4..7 подряд
+        long[] home4 = keysWithHomeSlot(map, 4, 2);
+        long home5 = keysWithHomeSlot(map, 5, 1)[0];
+        long home6 = keysWithHomeSlot(map, 6, 1)[0];
+        map.put(home4[0], "a");
+        map.put(home4[1], "b");
+        map.put(home5, "c");
+        map.put(home6, "d");
+
+        assertEquals("a", map.remove(home4[0]));
+
+        assertNull(map.get(home4[0]));
+        assertEquals("b", map.get(home4[1]));
+        assertEquals("c", map.get(home5));
+        assertEquals("d", map.get(home6));
+        assertEquals(3, map.size());
+
+        assertEquals("c", map.remove(home5));
+        assertEquals("b", map.get(home4[1]));
+        assertEquals("d", map.get(home6));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    void removeIfFollowsChainsWrappingPastTheLastSlot() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+        int lastSlot = 15;
+        // три записи с домашней последней ячейкой занимают ячейки 15, 0 и 1, запись с ячейкой 0 - ячейку 2
+        long[] wrapped = keysWithHomeSlot(map, lastSlot, 3);
+        long home0 = keysWithHomeSlot(map, 0, 1)[0];
+        map.put(wrapped[0], "a");
+        map.put(wrapped[1], "b");
+        map.put(wrapped[2], "c");
+        map.put(home0, "d");
+
+        int removed = map.removeIf((key, value) -> value.equals("a") || value.equals("c"));
+
+        assertEquals(2, removed);
+        assertEquals(2, map.size());
+        assertNull(map.get(wrapped[0]));
+        assertNull(map.get(wrapped[2]));
+        assertEquals("b", map.get(wrapped[1]));
+        assertEquals("d", map.get(home0));
+
+        assertEquals(1, map.removeIf((key, value) -> value.equals("b")));
+        assertEquals("d", map.get(home0));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    void keepsAllEntriesAcrossRehash() {
+        LongObjectHashMap<Long> map = new LongObjectHashMap<>();
+        for (long key = -5_000; key < 5_000; key++) {
+            map.put(key * 7919, key);
+        }
+        assertEquals(10_000, map.size());
+        for (long key = -5_000; key < 5_000; key++) {
+            assertEquals(key, map.get(key * 7919));
+        }
+
+        assertEquals(5_000, map.removeIf((key, value) -> value < 0));
+        assertEquals(5_000, map.size());
+        for (long key = -5_000; key < 5_000; key++) {
+            assertEquals(key >= 0 ? Long.valueOf(key) : null, map.get(key * 7919));
+        }
+    }
+
+    // Ключи с заданной домашней ячейкой в таблице текущего размера
+    private static long[] keysWithHomeSlot(LongObjectHashMap<?> map, int slot, int count) {
+        long[] keys = new long[count];
+        int found = 0;
+        for (long key = 1; found < count; key++) {
+            if (map.homeSlot(key) == slot && map.get(key) == null) {
+                keys[found++] = key;
+            }
+        }
+        return keys;
+    }
+}
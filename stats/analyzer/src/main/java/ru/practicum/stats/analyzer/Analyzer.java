@@ -4,11 +4,13 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import ru.practicum.stats.analyzer.processor.SimilarityProcessor;
 import ru.practicum.stats.analyzer.processor.UserActionProcessor;
 
 @SpringBootApplication
 @ConfigurationPropertiesScan
+@EnableScheduling
 public class Analyzer {
     public static void main(String[] args) {
 
@@ -20,12 +22,9 @@ public class Analyzer {
         final UserActionProcessor userActionProcessor = context.getBean(UserActionProcessor.class);
         SimilarityProcessor similarityProcessor = context.getBean(SimilarityProcessor.class);
 
-        // Запуск обработчика событий в отдельном потоке от пользователей
-        Thread userActionsThread = new Thread(userActionProcessor);
-        userActionsThread.setName("UserActionHandlerThread");
-        userActionsThread.start();
-
-        // В текущем потоке начинаем обработку сходств
+        // Запуск потоков-консьюмеров обработчиков: действий пользователей и сходств мероприятий,
+        // число потоков каждого задаётся в analyzer.kafka.consumers[].workers
+        userActionProcessor.start();
         similarityProcessor.start();
     }
 }
@@ -3,6 +3,7 @@ package ru.practicum.stats.analyzer.config;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
 
 import java.time.Duration;
 import java.util.List;
@@ -15,8 +16,16 @@ import java.util.stream.Collectors;
 @ConfigurationProperties("analyzer.kafka")
 public class KafkaConfig {
     private final Map<String, ConsumerConfig> consumers;
+    // Сколько пакетов всех консьюмеров одновременно сохраняются в базу: каждый занимает соединение пула
+    // на время транзакции, остальные соединения остаются gRPC-запросам
+    private final int dbConnections;
 
-    public KafkaConfig(Map<String, String> commonProperties, List<ConsumerConfig> consumers) {
+    public KafkaConfig(Map<String, String> commonProperties, List<ConsumerConfig> consumers,
+                       @DefaultValue("4") int dbConnections) {
+        if (dbConnections <= 0) {
+            throw new IllegalArgumentException("analyzer.kafka.db-connections должен быть положительным");
+        }
+        this.dbConnections = dbConnections;
         this.consumers = consumers.stream()
                 .peek( config -> {
                     Properties mergedProps = new Properties();
@@ -34,12 +43,19 @@ public class KafkaConfig {
         private String type;
         private List<String> topics;
         private Duration pollTimeout;
+        // Потоки-консьюмеры одной группы: каждый со своим KafkaConsumer и своими партициями
+        private int workers;
         private Properties properties;
 
-        public ConsumerConfig(String type, List<String> topics, Duration pollTimeout, Map<String, String> properties) {
+        public ConsumerConfig(String type, List<String> topics, Duration pollTimeout,
+                              @DefaultValue("1") int workers, Map<String, String> properties) {
+            if (workers <= 0) {
+                throw new IllegalArgumentException("Число потоков консьюмера " + type + " должно быть положительным");
+            }
             this.type = type;
             this.topics = topics;
             this.pollTimeout = pollTimeout;
+            this.workers = workers;
 
             this.properties = new Properties(properties.size());
             this.properties.putAll(properties);
@@ -0,0 +1,41 @@
+package ru.practicum.stats.analyzer.config;
+
+import lombok.Getter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+@ConfigurationProperties(prefix = "analyzer.recommendations")
+@Getter
+public class RecommendationsConfig {
+    // Длина хранимого списка рекомендаций пользователя. 0 - не хранить списки, считать на каждый запрос
+    private final int listSize;
+    // Сколько пользователей держать со списками; сверх предела вытесняются дольше всех не запрашивавшие
+    private final int maxUsers;
+    // Потоки фонового пересчёта устаревших списков
+    private final int refreshWorkers;
+    // Изменение сходства мероприятия из истории пользователя, после которого его список устаревает
+    private final double similarityChangeThreshold;
+
+    public RecommendationsConfig(@DefaultValue("50") int listSize,
+                                 @DefaultValue("100000") int maxUsers,
+                                 @DefaultValue("2") int refreshWorkers,
+                                 @DefaultValue("0.05") double similarityChangeThreshold) {
+        if (listSize < 0) {
+            throw new IllegalArgumentException("analyzer.recommendations.list-size не может быть отрицательным");
+        }
+        if (maxUsers <= 0) {
+            throw new IllegalArgumentException("analyzer.recommendations.max-users должен быть положительным");
+        }
+        if (refreshWorkers <= 0) {
+            throw new IllegalArgumentException("analyzer.recommendations.refresh-workers должен быть положительным");
+        }
+        if (similarityChangeThreshold < 0) {
+            throw new IllegalArgumentException(
+                    "analyzer.recommendations.similarity-change-threshold не может быть отрицательным");
+        }
+        this.listSize = listSize;
+        this.maxUsers = maxUsers;
+        this.refreshWorkers = refreshWorkers;
+        this.similarityChangeThreshold = similarityChangeThreshold;
+    }
+}
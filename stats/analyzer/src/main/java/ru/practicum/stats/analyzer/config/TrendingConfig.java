@@ -0,0 +1,35 @@
+package ru.practicum.stats.analyzer.config;
+
+import lombok.Getter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "analyzer.trending")
+@Getter
+public class TrendingConfig {
+    // Время, за которое вклад действия в популярность мероприятия уменьшается вдвое
+    private final Duration halfLife;
+    // Сколько самых популярных мероприятий держать упорядоченными; больше запрос не получит
+    private final int topSize;
+    // Счётчики, затухшие ниже порога, удаляются на контрольной точке
+    private final double minScore;
+
+    public TrendingConfig(@DefaultValue("6h") Duration halfLife,
+                          @DefaultValue("100") int topSize,
+                          @DefaultValue("0.01") double minScore) {
+        if (halfLife.isNegative() || halfLife.isZero()) {
+            throw new IllegalArgumentException("analyzer.trending.half-life должен быть положительным");
+        }
+        if (topSize <= 0) {
+            throw new IllegalArgumentException("analyzer.trending.top-size должен быть положительным");
+        }
+        if (minScore < 0) {
+            throw new IllegalArgumentException("analyzer.trending.min-score не может быть отрицательным");
+        }
+        this.halfLife = halfLife;
+        this.topSize = topSize;
+        this.minScore = minScore;
+    }
+}
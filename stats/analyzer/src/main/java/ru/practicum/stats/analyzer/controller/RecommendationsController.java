@@ -2,6 +2,7 @@ package ru.practicum.stats.analyzer.controller;
 
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -9,6 +10,11 @@ import net.devh.boot.grpc.server.service.GrpcService;
 import ru.practicum.stats.analyzer.service.RecommendationsService;
 import ru.practicum.stats.proto.*;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
 @Slf4j
 @GrpcService
 @RequiredArgsConstructor
@@ -19,45 +25,111 @@ public class RecommendationsController extends RecommendationsControllerGrpc.Rec
     @Override
     public void getRecommendationsForUser(UserPredictionsRequestProto request,
                                           StreamObserver<RecommendedEventProto> responseObserver) {
-        try {
-            recommendationsService.getRecommendationsForUser(request).forEach(responseObserver::onNext);
-            responseObserver.onCompleted();
-        } catch (Exception e) {
-            responseObserver.onError(new StatusRuntimeException(
-                    Status.INTERNAL
-                            .withDescription(e.getLocalizedMessage())
-                            .withCause(e)
-            ));
-        }
+        respond(responseObserver, () -> recommendationsService.getRecommendationsForUser(request));
     }
 
     @Override
     public void getSimilarEvents(SimilarEventsRequestProto request,
                                  StreamObserver<RecommendedEventProto> responseObserver) {
-        try {
-            recommendationsService.getSimilarEvents(request).forEach(responseObserver::onNext);
-            responseObserver.onCompleted();
-        } catch (Exception e) {
-            responseObserver.onError(new StatusRuntimeException(
-                    Status.INTERNAL
-                            .withDescription(e.getLocalizedMessage())
-                            .withCause(e)
-            ));
-        }
+        respond(responseObserver, () -> recommendationsService.getSimilarEvents(request));
     }
 
     @Override
     public void getInteractionsCount(InteractionsCountRequestProto request,
                                      StreamObserver<RecommendedEventProto> responseObserver) {
+        respond(responseObserver, () -> recommendationsService.getInteractionsCount(request));
+    }
+
+    @Override
+    public void getTrendingEvents(TrendingEventsRequestProto request,
+                                  StreamObserver<RecommendedEventProto> responseObserver) {
+        respond(responseObserver, () -> recommendationsService.getTrendingEvents(request));
+    }
+
+    @Override
+    public void getRecommendationsForUsers(UserPredictionsBatchRequestProto request,
+                                           StreamObserver<RecommendedEventsGroupProto> responseObserver) {
+        respond(responseObserver, () -> toGroups(recommendationsService.getRecommendationsForUsers(request)));
+    }
+
+    @Override
+    public void getSimilarEventsBatch(SimilarEventsBatchRequestProto request,
+                                      StreamObserver<RecommendedEventsGroupProto> responseObserver) {
+        respond(responseObserver, () -> toGroups(recommendationsService.getSimilarEventsBatch(request)));
+    }
+
+    private static List<RecommendedEventsGroupProto> toGroups(Map<Long, List<RecommendedEventProto>> results) {
+        List<RecommendedEventsGroupProto> groups = new ArrayList<>(results.size());
+        results.forEach((id, events) -> groups.add(RecommendedEventsGroupProto.newBuilder()
+                .setId(id)
+                .addAllEvents(events)
+                .build()));
+        return groups;
+    }
+
+    // Ответ сначала целиком получается от сервиса - соединение с базой освобождается до отправки,
+    // затем уходит клиенту по мере готовности транспорта. Отменённый клиентом или просроченный
+    // по дедлайну вызов не начинает работу с базой, прерывается сервисом между обращениями к базе
+    // и шагами расчёта (CallCancellation) и прекращает отправку.
+    private <T> void respond(StreamObserver<T> responseObserver, Supplier<List<T>> query) {
+        ServerCallStreamObserver<T> observer = (ServerCallStreamObserver<T>) responseObserver;
+        // с обработчиком отмены onNext после отмены не бросает исключение
+        observer.setOnCancelHandler(() -> log.debug("Вызов отменён клиентом или по дедлайну"));
+        if (observer.isCancelled()) {
+            return;
+        }
+
+        List<T> results;
         try {
-            recommendationsService.getInteractionsCount(request).forEach(responseObserver::onNext);
-            responseObserver.onCompleted();
+            results = query.get();
         } catch (Exception e) {
-            responseObserver.onError(new StatusRuntimeException(
+            // обработка прервана отменой вызова - ответ уже никому не нужен
+            if (observer.isCancelled()) {
+                log.debug("Обработка отменённого вызова прервана: {}", e.getMessage());
+                return;
+            }
+            observer.onError(new StatusRuntimeException(
                     Status.INTERNAL
                             .withDescription(e.getLocalizedMessage())
                             .withCause(e)
             ));
+            return;
+        }
+
+        ResponseSender<T> sender = new ResponseSender<>(observer, results);
+        // обработчик готовности вызывается в том же сериализованном исполнителе вызова, что и этот метод
+        observer.setOnReadyHandler(sender::drain);
+        sender.drain();
+    }
+
+    private static class ResponseSender<T> {
+        private final ServerCallStreamObserver<T> observer;
+        private final List<T> results;
+        private int next;
+        private boolean completed;
+
+        private ResponseSender(ServerCallStreamObserver<T> observer, List<T> results) {
+            this.observer = observer;
+            this.results = results;
+        }
+
+        // отправляет, пока буфер транспорта принимает сообщения; остаток уйдёт в следующем onReady
+        private void drain() {
+            while (!completed && next < results.size() && observer.isReady()) {
+                if (observer.isCancelled()) {
+                    completed = true;
+                    return;
+                }
+                observer.onNext(results.get(next++));
+            }
+            if (completed || observer.isCancelled()) {
+                completed = true;
+                return;
+            }
+            if (next == results.size()) {
+                completed = true;
+                observer.onCompleted();
+            }
         }
     }
 }
@@ -3,7 +3,9 @@ package ru.practicum.stats.analyzer.mapper;
 import lombok.experimental.UtilityClass;
 import ru.practicum.stats.analyzer.model.EventSimilarity;
 import ru.practicum.stats.avro.EventSimilarityAvro;
+import ru.practicum.stats.avro.EventSimilarityEntryAvro;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 
@@ -26,4 +28,31 @@ public class EventSimilarityMapper {
                 .timestamp(LocalDateTime.ofInstant(avro.getTimestamp(), ZoneId.systemDefault()))
                 .build();
     }
+
+    /**
+     * Пара из пакета сходств получает время пакета.
+     */
+    public static EventSimilarity toEntity(EventSimilarityEntryAvro entry, Instant timestamp) {
+        long event1 = Math.min(entry.getEventA(), entry.getEventB());
+        long event2 = Math.max(entry.getEventA(), entry.getEventB());
+
+        return EventSimilarity.builder()
+                .event1(event1)
+                .event2(event2)
+                .similarity(entry.getScore())
+                .timestamp(LocalDateTime.ofInstant(timestamp, ZoneId.systemDefault()))
+                .build();
+    }
+
+    /**
+     * Удалённая пара - сходство 0.
+     */
+    public static EventSimilarity removed(long eventA, long eventB, Instant timestamp) {
+        return EventSimilarity.builder()
+                .event1(Math.min(eventA, eventB))
+                .event2(Math.max(eventA, eventB))
+                .similarity(0.0)
+                .timestamp(LocalDateTime.ofInstant(timestamp, ZoneId.systemDefault()))
+                .build();
+    }
 }
@@ -0,0 +1,24 @@
+package ru.practicum.stats.analyzer.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * Сумма рейтингов всех взаимодействий с мероприятием.
+ */
+@Entity
+@Table(name = "event_scores")
+@Getter
+@Setter
+@ToString
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class EventScore {
+    @Id
+    @Column(name = "event_id")
+    private Long eventId;
+
+    @Column(name = "score", nullable = false)
+    private Double score;
+}
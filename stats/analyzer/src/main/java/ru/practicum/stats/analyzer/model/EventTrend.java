@@ -0,0 +1,29 @@
+package ru.practicum.stats.analyzer.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Значение затухающего счётчика популярности мероприятия на момент контрольной точки.
+ */
+@Entity
+@Table(name = "event_trends")
+@Getter
+@Setter
+@ToString
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class EventTrend {
+    @Id
+    @Column(name = "event_id")
+    private Long eventId;
+
+    @Column(name = "score", nullable = false)
+    private Double score;
+
+    @Column(name = "ts", nullable = false)
+    private LocalDateTime timestamp;
+}
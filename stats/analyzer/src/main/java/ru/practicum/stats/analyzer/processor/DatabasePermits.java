@@ -0,0 +1,29 @@
+package ru.practicum.stats.analyzer.processor;
+
+import org.springframework.stereotype.Component;
+import ru.practicum.stats.analyzer.config.KafkaConfig;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Общий для всех потоков-консьюмеров лимит одновременно сохраняемых пакетов.
+ * <p>
+ * Пакет держит соединение пула всю транзакцию, поэтому без лимита потоки процессоров при догоне
+ * заняли бы весь пул и gRPC-запросы ждали бы соединения.
+ */
+@Component
+public class DatabasePermits {
+    private final Semaphore permits;
+
+    public DatabasePermits(KafkaConfig config) {
+        this.permits = new Semaphore(config.getDbConnections(), true);
+    }
+
+    public void acquire() throws InterruptedException {
+        permits.acquire();
+    }
+
+    public void release() {
+        permits.release();
+    }
+}
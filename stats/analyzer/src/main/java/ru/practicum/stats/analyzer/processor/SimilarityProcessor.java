@@ -1,94 +1,264 @@
 package ru.practicum.stats.analyzer.processor;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.RecordDeserializationException;
 import org.apache.kafka.common.errors.WakeupException;
 import org.springframework.stereotype.Component;
 import ru.practicum.stats.analyzer.config.KafkaConfig;
+import ru.practicum.stats.analyzer.mapper.EventSimilarityMapper;
+import ru.practicum.stats.analyzer.model.EventSimilarity;
+import ru.practicum.stats.analyzer.service.RecommendationsCache;
+import ru.practicum.stats.analyzer.service.SimilarityIndex;
 import ru.practicum.stats.analyzer.service.SimilarityService;
-import ru.practicum.stats.avro.EventSimilarityAvro;
+import ru.practicum.stats.avro.EventSimilarityBatchAvro;
+import ru.practicum.stats.avro.EventSimilarityEntryAvro;
 
 import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Component
 public class SimilarityProcessor {
-    private static final Map<TopicPartition, OffsetAndMetadata> currentOffsets = new HashMap<>();
+    // пауза перед пересозданием консьюмера, упавшего на обработке пакета
+    private static final Duration RESTART_DELAY = Duration.ofSeconds(5);
 
-    private final KafkaConsumer<String, EventSimilarityAvro> consumer;
-    private final List<String> topics;
-    private final Duration pollTimeout;
+    private final KafkaConfig.ConsumerConfig consumerConfig;
     private final SimilarityService similarityService;
+    private final SimilarityIndex similarityIndex;
+    private final RecommendationsCache recommendationsCache;
+    private final DatabasePermits databasePermits;
+    private final List<Worker> workers = new CopyOnWriteArrayList<>();
 
-    public SimilarityProcessor(KafkaConfig config, SimilarityService similarityService) {
-        final KafkaConfig.ConsumerConfig consumerConfig = config.getConsumers().get(this.getClass().getSimpleName());
-        this.consumer = new KafkaConsumer<>(consumerConfig.getProperties());
-        this.topics = consumerConfig.getTopics();
-        this.pollTimeout = consumerConfig.getPollTimeout();
+    // Пропускная способность сохранения сходств: записи топика в секунду и время транзакции пакета
+    private final Counter recordsCounter;
+    private final Timer batchTimer;
+    // Пропущенные записи, которые не удалось разобрать, и перезапуски упавших потоков
+    private final Counter skippedCounter;
+    private final Counter restartsCounter;
+
+    public SimilarityProcessor(KafkaConfig config, SimilarityService similarityService,
+                               SimilarityIndex similarityIndex, RecommendationsCache recommendationsCache,
+                               DatabasePermits databasePermits, MeterRegistry meterRegistry) {
+        this.consumerConfig = config.getConsumers().get(this.getClass().getSimpleName());
         this.similarityService = similarityService;
+        this.similarityIndex = similarityIndex;
+        this.recommendationsCache = recommendationsCache;
+        this.databasePermits = databasePermits;
+        this.recordsCounter = Counter.builder("analyzer.similarity.records")
+                .description("Количество сохранённых записей топика сходств")
+                .register(meterRegistry);
+        this.batchTimer = Timer.builder("analyzer.similarity.batch.duration")
+                .description("Время сохранения сходств одного опроса")
+                .register(meterRegistry);
+        this.skippedCounter = Counter.builder("analyzer.similarity.records.skipped")
+                .description("Количество пропущенных записей, которые не удалось разобрать")
+                .register(meterRegistry);
+        this.restartsCounter = Counter.builder("analyzer.similarity.worker.restarts")
+                .description("Количество перезапусков консьюмеров после ошибки обработки")
+                .register(meterRegistry);
 
         // регистрируем хук, в котором вызываем метод wakeup.
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            log.info("Сработал хук на завершение JVM. Прерываю работу консьюмера.");
-            consumer.wakeup();
+            log.info("Сработал хук на завершение JVM. Прерываю работу консьюмеров.");
+            workers.forEach(Worker::stop);
         }));
     }
 
+    // Агрегатор кладёт все обновления пары в одну партицию, поэтому строки пары в базе и её порядок
+    // обновлений принадлежат одному потоку; общие у потоков только списки соседей мероприятий в графе
     public void start() {
-        try{
-            log.trace("Подписываемся на топики {}", topics);
-            consumer.subscribe(topics);
-            // цикл опроса
-            while (true) {
-                ConsumerRecords<String, EventSimilarityAvro> records = consumer.poll(pollTimeout);
-                int count = 0;
-                for (ConsumerRecord<String, EventSimilarityAvro> record : records) {
-                    log.trace("Обработка сообщения от хаба {} из партиции {} с офсетом {}.",
-                            record.key(), record.partition(), record.offset());
-                    // обрабатываем очередную запись
-                    similarityService.save(record.value());
-                    // фиксируем оффсеты обработанных записей, если нужно
-                    manageOffsets(record, count, consumer);
-                    count++;
+        for (int i = 0; i < consumerConfig.getWorkers(); i++) {
+            Worker worker = new Worker();
+            workers.add(worker);
+            Thread thread = new Thread(worker);
+            thread.setName("SimilarityHandlerThread-" + i);
+            thread.start();
+        }
+    }
+
+    private class Worker implements Runnable, ConsumerRebalanceListener {
+        private final Map<TopicPartition, OffsetAndMetadata> currentOffsets = new HashMap<>();
+        private volatile KafkaConsumer<String, EventSimilarityBatchAvro> consumer;
+        private volatile boolean stopping;
+
+        // Ошибка обработки не должна тихо останавливать поток: консьюмер пересоздаётся и перечитывает
+        // пакет, на котором упал, с последних зафиксированных офсетов
+        @Override
+        public void run() {
+            while (!stopping) {
+                consumer = new KafkaConsumer<>(consumerConfig.getProperties());
+                if (stopping) {
+                    consumer.close();
+                    return;
+                }
+                if (consume()) {
+                    return;
+                }
+                restartsCounter.increment();
+                log.warn("Поток {} пересоздаёт консьюмер через {}", Thread.currentThread().getName(), RESTART_DELAY);
+                try {
+                    Thread.sleep(RESTART_DELAY.toMillis());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
                 }
-                consumer.commitAsync();
             }
-        } catch (WakeupException ignores) {
-            // игнорируем - закрываем консьюмер и продюсер в блоке finally
-            log.info("Получен сигнал завершения работы. WakeupException. Analyzer. SnapshotProcessor");
-        } catch (Exception e) {
-            log.error("Ошибка во время обработки событий от хабов", e);
-        } finally {
-            try {
-                // здесь нужно вызвать метод консьюмера для фиксиции смещений
-                consumer.commitSync(currentOffsets);
+        }
+
+        private void stop() {
+            stopping = true;
+            KafkaConsumer<String, EventSimilarityBatchAvro> current = consumer;
+            if (current != null) {
+                current.wakeup();
+            }
+        }
+
+        // возвращает true при штатной остановке и false после ошибки обработки
+        private boolean consume() {
+            try{
+                log.trace("Подписываемся на топики {}", consumerConfig.getTopics());
+                consumer.subscribe(consumerConfig.getTopics(), this);
+                // цикл опроса
+                while (true) {
+                    ConsumerRecords<String, EventSimilarityBatchAvro> records;
+                    try {
+                        records = consumer.poll(consumerConfig.getPollTimeout());
+                    } catch (RecordDeserializationException e) {
+                        // повреждённую запись пропускаем, иначе каждый опрос упирался бы в неё снова
+                        log.warn("Пропущена запись партиции {} с офсетом {}: {}",
+                                e.topicPartition(), e.offset(), e.getMessage());
+                        skippedCounter.increment();
+                        consumer.seek(e.topicPartition(), e.offset() + 1);
+                        continue;
+                    }
+                    if (records.isEmpty()) {
+                        continue;
+                    }
+                    long started = System.nanoTime();
+                    // весь ответ poll сохраняется одной транзакцией, офсеты двигаются только после неё
+                    Collection<EventSimilarity> similarities = collectSimilarities(records);
+                    // прежние сходства нужны для сравнения с порогом, поэтому до сохранения
+                    Set<Long> affectedUsers = recommendationsCache.usersAffectedBy(similarities);
+                    databasePermits.acquire();
+                    try {
+                        similarityService.saveAll(similarities);
+                    } finally {
+                        databasePermits.release();
+                    }
+                    // граф для чтения меняется только после фиксации транзакции в базе
+                    similarityIndex.apply(similarities);
+                    recommendationsCache.markStale(affectedUsers);
+                    long elapsed = System.nanoTime() - started;
+                    batchTimer.record(elapsed, TimeUnit.NANOSECONDS);
+                    recordsCounter.increment(records.count());
+                    log.info("Сохранён пакет из {} записей за {} мс ({} записей/с)",
+                            records.count(), TimeUnit.NANOSECONDS.toMillis(elapsed),
+                            records.count() * 1_000_000_000L / Math.max(1, elapsed));
+
+                    for (ConsumerRecord<String, EventSimilarityBatchAvro> record : records) {
+                        currentOffsets.put(
+                                new TopicPartition(record.topic(), record.partition()),
+                                new OffsetAndMetadata(record.offset() + 1)
+                        );
+                    }
+                    consumer.commitAsync(currentOffsets, (offsets, exception) -> {
+                        if(exception != null) {
+                            log.warn("Ошибка во время фиксации оффсетов: {}", offsets, exception);
+                        }
+                    });
+                }
+            } catch (WakeupException ignores) {
+                // игнорируем - закрываем консьюмер и продюсер в блоке finally
+                log.info("Получен сигнал завершения работы. WakeupException. Analyzer. SnapshotProcessor");
+                return true;
+            } catch (Exception e) {
+                log.error("Ошибка во время обработки событий от хабов", e);
+                return false;
             } finally {
-                log.info("Закрываем консьюмер");
-                consumer.close();
+                try {
+                    // здесь нужно вызвать метод консьюмера для фиксиции смещений
+                    consumer.commitSync(currentOffsets);
+                } catch (Exception e) {
+                    log.warn("Не удалось зафиксировать офсеты при закрытии консьюмера: {}", currentOffsets, e);
+                } finally {
+                    currentOffsets.clear();
+                    log.info("Закрываем консьюмер");
+                    consumer.close();
+                }
             }
         }
+
+        // Офсеты отданной партиции фиксируются до того, как её получит другой поток, и больше не фиксируются
+        // этим потоком - иначе его commit вернул бы партицию к уже пройденному офсету
+        @Override
+        public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+            consumer.commitSync(currentOffsets);
+            currentOffsets.keySet().removeAll(partitions);
+        }
+
+        @Override
+        public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+            log.info("Потоку {} назначены партиции {}", Thread.currentThread().getName(), partitions);
+        }
     }
 
-    private static void manageOffsets(ConsumerRecord<String, EventSimilarityAvro> record, int count,
-                                      KafkaConsumer<String, EventSimilarityAvro> consumer) {
-        // обновляем текущий оффсет для топика-партиции
-        currentOffsets.put(
-                new TopicPartition(record.topic(), record.partition()),
-                new OffsetAndMetadata(record.offset() + 1)
-        );
-        if(count % 100 == 0) {
-            consumer.commitAsync(currentOffsets, (offsets, exception) -> {
-                if(exception != null) {
-                    log.warn("Ошибка во время фиксации оффсетов: {}", offsets, exception);
+    // Итоговое сходство каждой пары в пакете: более поздняя запись о паре заменяет более раннюю,
+    // иначе многострочный upsert затронул бы одну строку дважды
+    private Collection<EventSimilarity> collectSimilarities(ConsumerRecords<String, EventSimilarityBatchAvro> records) {
+        Map<EventPair, EventSimilarity> similarities = new LinkedHashMap<>();
+        for (ConsumerRecord<String, EventSimilarityBatchAvro> record : records) {
+            log.trace("Обработка сообщения от хаба {} из партиции {} с офсетом {}.",
+                    record.key(), record.partition(), record.offset());
+            // пустое значение - удаление пары из публикации;
+            // запись отдельной пары десериализатор тоже возвращает пакетом
+            if (record.value() == null) {
+                EventSimilarity removed = removedPair(record.key(), Instant.ofEpochMilli(record.timestamp()));
+                if (removed != null) {
+                    similarities.put(new EventPair(removed.getEvent1(), removed.getEvent2()), removed);
                 }
-            });
+                continue;
+            }
+            for (EventSimilarityEntryAvro entry : record.value().getEntries()) {
+                EventSimilarity similarity = EventSimilarityMapper.toEntity(entry, record.value().getTimestamp());
+                similarities.put(new EventPair(similarity.getEvent1(), similarity.getEvent2()), similarity);
+            }
         }
+        return similarities.values();
+    }
+
+    // ключ tombstone-записи имеет вид "eventA_eventB"
+    private EventSimilarity removedPair(String key, Instant timestamp) {
+        int separator = key == null ? -1 : key.indexOf('_');
+        try {
+            if (separator >= 0) {
+                return EventSimilarityMapper.removed(Long.parseLong(key.substring(0, separator)),
+                        Long.parseLong(key.substring(separator + 1)), timestamp);
+            }
+        } catch (NumberFormatException ignored) {
+            // такой ключ пропускается так же, как ключ без разделителя
+        }
+        log.warn("Не удалось разобрать ключ удаляемой пары: {}", key);
+        skippedCounter.increment();
+        return null;
+    }
+
+    private record EventPair(long event1, long event2) {
     }
 }
@@ -1,96 +1,229 @@
 package ru.practicum.stats.analyzer.processor;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.RecordDeserializationException;
 import org.apache.kafka.common.errors.WakeupException;
 import org.springframework.stereotype.Component;
 import ru.practicum.stats.analyzer.config.KafkaConfig;
+import ru.practicum.stats.analyzer.service.RecommendationsCache;
+import ru.practicum.stats.analyzer.service.TrendingEvents;
 import ru.practicum.stats.analyzer.service.UserActionService;
 import ru.practicum.stats.avro.UserActionAvro;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Component
-public class UserActionProcessor implements Runnable {
-    private static final Map<TopicPartition, OffsetAndMetadata> currentOffsets = new HashMap<>();
+public class UserActionProcessor {
+    // пауза перед пересозданием консьюмера, упавшего на обработке пакета
+    private static final Duration RESTART_DELAY = Duration.ofSeconds(5);
 
-    private final KafkaConsumer<String, UserActionAvro> consumer;
-    private final List<String> topics;
-    private final Duration pollTimeout;
+    private final KafkaConfig.ConsumerConfig consumerConfig;
     private final UserActionService userActionService;
+    private final RecommendationsCache recommendationsCache;
+    private final TrendingEvents trendingEvents;
+    private final DatabasePermits databasePermits;
+    private final List<Worker> workers = new CopyOnWriteArrayList<>();
 
-    public UserActionProcessor(KafkaConfig config, UserActionService userActionService) {
-        final KafkaConfig.ConsumerConfig consumerConfig = config.getConsumers().get(this.getClass().getSimpleName());
-        this.consumer = new KafkaConsumer<>(consumerConfig.getProperties());
-        this.topics = consumerConfig.getTopics();
-        this.pollTimeout = consumerConfig.getPollTimeout();
+    // Пропускная способность сохранения действий: записи топика в секунду и время транзакции пакета
+    private final Counter recordsCounter;
+    private final Timer batchTimer;
+    // Пропущенные записи, которые не удалось разобрать, и перезапуски упавших потоков
+    private final Counter skippedCounter;
+    private final Counter restartsCounter;
+
+    public UserActionProcessor(KafkaConfig config, UserActionService userActionService,
+                               RecommendationsCache recommendationsCache, TrendingEvents trendingEvents,
+                               DatabasePermits databasePermits, MeterRegistry meterRegistry) {
+        this.consumerConfig = config.getConsumers().get(this.getClass().getSimpleName());
         this.userActionService = userActionService;
+        this.recommendationsCache = recommendationsCache;
+        this.trendingEvents = trendingEvents;
+        this.databasePermits = databasePermits;
+        this.recordsCounter = Counter.builder("analyzer.actions.records")
+                .description("Количество сохранённых записей топика действий")
+                .register(meterRegistry);
+        this.batchTimer = Timer.builder("analyzer.actions.batch.duration")
+                .description("Время сохранения действий одного опроса")
+                .register(meterRegistry);
+        this.skippedCounter = Counter.builder("analyzer.actions.records.skipped")
+                .description("Количество пропущенных записей, которые не удалось разобрать")
+                .register(meterRegistry);
+        this.restartsCounter = Counter.builder("analyzer.actions.worker.restarts")
+                .description("Количество перезапусков консьюмеров после ошибки обработки")
+                .register(meterRegistry);
 
         // регистрируем хук, в котором вызываем метод wakeup.
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            log.info("Сработал хук на завершение JVM. Прерываю работу консьюмера.");
-            consumer.wakeup();
+            log.info("Сработал хук на завершение JVM. Прерываю работу консьюмеров.");
+            workers.forEach(Worker::stop);
         }));
     }
 
-    @Override
-    public void run() {
-        try{
-            log.trace("Подписываемся на топики {}", topics);
-            consumer.subscribe(topics);
-            // цикл опроса
-            while (true) {
-                ConsumerRecords<String, UserActionAvro> records = consumer.poll(pollTimeout);
-                int count = 0;
-                for (ConsumerRecord<String, UserActionAvro> record : records) {
-                    log.trace("Обработка сообщения от хаба {} из партиции {} с офсетом {}.",
-                            record.key(), record.partition(), record.offset());
-                    // обрабатываем очередную запись
-                    userActionService.save(record.value());
-                    // фиксируем оффсеты обработанных записей, если нужно
-                    manageOffsets(record, count, consumer);
-                    count++;
+    // Потоки одной группы консьюмеров делят между собой партиции топика; действия пользователя
+    // имеют его id ключом, поэтому пары пользователь-мероприятие одного пользователя обрабатывает один поток
+    public void start() {
+        for (int i = 0; i < consumerConfig.getWorkers(); i++) {
+            Worker worker = new Worker();
+            workers.add(worker);
+            Thread thread = new Thread(worker);
+            thread.setName("UserActionHandlerThread-" + i);
+            thread.start();
+        }
+    }
+
+    private class Worker implements Runnable, ConsumerRebalanceListener {
+        private final Map<TopicPartition, OffsetAndMetadata> currentOffsets = new HashMap<>();
+        private volatile KafkaConsumer<String, UserActionAvro> consumer;
+        private volatile boolean stopping;
+
+        // Ошибка обработки не должна тихо останавливать поток: консьюмер пересоздаётся и перечитывает
+        // пакет, на котором упал, с последних зафиксированных офсетов
+        @Override
+        public void run() {
+            while (!stopping) {
+                consumer = new KafkaConsumer<>(consumerConfig.getProperties());
+                if (stopping) {
+                    consumer.close();
+                    return;
+                }
+                if (consume()) {
+                    return;
+                }
+                restartsCounter.increment();
+                log.warn("Поток {} пересоздаёт консьюмер через {}", Thread.currentThread().getName(), RESTART_DELAY);
+                try {
+                    Thread.sleep(RESTART_DELAY.toMillis());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
                 }
-                consumer.commitAsync();
             }
-        } catch (WakeupException ignores) {
-            // игнорируем - закрываем консьюмер и продюсер в блоке finally
-            log.info("Получен сигнал завершения работы. WakeupException. Analyzer. HubEventProcessor");
-        } catch (Exception e) {
-            log.error("Ошибка во время обработки сценариев от хабов", e);
-        } finally {
-            try {
-                // здесь нужно вызвать метод консьюмера для фиксиции смещений
-                consumer.commitSync(currentOffsets);
-            } finally {
-                log.info("Закрываем консьюмер");
-                consumer.close();
+        }
+
+        private void stop() {
+            stopping = true;
+            KafkaConsumer<String, UserActionAvro> current = consumer;
+            if (current != null) {
+                current.wakeup();
             }
         }
 
-    }
+        // возвращает true при штатной остановке и false после ошибки обработки
+        private boolean consume() {
+            try{
+                log.trace("Подписываемся на топики {}", consumerConfig.getTopics());
+                consumer.subscribe(consumerConfig.getTopics(), this);
+                // цикл опроса
+                while (true) {
+                    ConsumerRecords<String, UserActionAvro> records;
+                    try {
+                        records = consumer.poll(consumerConfig.getPollTimeout());
+                    } catch (RecordDeserializationException e) {
+                        // повреждённую запись пропускаем, иначе каждый опрос упирался бы в неё снова
+                        log.warn("Пропущена запись партиции {} с офсетом {}: {}",
+                                e.topicPartition(), e.offset(), e.getMessage());
+                        skippedCounter.increment();
+                        consumer.seek(e.topicPartition(), e.offset() + 1);
+                        continue;
+                    }
+                    if (records.isEmpty()) {
+                        continue;
+                    }
+                    long started = System.nanoTime();
+                    List<UserActionAvro> userActions = new ArrayList<>(records.count());
+                    Set<Long> userIds = new HashSet<>();
+                    for (ConsumerRecord<String, UserActionAvro> record : records) {
+                        log.trace("Обработка сообщения от хаба {} из партиции {} с офсетом {}.",
+                                record.key(), record.partition(), record.offset());
+                        if (record.value() == null) {
+                            log.warn("Пропущено пустое действие из партиции {} с офсетом {}",
+                                    record.partition(), record.offset());
+                            skippedCounter.increment();
+                            continue;
+                        }
+                        userActions.add(record.value());
+                        userIds.add(record.value().getUserId());
+                    }
+                    // весь ответ poll сохраняется одной транзакцией, офсеты двигаются только после неё
+                    databasePermits.acquire();
+                    try {
+                        userActionService.saveAll(userActions);
+                    } finally {
+                        databasePermits.release();
+                    }
+                    // списки рекомендаций пересчитываются по уже зафиксированным взаимодействиям
+                    recommendationsCache.markStale(userIds);
+                    trendingEvents.record(userActions);
+                    long elapsed = System.nanoTime() - started;
+                    batchTimer.record(elapsed, TimeUnit.NANOSECONDS);
+                    recordsCounter.increment(records.count());
+                    log.info("Сохранён пакет из {} действий за {} мс ({} записей/с)",
+                            records.count(), TimeUnit.NANOSECONDS.toMillis(elapsed),
+                            records.count() * 1_000_000_000L / Math.max(1, elapsed));
 
-    private static void manageOffsets(ConsumerRecord<String, UserActionAvro> record, int count,
-                                      KafkaConsumer<String, UserActionAvro> consumer) {
-        // обновляем текущий оффсет для топика-партиции
-        currentOffsets.put(
-                new TopicPartition(record.topic(), record.partition()),
-                new OffsetAndMetadata(record.offset() + 1)
-        );
-        if(count % 100 == 0) {
-            consumer.commitAsync(currentOffsets, (offsets, exception) -> {
-                if(exception != null) {
-                    log.warn("Ошибка во время фиксации оффсетов: {}", offsets, exception);
+                    for (ConsumerRecord<String, UserActionAvro> record : records) {
+                        currentOffsets.put(
+                                new TopicPartition(record.topic(), record.partition()),
+                                new OffsetAndMetadata(record.offset() + 1)
+                        );
+                    }
+                    consumer.commitAsync(currentOffsets, (offsets, exception) -> {
+                        if(exception != null) {
+                            log.warn("Ошибка во время фиксации оффсетов: {}", offsets, exception);
+                        }
+                    });
                 }
-            });
+            } catch (WakeupException ignores) {
+                // игнорируем - закрываем консьюмер и продюсер в блоке finally
+                log.info("Получен сигнал завершения работы. WakeupException. Analyzer. HubEventProcessor");
+                return true;
+            } catch (Exception e) {
+                log.error("Ошибка во время обработки сценариев от хабов", e);
+                return false;
+            } finally {
+                try {
+                    // здесь нужно вызвать метод консьюмера для фиксиции смещений
+                    consumer.commitSync(currentOffsets);
+                } catch (Exception e) {
+                    log.warn("Не удалось зафиксировать офсеты при закрытии консьюмера: {}", currentOffsets, e);
+                } finally {
+                    currentOffsets.clear();
+                    log.info("Закрываем консьюмер");
+                    consumer.close();
+                }
+            }
+        }
+
+        // Офсеты отданной партиции фиксируются до того, как её получит другой поток, и больше не фиксируются
+        // этим потоком - иначе его commit вернул бы партицию к уже пройденному офсету
+        @Override
+        public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+            consumer.commitSync(currentOffsets);
+            currentOffsets.keySet().removeAll(partitions);
+        }
+
+        @Override
+        public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+            log.info("Потоку {} назначены партиции {}", Thread.currentThread().getName(), partitions);
         }
     }
 }
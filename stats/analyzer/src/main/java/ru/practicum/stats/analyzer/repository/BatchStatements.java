@@ -0,0 +1,81 @@
+package ru.practicum.stats.analyzer.repository;
+
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Общие части многострочных запросов пакетных репозиториев.
+ */
+class BatchStatements {
+    // не больше 6 параметров на строку пакета (пара в обе стороны в event_neighbours):
+    // держимся далеко от предела в 32767 параметров запроса PostgreSQL
+    static final int ROWS_PER_STATEMENT = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    // Время пишется так же, как его пишет Hibernate с hibernate.jdbc.time_zone
+    private final TimeZone timeZone;
+    private Boolean h2;
+
+    BatchStatements(JdbcTemplate jdbcTemplate, String timeZone) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.timeZone = timeZone.isBlank() ? null : TimeZone.getTimeZone(timeZone);
+    }
+
+    /**
+     * H2 в режиме PostgreSQL не поддерживает ON CONFLICT ... DO UPDATE, на нём работает только профиль test.
+     */
+    boolean isH2() {
+        if (h2 == null) {
+            String product = jdbcTemplate.execute((ConnectionCallback<String>) connection ->
+                    connection.getMetaData().getDatabaseProductName());
+            h2 = "H2".equalsIgnoreCase(product);
+        }
+        return h2;
+    }
+
+    /**
+     * Calendar не потокобезопасен, поэтому свой на каждый запрос.
+     */
+    Calendar calendar() {
+        return timeZone == null ? null : Calendar.getInstance(timeZone);
+    }
+
+    static void setTimestamp(PreparedStatement statement, int index, LocalDateTime timestamp,
+                             Calendar calendar) throws SQLException {
+        if (calendar == null) {
+            statement.setTimestamp(index, Timestamp.valueOf(timestamp));
+        } else {
+            statement.setTimestamp(index, Timestamp.valueOf(timestamp), calendar);
+        }
+    }
+
+    static String placeholders(int rows, String row) {
+        StringBuilder builder = new StringBuilder(rows * (row.length() + 2));
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(row);
+        }
+        return builder.toString();
+    }
+
+    static <T> List<List<T>> chunks(Collection<T> rows) {
+        List<T> all = new ArrayList<>(rows);
+        List<List<T>> chunks = new ArrayList<>();
+        for (int from = 0; from < all.size(); from += ROWS_PER_STATEMENT) {
+            chunks.add(all.subList(from, Math.min(from + ROWS_PER_STATEMENT, all.size())));
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,19 @@
+package ru.practicum.stats.analyzer.repository;
+
+import java.util.Map;
+
+/**
+ * Пакетное обновление сумм рейтингов мероприятий в обход JPA.
+ */
+public interface EventScoreBatchRepository {
+
+    /**
+     * Прибавляет приращения к суммам мероприятий, создавая недостающие строки.
+     */
+    void addAll(Map<Long, Double> deltas);
+
+    /**
+     * Пересобирает суммы из таблицы interactions. Возвращает число мероприятий.
+     */
+    int rebuild();
+}
@@ -0,0 +1,54 @@
+package ru.practicum.stats.analyzer.repository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+public class EventScoreBatchRepositoryImpl implements EventScoreBatchRepository {
+    private static final String POSTGRES_ADD = "INSERT INTO event_scores AS s (event_id, score) VALUES %s "
+            + "ON CONFLICT (event_id) DO UPDATE SET score = s.score + EXCLUDED.score";
+    private static final String H2_ADD = "MERGE INTO event_scores s USING (VALUES %s) AS d (event_id, score) "
+            + "ON s.event_id = d.event_id "
+            + "WHEN MATCHED THEN UPDATE SET score = s.score + d.score "
+            + "WHEN NOT MATCHED THEN INSERT (event_id, score) VALUES (d.event_id, d.score)";
+    // приращения ждут конца пересборки, иначе их отменило бы удаление строк
+    private static final String POSTGRES_LOCK = "LOCK TABLE event_scores IN EXCLUSIVE MODE";
+    private static final String DELETE_ALL = "DELETE FROM event_scores";
+    private static final String INSERT_FROM_INTERACTIONS = "INSERT INTO event_scores (event_id, score) "
+            + "SELECT event_id, SUM(rating) FROM interactions GROUP BY event_id";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final BatchStatements statements;
+
+    public EventScoreBatchRepositoryImpl(JdbcTemplate jdbcTemplate,
+                                         @Value("${spring.jpa.properties.hibernate.jdbc.time_zone:}") String timeZone) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.statements = new BatchStatements(jdbcTemplate, timeZone);
+    }
+
+    @Override
+    public void addAll(Map<Long, Double> deltas) {
+        String template = statements.isH2() ? H2_ADD : POSTGRES_ADD;
+        for (List<Map.Entry<Long, Double>> chunk : BatchStatements.chunks(deltas.entrySet())) {
+            String sql = String.format(template, BatchStatements.placeholders(chunk.size(), "(?, ?)"));
+            jdbcTemplate.update(sql, statement -> {
+                int index = 1;
+                for (Map.Entry<Long, Double> delta : chunk) {
+                    statement.setLong(index++, delta.getKey());
+                    statement.setDouble(index++, delta.getValue());
+                }
+            });
+        }
+    }
+
+    @Override
+    public int rebuild() {
+        if (!statements.isH2()) {
+            jdbcTemplate.execute(POSTGRES_LOCK);
+        }
+        jdbcTemplate.update(DELETE_ALL);
+        return jdbcTemplate.update(INSERT_FROM_INTERACTIONS);
+    }
+}
@@ -0,0 +1,12 @@
+package ru.practicum.stats.analyzer.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import ru.practicum.stats.analyzer.model.EventScore;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface EventScoreRepository extends JpaRepository<EventScore, Long>, EventScoreBatchRepository {
+
+    List<EventScore> findAllByEventIdIn(Collection<Long> eventIds);
+}
@@ -0,0 +1,18 @@
+package ru.practicum.stats.analyzer.repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Запись контрольной точки счётчиков популярности в обход JPA.
+ */
+public interface EventTrendBatchRepository {
+
+    /**
+     * Записывает значения счётчиков на момент timestamp, вставляя новые строки и обновляя существующие.
+     */
+    void upsertAll(Map<Long, Double> scores, LocalDateTime timestamp);
+
+    void deleteAllByEventIds(Collection<Long> eventIds);
+}
@@ -0,0 +1,56 @@
+package ru.practicum.stats.analyzer.repository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+public class EventTrendBatchRepositoryImpl implements EventTrendBatchRepository {
+    private static final String POSTGRES_UPSERT = "INSERT INTO event_trends (event_id, score, ts) VALUES %s "
+            + "ON CONFLICT (event_id) DO UPDATE SET score = EXCLUDED.score, ts = EXCLUDED.ts";
+    private static final String H2_UPSERT = "MERGE INTO event_trends (event_id, score, ts) KEY (event_id) VALUES %s";
+    private static final String DELETE = "DELETE FROM event_trends WHERE event_id IN (%s)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final BatchStatements statements;
+
+    public EventTrendBatchRepositoryImpl(JdbcTemplate jdbcTemplate,
+                                         @Value("${spring.jpa.properties.hibernate.jdbc.time_zone:}") String timeZone) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.statements = new BatchStatements(jdbcTemplate, timeZone);
+    }
+
+    @Override
+    public void upsertAll(Map<Long, Double> scores, LocalDateTime timestamp) {
+        String template = statements.isH2() ? H2_UPSERT : POSTGRES_UPSERT;
+        Calendar calendar = statements.calendar();
+        for (List<Map.Entry<Long, Double>> chunk : BatchStatements.chunks(scores.entrySet())) {
+            String sql = String.format(template, BatchStatements.placeholders(chunk.size(), "(?, ?, ?)"));
+            jdbcTemplate.update(sql, statement -> {
+                int index = 1;
+                for (Map.Entry<Long, Double> score : chunk) {
+                    statement.setLong(index++, score.getKey());
+                    statement.setDouble(index++, score.getValue());
+                    BatchStatements.setTimestamp(statement, index++, timestamp, calendar);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void deleteAllByEventIds(Collection<Long> eventIds) {
+        for (List<Long> chunk : BatchStatements.chunks(eventIds)) {
+            String sql = String.format(DELETE, BatchStatements.placeholders(chunk.size(), "?"));
+            jdbcTemplate.update(sql, statement -> {
+                int index = 1;
+                for (Long eventId : chunk) {
+                    statement.setLong(index++, eventId);
+                }
+            });
+        }
+    }
+}
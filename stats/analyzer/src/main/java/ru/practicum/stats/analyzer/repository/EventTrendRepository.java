@@ -0,0 +1,7 @@
+package ru.practicum.stats.analyzer.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import ru.practicum.stats.analyzer.model.EventTrend;
+
+public interface EventTrendRepository extends JpaRepository<EventTrend, Long>, EventTrendBatchRepository {
+}
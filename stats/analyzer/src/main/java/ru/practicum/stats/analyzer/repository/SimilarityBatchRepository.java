@@ -0,0 +1,22 @@
+package ru.practicum.stats.analyzer.repository;
+
+import ru.practicum.stats.analyzer.model.EventSimilarity;
+
+import java.util.Collection;
+
+/**
+ * Пакетная запись сходств в обход JPA: один многострочный запрос на часть пакета вместо чтения и сохранения
+ * каждой пары. Каждая пара (event1, event2) должна встречаться в пакете не больше одного раза.
+ * Вместе с similarities меняется и event_neighbours, где пара хранится в обе стороны.
+ */
+public interface SimilarityBatchRepository {
+
+    void upsertAll(Collection<EventSimilarity> similarities);
+
+    void deleteAllPairs(Collection<EventSimilarity> similarities);
+
+    /**
+     * Заполняет пустую event_neighbours из similarities. Возвращает число записанных строк.
+     */
+    int fillNeighboursIfEmpty();
+}
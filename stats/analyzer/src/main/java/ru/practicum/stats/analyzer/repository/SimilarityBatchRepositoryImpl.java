@@ -0,0 +1,109 @@
+package ru.practicum.stats.analyzer.repository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.practicum.stats.analyzer.model.EventSimilarity;
+
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.List;
+
+public class SimilarityBatchRepositoryImpl implements SimilarityBatchRepository {
+    private static final String POSTGRES_UPSERT = "INSERT INTO similarities (event1, event2, similarity, ts) VALUES %s "
+            + "ON CONFLICT (event1, event2) DO UPDATE SET similarity = EXCLUDED.similarity, ts = EXCLUDED.ts";
+    private static final String H2_UPSERT = "MERGE INTO similarities (event1, event2, similarity, ts) "
+            + "KEY (event1, event2) VALUES %s";
+    private static final String POSTGRES_DELETE = "DELETE FROM similarities WHERE (event1, event2) IN (%s)";
+    // IN по парам H2 выполняет перебором, а MERGE со списком ищет каждую пару по ключу
+    private static final String H2_DELETE = "MERGE INTO similarities s USING (VALUES %s) AS k (event1, event2) "
+            + "ON s.event1 = k.event1 AND s.event2 = k.event2 WHEN MATCHED THEN DELETE";
+    private static final String POSTGRES_UPSERT_NEIGHBOURS = "INSERT INTO event_neighbours "
+            + "(event_id, neighbour_id, similarity) VALUES %s "
+            + "ON CONFLICT (event_id, neighbour_id) DO UPDATE SET similarity = EXCLUDED.similarity";
+    private static final String H2_UPSERT_NEIGHBOURS = "MERGE INTO event_neighbours "
+            + "(event_id, neighbour_id, similarity) KEY (event_id, neighbour_id) VALUES %s";
+    private static final String POSTGRES_DELETE_NEIGHBOURS =
+            "DELETE FROM event_neighbours WHERE (event_id, neighbour_id) IN (%s)";
+    private static final String H2_DELETE_NEIGHBOURS = "MERGE INTO event_neighbours n "
+            + "USING (VALUES %s) AS k (event_id, neighbour_id) "
+            + "ON n.event_id = k.event_id AND n.neighbour_id = k.neighbour_id WHEN MATCHED THEN DELETE";
+    private static final String FILL_EMPTY_NEIGHBOURS = "INSERT INTO event_neighbours "
+            + "(event_id, neighbour_id, similarity) "
+            + "SELECT event1, event2, similarity FROM similarities "
+            + "WHERE NOT EXISTS (SELECT 1 FROM event_neighbours) "
+            + "UNION ALL SELECT event2, event1, similarity FROM similarities "
+            + "WHERE NOT EXISTS (SELECT 1 FROM event_neighbours)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final BatchStatements statements;
+
+    public SimilarityBatchRepositoryImpl(JdbcTemplate jdbcTemplate,
+                                         @Value("${spring.jpa.properties.hibernate.jdbc.time_zone:}") String timeZone) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.statements = new BatchStatements(jdbcTemplate, timeZone);
+    }
+
+    @Override
+    public void upsertAll(Collection<EventSimilarity> similarities) {
+        String template = statements.isH2() ? H2_UPSERT : POSTGRES_UPSERT;
+        String neighboursTemplate = statements.isH2() ? H2_UPSERT_NEIGHBOURS : POSTGRES_UPSERT_NEIGHBOURS;
+        Calendar calendar = statements.calendar();
+        for (List<EventSimilarity> chunk : BatchStatements.chunks(similarities)) {
+            String sql = String.format(template, BatchStatements.placeholders(chunk.size(), "(?, ?, ?, ?)"));
+            jdbcTemplate.update(sql, statement -> {
+                int index = 1;
+                for (EventSimilarity similarity : chunk) {
+                    statement.setLong(index++, similarity.getEvent1());
+                    statement.setLong(index++, similarity.getEvent2());
+                    statement.setDouble(index++, similarity.getSimilarity());
+                    BatchStatements.setTimestamp(statement, index++, similarity.getTimestamp(), calendar);
+                }
+            });
+            String neighboursSql = String.format(neighboursTemplate,
+                    BatchStatements.placeholders(chunk.size() * 2, "(?, ?, ?)"));
+            jdbcTemplate.update(neighboursSql, statement -> {
+                int index = 1;
+                for (EventSimilarity similarity : chunk) {
+                    statement.setLong(index++, similarity.getEvent1());
+                    statement.setLong(index++, similarity.getEvent2());
+                    statement.setDouble(index++, similarity.getSimilarity());
+                    statement.setLong(index++, similarity.getEvent2());
+                    statement.setLong(index++, similarity.getEvent1());
+                    statement.setDouble(index++, similarity.getSimilarity());
+                }
+            });
+        }
+    }
+
+    @Override
+    public void deleteAllPairs(Collection<EventSimilarity> similarities) {
+        String template = statements.isH2() ? H2_DELETE : POSTGRES_DELETE;
+        String neighboursTemplate = statements.isH2() ? H2_DELETE_NEIGHBOURS : POSTGRES_DELETE_NEIGHBOURS;
+        for (List<EventSimilarity> chunk : BatchStatements.chunks(similarities)) {
+            String sql = String.format(template, BatchStatements.placeholders(chunk.size(), "(?, ?)"));
+            jdbcTemplate.update(sql, statement -> {
+                int index = 1;
+                for (EventSimilarity similarity : chunk) {
+                    statement.setLong(index++, similarity.getEvent1());
+                    statement.setLong(index++, similarity.getEvent2());
+                }
+            });
+            String neighboursSql = String.format(neighboursTemplate,
+                    BatchStatements.placeholders(chunk.size() * 2, "(?, ?)"));
+            jdbcTemplate.update(neighboursSql, statement -> {
+                int index = 1;
+                for (EventSimilarity similarity : chunk) {
+                    statement.setLong(index++, similarity.getEvent1());
+                    statement.setLong(index++, similarity.getEvent2());
+                    statement.setLong(index++, similarity.getEvent2());
+                    statement.setLong(index++, similarity.getEvent1());
+                }
+            });
+        }
+    }
+
+    @Override
+    public int fillNeighboursIfEmpty() {
+        return jdbcTemplate.update(FILL_EMPTY_NEIGHBOURS);
+    }
+}
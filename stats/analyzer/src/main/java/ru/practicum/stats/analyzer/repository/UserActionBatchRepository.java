@@ -0,0 +1,23 @@
+package ru.practicum.stats.analyzer.repository;
+
+import ru.practicum.stats.analyzer.model.UserAction;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Пакетная запись взаимодействий в обход JPA. Рейтинг взаимодействия только растёт: строка обновляется,
+ * если новый рейтинг больше сохранённого, и вместе с рейтингом берёт время нового действия.
+ * Каждая пара (user_id, event_id) должна встречаться в пакете не больше одного раза.
+ */
+public interface UserActionBatchRepository {
+
+    void upsertAllKeepingMaxRating(Collection<UserAction> userActions);
+
+    /**
+     * Сохранённые взаимодействия тех же пар пользователь-мероприятие, заблокированные до конца транзакции:
+     * по ним считается приращение сумм рейтингов мероприятий. У возвращённых объектов заполнены
+     * только пользователь, мероприятие и рейтинг.
+     */
+    List<UserAction> findAllPairsForUpdate(Collection<UserAction> userActions);
+}
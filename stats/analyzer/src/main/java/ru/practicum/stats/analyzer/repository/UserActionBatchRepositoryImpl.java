@@ -0,0 +1,81 @@
+package ru.practicum.stats.analyzer.repository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.practicum.stats.analyzer.model.UserAction;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.List;
+
+public class UserActionBatchRepositoryImpl implements UserActionBatchRepository {
+    // в SET все ссылки на i относятся к строке до обновления, поэтому время сравнивается со старым рейтингом
+    private static final String POSTGRES_UPSERT = "INSERT INTO interactions AS i (user_id, event_id, rating, ts) "
+            + "VALUES %s ON CONFLICT (user_id, event_id) DO UPDATE SET "
+            + "rating = GREATEST(i.rating, EXCLUDED.rating), "
+            + "ts = CASE WHEN EXCLUDED.rating > i.rating THEN EXCLUDED.ts ELSE i.ts END";
+    private static final String H2_UPSERT = "MERGE INTO interactions i "
+            + "USING (VALUES %s) AS a (user_id, event_id, rating, ts) "
+            + "ON i.user_id = a.user_id AND i.event_id = a.event_id "
+            + "WHEN MATCHED AND a.rating > i.rating THEN UPDATE SET rating = a.rating, ts = a.ts "
+            + "WHEN NOT MATCHED THEN INSERT (user_id, event_id, rating, ts) "
+            + "VALUES (a.user_id, a.event_id, a.rating, a.ts)";
+    private static final String POSTGRES_SELECT_FOR_UPDATE = "SELECT user_id, event_id, rating FROM interactions "
+            + "WHERE (user_id, event_id) IN (%s) FOR UPDATE";
+    // H2 превращает IN по парам в произведение списков user_id и event_id по индексу,
+    // а соединение со списком ищет каждую пару в индексе отдельно
+    private static final String H2_SELECT_FOR_UPDATE = "SELECT i.user_id, i.event_id, i.rating FROM interactions i "
+            + "JOIN (VALUES %s) AS k (user_id, event_id) ON i.user_id = k.user_id AND i.event_id = k.event_id "
+            + "FOR UPDATE";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final BatchStatements statements;
+
+    public UserActionBatchRepositoryImpl(JdbcTemplate jdbcTemplate,
+                                         @Value("${spring.jpa.properties.hibernate.jdbc.time_zone:}") String timeZone) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.statements = new BatchStatements(jdbcTemplate, timeZone);
+    }
+
+    @Override
+    public void upsertAllKeepingMaxRating(Collection<UserAction> userActions) {
+        String template = statements.isH2() ? H2_UPSERT : POSTGRES_UPSERT;
+        Calendar calendar = statements.calendar();
+        for (List<UserAction> chunk : BatchStatements.chunks(userActions)) {
+            String sql = String.format(template, BatchStatements.placeholders(chunk.size(), "(?, ?, ?, ?)"));
+            jdbcTemplate.update(sql, statement -> {
+                int index = 1;
+                for (UserAction userAction : chunk) {
+                    statement.setLong(index++, userAction.getUserId());
+                    statement.setLong(index++, userAction.getEventId());
+                    statement.setDouble(index++, userAction.getRating());
+                    BatchStatements.setTimestamp(statement, index++, userAction.getTimestamp(), calendar);
+                }
+            });
+        }
+    }
+
+    @Override
+    public List<UserAction> findAllPairsForUpdate(Collection<UserAction> userActions) {
+        String template = statements.isH2() ? H2_SELECT_FOR_UPDATE : POSTGRES_SELECT_FOR_UPDATE;
+        List<UserAction> existing = new ArrayList<>();
+        for (List<UserAction> chunk : BatchStatements.chunks(userActions)) {
+            String sql = String.format(template, BatchStatements.placeholders(chunk.size(), "(?, ?)"));
+            jdbcTemplate.query(sql, statement -> {
+                int index = 1;
+                for (UserAction userAction : chunk) {
+                    statement.setLong(index++, userAction.getUserId());
+                    statement.setLong(index++, userAction.getEventId());
+                }
+            }, resultSet -> {
+                existing.add(UserAction.builder()
+                        .userId(resultSet.getLong(1))
+                        .eventId(resultSet.getLong(2))
+                        .rating(resultSet.getDouble(3))
+                        .build());
+            });
+        }
+        return existing;
+    }
+}
@@ -3,10 +3,11 @@ package ru.practicum.stats.analyzer.repository;
 import org.springframework.data.jpa.repository.JpaRepository;
 import ru.practicum.stats.analyzer.model.UserAction;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
-public interface UserInteractionRepository extends JpaRepository<UserAction, Long> {
+public interface UserInteractionRepository extends JpaRepository<UserAction, Long>, UserActionBatchRepository {
 
     Optional<UserAction> findByUserIdAndEventId(Long userId, Long eventId);
 
@@ -14,5 +15,7 @@ public interface UserInteractionRepository extends JpaRepository<UserAction, Lon
 
     List<UserAction> findAllByUserId(Long userId);
 
+    List<UserAction> findAllByUserIdIn(Collection<Long> userIds);
+
     List<UserAction> findAllByEventId(Long eventId);
 }
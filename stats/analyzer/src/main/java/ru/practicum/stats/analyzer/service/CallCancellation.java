@@ -0,0 +1,32 @@
+package ru.practicum.stats.analyzer.service;
+
+import io.grpc.Context;
+import io.grpc.Deadline;
+import io.grpc.Status;
+import lombok.experimental.UtilityClass;
+
+/**
+ * Прерывание обработки gRPC-вызова, который отменён клиентом или дедлайн которого истёк.
+ * <p>
+ * Вызов обрабатывается в потоке с контекстом gRPC, поэтому его отмену видно из любого слоя.
+ * В потоках без контекста вызова (фоновый пересчёт списков) проверка никогда не срабатывает.
+ */
+@UtilityClass
+public class CallCancellation {
+
+    /**
+     * Бросает StatusRuntimeException, если текущий вызов отменён. Вызывается между шагами обработки,
+     * чтобы отменённый вызов не продолжал обращаться к базе и считать рекомендации.
+     */
+    public static void throwIfCancelled() {
+        Context context = Context.current();
+        if (!context.isCancelled()) {
+            return;
+        }
+        Deadline deadline = context.getDeadline();
+        Status status = deadline != null && deadline.isExpired() ? Status.DEADLINE_EXCEEDED : Status.CANCELLED;
+        throw status.withDescription("Обработка прервана: вызов отменён клиентом или по дедлайну")
+                .withCause(context.cancellationCause())
+                .asRuntimeException();
+    }
+}
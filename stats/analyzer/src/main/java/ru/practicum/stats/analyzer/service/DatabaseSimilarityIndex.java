@@ -0,0 +1,125 @@
+package ru.practicum.stats.analyzer.service;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.stereotype.Service;
+import ru.practicum.stats.analyzer.model.EventSimilarity;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Соседи читаются из таблицы event_neighbours на каждый запрос. Порядок выборок совпадает с индексом
+ * (event_id, similarity DESC, neighbour_id), поэтому лучшие соседи читаются диапазоном индекса
+ * и LIMIT останавливает чтение, а выборки внутри набора идут по первичному ключу. Лучшие соседи нескольких
+ * мероприятий нумеруются по тому же порядку оконной функцией в одном запросе.
+ */
+@Service
+@ConditionalOnProperty(name = "analyzer.similarity-index", havingValue = "DATABASE")
+public class DatabaseSimilarityIndex implements SimilarityIndex {
+    private static final String SELECT_NEIGHBOURS = "SELECT neighbour_id, similarity FROM event_neighbours "
+            + "WHERE event_id = ? ORDER BY similarity DESC, neighbour_id";
+    private static final String SELECT_TOP_NEIGHBOURS = "SELECT neighbour_id, similarity FROM event_neighbours "
+            + "WHERE event_id = ? AND neighbour_id <> ALL(?) ORDER BY similarity DESC, neighbour_id LIMIT ?";
+    private static final String SELECT_TOP_NEIGHBOURS_OF_ALL = "SELECT event_id, neighbour_id, similarity FROM ("
+            + "SELECT event_id, neighbour_id, similarity, "
+            + "ROW_NUMBER() OVER (PARTITION BY event_id ORDER BY similarity DESC, neighbour_id) AS position "
+            + "FROM event_neighbours WHERE event_id = ANY(?) AND neighbour_id <> ALL(?)) ranked "
+            + "WHERE position <= ?";
+    private static final String SELECT_ALL_NEIGHBOURS = "SELECT event_id, neighbour_id, similarity "
+            + "FROM event_neighbours WHERE event_id = ANY(?)";
+    private static final String SELECT_NEIGHBOURS_WITHIN = "SELECT event_id, neighbour_id, similarity "
+            + "FROM event_neighbours WHERE event_id = ANY(?) AND neighbour_id = ANY(?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public DatabaseSimilarityIndex(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public EventNeighbours neighbours(long eventId) {
+        EventNeighbours.Builder builder = EventNeighbours.builder(16);
+        jdbcTemplate.query(SELECT_NEIGHBOURS, resultSet -> {
+            builder.add(resultSet.getLong(1), resultSet.getDouble(2));
+        }, eventId);
+        return builder.build();
+    }
+
+    @Override
+    public EventNeighbours topNeighbours(long eventId, int limit, Set<Long> excluded) {
+        EventNeighbours.Builder builder = EventNeighbours.builder(limit);
+        jdbcTemplate.query(SELECT_TOP_NEIGHBOURS, statement -> {
+            statement.setLong(1, eventId);
+            statement.setArray(2, toArray(statement, excluded));
+            statement.setInt(3, limit);
+        }, resultSet -> {
+            builder.add(resultSet.getLong(1), resultSet.getDouble(2));
+        });
+        return builder.build();
+    }
+
+    @Override
+    public Map<Long, EventNeighbours> neighbours(Collection<Long> eventIds) {
+        if (eventIds.isEmpty()) {
+            return Map.of();
+        }
+        // один запрос на весь набор вместо запроса на каждое мероприятие
+        return query(SELECT_ALL_NEIGHBOURS, eventIds, null);
+    }
+
+    @Override
+    public Map<Long, EventNeighbours> topNeighbours(Collection<Long> eventIds, int limit, Set<Long> excluded) {
+        if (eventIds.isEmpty()) {
+            return Map.of();
+        }
+        return query(SELECT_TOP_NEIGHBOURS_OF_ALL, statement -> {
+            statement.setArray(1, toArray(statement, eventIds));
+            statement.setArray(2, toArray(statement, excluded));
+            statement.setInt(3, limit);
+        });
+    }
+
+    @Override
+    public Map<Long, EventNeighbours> neighboursWithin(Collection<Long> eventIds, Set<Long> within) {
+        if (eventIds.isEmpty() || within.isEmpty()) {
+            return Map.of();
+        }
+        return query(SELECT_NEIGHBOURS_WITHIN, eventIds, within);
+    }
+
+    @Override
+    public void apply(Collection<EventSimilarity> similarities) {
+        // таблица уже обновлена процессором сходств
+    }
+
+    private Map<Long, EventNeighbours> query(String sql, Collection<Long> eventIds, Collection<Long> within) {
+        return query(sql, statement -> {
+            statement.setArray(1, toArray(statement, eventIds));
+            if (within != null) {
+                statement.setArray(2, toArray(statement, within));
+            }
+        });
+    }
+
+    private Map<Long, EventNeighbours> query(String sql, PreparedStatementSetter parameters) {
+        Map<Long, EventNeighbours.Builder> builders = new HashMap<>();
+        jdbcTemplate.query(sql, parameters, resultSet -> {
+            builders.computeIfAbsent(resultSet.getLong(1), eventId -> EventNeighbours.builder(16))
+                    .add(resultSet.getLong(2), resultSet.getDouble(3));
+        });
+        Map<Long, EventNeighbours> result = new HashMap<>(builders.size() * 2);
+        builders.forEach((eventId, builder) -> result.put(eventId, builder.build()));
+        return result;
+    }
+
+    private static Array toArray(PreparedStatement statement, Collection<Long> ids) throws SQLException {
+        return statement.getConnection().createArrayOf("BIGINT", ids.toArray());
+    }
+}
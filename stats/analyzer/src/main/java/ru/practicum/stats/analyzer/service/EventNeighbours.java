@@ -0,0 +1,126 @@
+package ru.practicum.stats.analyzer.service;
+
+import java.util.Arrays;
+
+/**
+ * Неизменяемый список соседей мероприятия: идентификаторы и сходства в примитивных массивах,
+ * по убыванию сходства, при равном сходстве - по возрастанию идентификатора.
+ */
+public final class EventNeighbours {
+    public static final EventNeighbours EMPTY = new EventNeighbours(new long[0], new double[0]);
+
+    private final long[] eventIds;
+    private final double[] scores;
+
+    private EventNeighbours(long[] eventIds, double[] scores) {
+        this.eventIds = eventIds;
+        this.scores = scores;
+    }
+
+    public int size() {
+        return eventIds.length;
+    }
+
+    public long eventId(int index) {
+        return eventIds[index];
+    }
+
+    public double score(int index) {
+        return scores[index];
+    }
+
+    /**
+     * Сходство с мероприятием или 0, если оно не сосед.
+     */
+    public double scoreOf(long eventId) {
+        for (int i = 0; i < eventIds.length; i++) {
+            if (eventIds[i] == eventId) {
+                return scores[i];
+            }
+        }
+        return 0;
+    }
+
+    public static Builder builder(int expectedSize) {
+        return new Builder(expectedSize);
+    }
+
+    public static class Builder {
+        private long[] eventIds;
+        private double[] scores;
+        private int size;
+
+        private Builder(int expectedSize) {
+            this.eventIds = new long[Math.max(expectedSize, 4)];
+            this.scores = new double[eventIds.length];
+        }
+
+        public Builder add(long eventId, double score) {
+            if (size == eventIds.length) {
+                eventIds = Arrays.copyOf(eventIds, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            eventIds[size] = eventId;
+            scores[size] = score;
+            size++;
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public EventNeighbours build() {
+            if (size == 0) {
+                return EMPTY;
+            }
+            long[] ids = Arrays.copyOf(eventIds, size);
+            double[] values = Arrays.copyOf(scores, size);
+            sort(ids, values, 0, size - 1);
+            return new EventNeighbours(ids, values);
+        }
+
+        // Быстрая сортировка двух массивов сразу, чтобы не упаковывать пары в объекты
+        private static void sort(long[] ids, double[] values, int from, int to) {
+            while (from < to) {
+                int middle = (from + to) >>> 1;
+                long pivotId = ids[middle];
+                double pivotValue = values[middle];
+                int left = from;
+                int right = to;
+                while (left <= right) {
+                    while (before(ids[left], values[left], pivotId, pivotValue)) {
+                        left++;
+                    }
+                    while (before(pivotId, pivotValue, ids[right], values[right])) {
+                        right--;
+                    }
+                    if (left <= right) {
+                        swap(ids, values, left++, right--);
+                    }
+                }
+                // рекурсия по меньшей части ограничивает глубину стека
+                if (right - from < to - left) {
+                    sort(ids, values, from, right);
+                    from = left;
+                } else {
+                    sort(ids, values, left, to);
+                    to = right;
+                }
+            }
+        }
+
+        private static boolean before(long id, double value, long otherId, double otherValue) {
+            return value > otherValue || (value == otherValue && id < otherId);
+        }
+
+        private static void swap(long[] ids, double[] values, int i, int j) {
+            long id = ids[i];
+            ids[i] = ids[j];
+            ids[j] = id;
+            double value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+    }
+}
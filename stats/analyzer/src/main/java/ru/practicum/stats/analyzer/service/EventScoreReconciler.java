@@ -0,0 +1,42 @@
+package ru.practicum.stats.analyzer.service;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.stats.analyzer.repository.EventScoreRepository;
+import ru.practicum.stats.analyzer.repository.UserInteractionRepository;
+
+/**
+ * Сверка сумм рейтингов мероприятий с таблицей interactions: суммы пересобираются целиком,
+ * чтобы исправить расхождения после ручных правок таблиц или ошибок при записи.
+ */
+@Slf4j
+@Component
+@AllArgsConstructor
+public class EventScoreReconciler {
+
+    private final EventScoreRepository eventScoreRepository;
+    private final UserInteractionRepository userInteractionRepository;
+
+    @Transactional
+    @Scheduled(cron = "${analyzer.event-scores.reconcile-cron:0 0 4 * * *}")
+    public void reconcile() {
+        long started = System.currentTimeMillis();
+        int events = eventScoreRepository.rebuild();
+        log.info("Суммы рейтингов пересобраны для {} мероприятий за {} мс", events,
+                System.currentTimeMillis() - started);
+    }
+
+    // таблица появилась после того, как взаимодействия уже накопились - собираем её до запуска процессоров
+    @Transactional
+    @EventListener(ApplicationReadyEvent.class)
+    public void fillIfEmpty() {
+        if (eventScoreRepository.count() == 0 && userInteractionRepository.count() > 0) {
+            reconcile();
+        }
+    }
+}
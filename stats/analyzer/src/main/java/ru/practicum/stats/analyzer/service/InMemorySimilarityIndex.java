@@ -0,0 +1,107 @@
+package ru.practicum.stats.analyzer.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.sql.init.dependency.DependsOnDatabaseInitialization;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.stats.analyzer.model.EventSimilarity;
+
+import javax.sql.DataSource;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Граф сходств в памяти: для каждого мероприятия - отсортированный массив соседей.
+ * <p>
+ * Источник истины - таблица similarities: граф загружается из неё при старте, до запуска gRPC-сервера
+ * и процессоров, а затем получает от процессора сходств изменения каждого сохранённого опроса.
+ * Пара хранится у обоих мероприятий. Писателей несколько - потоки процессора сходств, и список мероприятия
+ * заменяется атомарно через compute; читатели видят неизменяемые списки.
+ */
+@Slf4j
+@Service
+@DependsOnDatabaseInitialization
+@ConditionalOnProperty(name = "analyzer.similarity-index", havingValue = "MEMORY", matchIfMissing = true)
+public class InMemorySimilarityIndex implements SimilarityIndex {
+    private static final String SELECT_ALL = "SELECT event1, event2, similarity FROM similarities";
+    // строки читаются курсором, а не загружаются драйвером в память целиком
+    private static final int FETCH_SIZE = 10_000;
+
+    private final Map<Long, EventNeighbours> graph = new ConcurrentHashMap<>();
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    public InMemorySimilarityIndex(DataSource dataSource, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(FETCH_SIZE);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    @PostConstruct
+    public void load() {
+        long started = System.nanoTime();
+        Map<Long, EventNeighbours.Builder> builders = new HashMap<>();
+        long[] pairs = new long[1];
+        // PostgreSQL читает курсором только внутри транзакции
+        transactionTemplate.executeWithoutResult(status -> jdbcTemplate.query(SELECT_ALL, resultSet -> {
+            long event1 = resultSet.getLong(1);
+            long event2 = resultSet.getLong(2);
+            double similarity = resultSet.getDouble(3);
+            builders.computeIfAbsent(event1, eventId -> EventNeighbours.builder(16)).add(event2, similarity);
+            builders.computeIfAbsent(event2, eventId -> EventNeighbours.builder(16)).add(event1, similarity);
+            pairs[0]++;
+        }));
+        graph.clear();
+        builders.forEach((eventId, builder) -> graph.put(eventId, builder.build()));
+        log.info("Граф сходств загружен: {} мероприятий, {} пар за {} мс", graph.size(), pairs[0],
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    @Override
+    public EventNeighbours neighbours(long eventId) {
+        return graph.getOrDefault(eventId, EventNeighbours.EMPTY);
+    }
+
+    @Override
+    public void apply(Collection<EventSimilarity> similarities) {
+        // изменения пакета по мероприятиям: сосед -> новое сходство
+        Map<Long, Map<Long, Double>> changes = new HashMap<>();
+        for (EventSimilarity similarity : similarities) {
+            long event1 = similarity.getEvent1();
+            long event2 = similarity.getEvent2();
+            if (event1 == event2) {
+                continue;
+            }
+            changes.computeIfAbsent(event1, eventId -> new HashMap<>()).put(event2, similarity.getSimilarity());
+            changes.computeIfAbsent(event2, eventId -> new HashMap<>()).put(event1, similarity.getSimilarity());
+        }
+        changes.forEach(this::replaceNeighbours);
+    }
+
+    private void replaceNeighbours(long eventId, Map<Long, Double> changed) {
+        // у разных потоков разные пары, но могут быть общие мероприятия: список пересобирается под блокировкой ключа
+        graph.compute(eventId, (id, current) -> {
+            EventNeighbours neighbours = current == null ? EventNeighbours.EMPTY : current;
+            EventNeighbours.Builder builder = EventNeighbours.builder(neighbours.size() + changed.size());
+            for (int i = 0; i < neighbours.size(); i++) {
+                if (!changed.containsKey(neighbours.eventId(i))) {
+                    builder.add(neighbours.eventId(i), neighbours.score(i));
+                }
+            }
+            changed.forEach((neighbourId, similarity) -> {
+                if (similarity > 0) {
+                    builder.add(neighbourId, similarity);
+                }
+            });
+            return builder.size() == 0 ? null : builder.build();
+        });
+    }
+}
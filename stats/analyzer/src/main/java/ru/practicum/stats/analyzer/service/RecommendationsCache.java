@@ -0,0 +1,354 @@
+package ru.practicum.stats.analyzer.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import ru.practicum.stats.analyzer.config.RecommendationsConfig;
+import ru.practicum.stats.analyzer.model.EventSimilarity;
+import ru.practicum.stats.proto.RecommendedEventProto;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Хранимые списки рекомендаций активных пользователей: запрос рекомендаций читает готовый список.
+ * <p>
+ * Список пользователя устаревает, когда меняются его взаимодействия, появляется или удаляется пара
+ * с мероприятием из его истории или сходство такой пары с последней отметки меняется больше чем на порог. Процессоры отмечают устаревшие списки после фиксации
+ * транзакции, пул потоков пересчитывает их в фоне; до пересчёта запрос получает прежний список.
+ * Время от первой отметки до готового списка показывает метрика analyzer.recommendations.freshness.lag.
+ * <p>
+ * Списков не больше maxUsers: когда новый пользователь превышает предел, вытесняются списки пользователей,
+ * дольше всех не запрашивавших рекомендации, вместе с их подписками на мероприятия истории.
+ */
+@Slf4j
+@Component
+public class RecommendationsCache {
+    // За один проход вытесняется 1/20 предела: проход сортирует всех пользователей, поэтому выполняется редко
+    private static final int EVICTION_DIVISOR = 20;
+
+    private final RecommendationsCalculator calculator;
+    private final SimilarityIndex similarityIndex;
+    @Getter
+    private final int listSize;
+    private final int maxUsers;
+    private final double similarityChangeThreshold;
+
+    private final Map<Long, UserEntry> users = new ConcurrentHashMap<>();
+    // мероприятие истории -> пользователи, списки которых зависят от его сходств
+    private final Map<Long, Set<Long>> usersByEvent = new ConcurrentHashMap<>();
+    // сходство пары при последней отметке списков, если с тех пор оно менялось меньше чем на порог
+    private final Map<EventPair, Double> markedScores = new ConcurrentHashMap<>();
+    private final ExecutorService refreshPool;
+    private final Object evictionLock = new Object();
+
+    private final Timer freshnessLagTimer;
+    private final Counter staleMarksCounter;
+    private final Counter evictionsCounter;
+
+    public RecommendationsCache(RecommendationsConfig config, RecommendationsCalculator calculator,
+                                SimilarityIndex similarityIndex, MeterRegistry meterRegistry) {
+        this.calculator = calculator;
+        this.similarityIndex = similarityIndex;
+        this.listSize = config.getListSize();
+        this.maxUsers = config.getMaxUsers();
+        this.similarityChangeThreshold = config.getSimilarityChangeThreshold();
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.refreshPool = Executors.newFixedThreadPool(config.getRefreshWorkers(), runnable -> {
+            Thread thread = new Thread(runnable, "RecommendationsRefresh-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.freshnessLagTimer = Timer.builder("analyzer.recommendations.freshness.lag")
+                .description("Время от первого изменения входных данных до пересчёта списка рекомендаций")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        this.staleMarksCounter = Counter.builder("analyzer.recommendations.stale.marks")
+                .description("Количество отметок об устаревании хранимых списков рекомендаций")
+                .register(meterRegistry);
+        this.evictionsCounter = Counter.builder("analyzer.recommendations.evictions")
+                .description("Количество списков рекомендаций, вытесненных из-за предела числа пользователей")
+                .register(meterRegistry);
+        Gauge.builder("analyzer.recommendations.users", users, Map::size)
+                .description("Количество пользователей с хранимым списком рекомендаций")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Хранимый список пользователя. При первом запросе список считается синхронно.
+     */
+    public List<RecommendedEventProto> get(long userId) {
+        UserEntry entry = admit(userId);
+        List<RecommendedEventProto> recommendations = entry.recommendations;
+        if (recommendations != null) {
+            return recommendations;
+        }
+        return recompute(userId, entry);
+    }
+
+    /**
+     * Хранимые списки нескольких пользователей. Списки, которых ещё нет, считаются одним общим расчётом.
+     */
+    public Map<Long, List<RecommendedEventProto>> getAll(Collection<Long> userIds) {
+        Map<Long, List<RecommendedEventProto>> result = new HashMap<>();
+        Map<Long, UserEntry> missing = new HashMap<>();
+        Map<Long, Long> versions = new HashMap<>();
+        for (Long userId : userIds) {
+            UserEntry entry = admit(userId);
+            List<RecommendedEventProto> recommendations = entry.recommendations;
+            if (recommendations != null) {
+                result.put(userId, recommendations);
+                continue;
+            }
+            missing.put(userId, entry);
+            synchronized (entry) {
+                versions.put(userId, entry.version);
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+        calculator.calculateAll(missing.keySet(), listSize).forEach((userId, calculated) -> {
+            store(userId, missing.get(userId), versions.get(userId), calculated);
+            result.put(userId, calculated.events());
+        });
+        return result;
+    }
+
+    /**
+     * Синхронно пересчитывает и сохраняет список пользователя.
+     */
+    public List<RecommendedEventProto> refresh(long userId) {
+        return recompute(userId, admit(userId));
+    }
+
+    /**
+     * Отмечает списки пользователей устаревшими и ставит их в очередь на пересчёт.
+     */
+    public void markStale(Collection<Long> userIds) {
+        for (Long userId : userIds) {
+            UserEntry entry = users.get(userId);
+            if (entry == null) {
+                continue;
+            }
+            synchronized (entry) {
+                entry.version++;
+                if (entry.staleSince == 0) {
+                    entry.staleSince = System.nanoTime();
+                }
+                if (entry.queued) {
+                    continue;
+                }
+                entry.queued = true;
+            }
+            staleMarksCounter.increment();
+            refreshPool.execute(() -> {
+                synchronized (entry) {
+                    entry.queued = false;
+                }
+                try {
+                    recompute(userId, entry);
+                } catch (Exception e) {
+                    log.warn("Не удалось пересчитать рекомендации пользователя {}", userId, e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Пользователи, чьи списки устаревают от изменений сходств. Вызывается до применения изменений,
+     * пока индекс хранит прежние значения.
+     * <p>
+     * Новая и удалённая пара отмечает зависящие от неё списки всегда. Для остальных пар изменение считается
+     * от сходства, с которым списки посчитаны при последней отметке пары, поэтому мелкие изменения накапливаются
+     * и не теряются, пока не превысят порог.
+     */
+    public Set<Long> usersAffectedBy(Collection<EventSimilarity> similarities) {
+        if (users.isEmpty()) {
+            return Set.of();
+        }
+        List<EventSimilarity> relevant = new ArrayList<>();
+        Set<Long> events = new HashSet<>();
+        for (EventSimilarity similarity : similarities) {
+            if (usersByEvent.containsKey(similarity.getEvent1()) || usersByEvent.containsKey(similarity.getEvent2())) {
+                relevant.add(similarity);
+                events.add(similarity.getEvent1());
+            }
+        }
+        if (relevant.isEmpty()) {
+            return Set.of();
+        }
+        Map<Long, EventNeighbours> before = similarityIndex.neighbours(events);
+        Set<Long> affected = new HashSet<>();
+        for (EventSimilarity similarity : relevant) {
+            EventPair pair = new EventPair(similarity.getEvent1(), similarity.getEvent2());
+            double current = before.getOrDefault(similarity.getEvent1(), EventNeighbours.EMPTY)
+                    .scoreOf(similarity.getEvent2());
+            double score = similarity.getSimilarity();
+            if (isStale(pair, current, score)) {
+                affected.addAll(usersByEvent.getOrDefault(similarity.getEvent1(), Set.of()));
+                affected.addAll(usersByEvent.getOrDefault(similarity.getEvent2(), Set.of()));
+            }
+        }
+        return affected;
+    }
+
+    // Решает, устарели ли списки из-за нового сходства пары, и запоминает точку отсчёта для следующих изменений.
+    // Пара всегда приходит в один и тот же поток процессора - её ключ определяет партицию
+    private boolean isStale(EventPair pair, double current, double score) {
+        Double marked = markedScores.get(pair);
+        double reference = marked == null ? current : marked;
+        boolean stale;
+        if (reference == 0 || score == 0) {
+            // новая или удалённая пара
+            stale = reference != score;
+        } else {
+            stale = Math.abs(score - reference) > similarityChangeThreshold;
+        }
+        if (stale) {
+            // списки будут посчитаны с новым значением, которое к тому времени окажется в индексе
+            markedScores.remove(pair);
+        } else if (marked == null && reference != 0) {
+            markedScores.put(pair, reference);
+        }
+        return stale;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refreshPool.shutdownNow();
+    }
+
+    // Запись пользователя с отметкой обращения. Новый пользователь сверх предела вытесняет давно не запрашивавших
+    private UserEntry admit(long userId) {
+        UserEntry entry = users.get(userId);
+        if (entry == null) {
+            entry = users.computeIfAbsent(userId, id -> new UserEntry());
+            if (users.size() > maxUsers) {
+                evictLeastRecentlyUsed();
+            }
+        }
+        entry.lastAccess = System.nanoTime();
+        return entry;
+    }
+
+    private void evictLeastRecentlyUsed() {
+        synchronized (evictionLock) {
+            int excess = users.size() - (maxUsers - maxUsers / EVICTION_DIVISOR);
+            if (users.size() <= maxUsers || excess <= 0) {
+                return;
+            }
+            // время обращения читается один раз: во время сортировки оно может измениться
+            List<EvictionCandidate> candidates = new ArrayList<>(users.size());
+            users.forEach((userId, entry) -> candidates.add(new EvictionCandidate(userId, entry, entry.lastAccess)));
+            candidates.sort(Comparator.comparingLong(EvictionCandidate::lastAccess));
+            int evicted = 0;
+            for (EvictionCandidate candidate : candidates.subList(0, Math.min(excess, candidates.size()))) {
+                if (users.remove(candidate.userId(), candidate.entry())) {
+                    synchronized (candidate.entry()) {
+                        candidate.entry().evicted = true;
+                        unsubscribe(candidate.userId(), candidate.entry().historyEventIds);
+                        candidate.entry().historyEventIds = Set.of();
+                    }
+                    evicted++;
+                }
+            }
+            // точки отсчёта нужны только парам, от которых зависит хотя бы один хранимый список
+            markedScores.keySet().removeIf(pair ->
+                    !usersByEvent.containsKey(pair.event1()) && !usersByEvent.containsKey(pair.event2()));
+            evictionsCounter.increment(evicted);
+            log.debug("Вытеснено списков рекомендаций: {}, осталось {}", evicted, users.size());
+        }
+    }
+
+    private void subscribe(long userId, Collection<Long> eventIds) {
+        for (Long eventId : eventIds) {
+            usersByEvent.compute(eventId, (id, subscribers) -> {
+                Set<Long> updated = subscribers == null ? ConcurrentHashMap.newKeySet() : subscribers;
+                updated.add(userId);
+                return updated;
+            });
+        }
+    }
+
+    // Мероприятие без подписчиков удаляется из отображения целиком
+    private void unsubscribe(long userId, Collection<Long> eventIds) {
+        for (Long eventId : eventIds) {
+            usersByEvent.computeIfPresent(eventId, (id, subscribers) -> {
+                subscribers.remove(userId);
+                return subscribers.isEmpty() ? null : subscribers;
+            });
+        }
+    }
+
+    private List<RecommendedEventProto> recompute(long userId, UserEntry entry) {
+        long version;
+        synchronized (entry) {
+            version = entry.version;
+        }
+        RecommendationsCalculator.Recommendations calculated = calculator.calculate(userId, listSize);
+        store(userId, entry, version, calculated);
+        return calculated.events();
+    }
+
+    // version - номер отметки об устаревании, прочитанный до начала расчёта
+    private void store(long userId, UserEntry entry, long version,
+                       RecommendationsCalculator.Recommendations calculated) {
+        synchronized (entry) {
+            // более поздний расчёт не затирается более ранним
+            if (entry.recommendations == null || version >= entry.computedVersion) {
+                entry.recommendations = calculated.events();
+                entry.computedVersion = version;
+                // изменения сходств, пришедшие во время первого расчёта, подхватит следующая отметка пользователя;
+                // вытесненный пользователь ни на что не подписывается
+                if (!entry.evicted) {
+                    Set<Long> history = calculated.historyEventIds();
+                    subscribe(userId, history.stream().filter(id -> !entry.historyEventIds.contains(id)).toList());
+                    unsubscribe(userId, entry.historyEventIds.stream().filter(id -> !history.contains(id)).toList());
+                    entry.historyEventIds = history;
+                }
+            }
+            if (entry.computedVersion == entry.version && entry.staleSince != 0) {
+                freshnessLagTimer.record(System.nanoTime() - entry.staleSince, TimeUnit.NANOSECONDS);
+                entry.staleSince = 0;
+            }
+        }
+    }
+
+    private record EventPair(long event1, long event2) {
+    }
+
+    private record EvictionCandidate(long userId, UserEntry entry, long lastAccess) {
+    }
+
+    // Состояние списка пользователя; поля, кроме recommendations и lastAccess, меняются под блокировкой записи
+    private static class UserEntry {
+        private volatile List<RecommendedEventProto> recommendations;
+        // номер последней отметки об устаревании и номер, на котором посчитан список
+        private long version;
+        private long computedVersion;
+        private long staleSince;
+        private boolean queued;
+        // время последнего запроса списка, по нему выбираются вытесняемые
+        private volatile long lastAccess = System.nanoTime();
+        // мероприятия истории, на сходства которых подписан пользователь в usersByEvent
+        private Set<Long> historyEventIds = Set.of();
+        private boolean evicted;
+    }
+}
@@ -0,0 +1,174 @@
+package ru.practicum.stats.analyzer.service;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import ru.practicum.stats.analyzer.mapper.RecommendationsMapper;
+import ru.practicum.stats.analyzer.model.UserAction;
+import ru.practicum.stats.analyzer.repository.UserInteractionRepository;
+import ru.practicum.stats.proto.RecommendedEventProto;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Расчёт рекомендаций пользователя по K ближайшим соседям: используется и для ответа на запрос,
+ * и для пересчёта хранимых списков.
+ */
+@Slf4j
+@Component
+@AllArgsConstructor
+public class RecommendationsCalculator {
+
+    private final UserInteractionRepository userInteractionRepository;
+    private final SimilarityIndex similarityIndex;
+
+    // Параметры алгоритма
+    private static final int K_NEIGHBORS = 10; // Количество ближайших соседей для предсказания
+
+    /**
+     * Рекомендации по убыванию предсказанной оценки и мероприятия истории, от сходств которых они зависят.
+     */
+    public Recommendations calculate(long userId, int maxResults) {
+        return calculateAll(List.of(userId), maxResults).get(userId);
+    }
+
+    /**
+     * Рекомендации нескольких пользователей. Взаимодействия, соседи историй и соседи кандидатов всех
+     * пользователей читаются тремя общими обращениями, расчёт оценок идёт по каждому пользователю отдельно.
+     */
+    public Map<Long, Recommendations> calculateAll(Collection<Long> userIds, int maxResults) {
+        // 1. Получить все взаимодействия пользователей
+        Map<Long, List<UserAction>> interactionsByUser = new HashMap<>();
+        for (UserAction interaction : userInteractionRepository.findAllByUserIdIn(userIds)) {
+            interactionsByUser.computeIfAbsent(interaction.getUserId(), id -> new ArrayList<>()).add(interaction);
+        }
+        CallCancellation.throwIfCancelled();
+
+        // 2. Оценки событий, с которыми пользователи уже взаимодействовали
+        Map<Long, Map<Long, Double>> ratingsByUser = new HashMap<>();
+        Set<Long> ratedEvents = new HashSet<>();
+        for (Map.Entry<Long, List<UserAction>> entry : interactionsByUser.entrySet()) {
+            Map<Long, Double> userRatings = new HashMap<>();
+            // Сортируем по времени (новые сначала)
+            for (UserAction interaction : RecommendationsMapper.sortByTimestampDesc(entry.getValue())) {
+                userRatings.put(interaction.getEventId(), interaction.getRating());
+            }
+            ratingsByUser.put(entry.getKey(), userRatings);
+            ratedEvents.addAll(userRatings.keySet());
+        }
+
+        // 3. Собираем все потенциально похожие события; соседи всех историй читаются одним обращением к индексу
+        Map<Long, EventNeighbours> historyNeighbours = similarityIndex.neighbours(ratedEvents);
+        CallCancellation.throwIfCancelled();
+        Map<Long, Map<Long, Double>> candidatesByUser = new HashMap<>();
+        Set<Long> candidates = new HashSet<>();
+        for (Map.Entry<Long, Map<Long, Double>> entry : ratingsByUser.entrySet()) {
+            Map<Long, Double> userRatings = entry.getValue();
+            Map<Long, Double> candidateEvents = new HashMap<>();
+            for (Long eventId : userRatings.keySet()) {
+                EventNeighbours neighbours = historyNeighbours.getOrDefault(eventId, EventNeighbours.EMPTY);
+
+                for (int i = 0; i < neighbours.size(); i++) {
+                    long candidateEventId = neighbours.eventId(i);
+
+                    // Пропускаем события, с которыми пользователь уже взаимодействовал
+                    if (userRatings.containsKey(candidateEventId)) {
+                        continue;
+                    }
+
+                    // Используем максимальное значение сходства для кандидата
+                    candidateEvents.merge(candidateEventId, neighbours.score(i), Math::max);
+                }
+            }
+            candidatesByUser.put(entry.getKey(), candidateEvents);
+            candidates.addAll(candidateEvents.keySet());
+        }
+
+        // 4. Для оценки кандидата нужны только его соседи из историй - они для всех кандидатов всех
+        // пользователей читаются одним обращением; соседей из чужих историй расчёт пропускает
+        Map<Long, EventNeighbours> candidateNeighbours = candidates.isEmpty()
+                ? Map.of()
+                : similarityIndex.neighboursWithin(candidates, ratedEvents);
+
+        Map<Long, Recommendations> result = new HashMap<>();
+        for (Long userId : userIds) {
+            // пакетный вызов может считать оценки для многих пользователей - проверяем отмену перед каждым
+            CallCancellation.throwIfCancelled();
+            Map<Long, Double> userRatings = ratingsByUser.get(userId);
+            if (userRatings == null) {
+                log.debug("Пользователь {} не имеет взаимодействий, рекомендации невозможны", userId);
+                result.put(userId, new Recommendations(List.of(), Set.of()));
+                continue;
+            }
+            Map<Long, Double> candidateEvents = candidatesByUser.get(userId);
+            if (candidateEvents.isEmpty()) {
+                log.debug("Для пользователя {} не найдено кандидатов для рекомендаций", userId);
+                result.put(userId, new Recommendations(List.of(), userRatings.keySet()));
+                continue;
+            }
+
+            List<RecommendedEventProto> events = candidateEvents.keySet().stream()
+                    .map(candidateEventId -> {
+                        Double predictedScore = calculatePredictedScore(
+                                candidateNeighbours.getOrDefault(candidateEventId, EventNeighbours.EMPTY),
+                                userRatings);
+
+                        if (predictedScore != null) {
+                            return RecommendationsMapper.toRecommendedEventProto(candidateEventId, predictedScore);
+                        }
+                        return null;
+                    })
+                    .filter(Objects::nonNull)
+                    .sorted(Comparator.comparing(RecommendedEventProto::getScore).reversed())
+                    .limit(maxResults)
+                    .toList();
+            result.put(userId, new Recommendations(events, userRatings.keySet()));
+        }
+        return result;
+    }
+
+    /**
+     * Вычисляет предсказанную оценку для кандидата на основе K ближайших соседей
+     */
+    private Double calculatePredictedScore(EventNeighbours neighbours, Map<Long, Double> userRatings) {
+        // 1. Соседи кандидата из истории пользователя идут по убыванию сходства: берём первые K
+        double weightedSum = 0.0;
+        double similaritySum = 0.0;
+        int found = 0;
+
+        // 2. Вычисляем взвешенную оценку
+        for (int i = 0; i < neighbours.size() && found < K_NEIGHBORS; i++) {
+            Double rating = userRatings.get(neighbours.eventId(i));
+            if (rating == null) {
+                continue;
+            }
+            double similarityScore = neighbours.score(i);
+
+            weightedSum += rating * similarityScore;
+            similaritySum += similarityScore;
+            found++;
+        }
+
+        if (found == 0) {
+            // Если нет соседей, возвращаем null (кандидат не подходит)
+            return null;
+        }
+
+        if (similaritySum == 0) {
+            return 0.0;
+        }
+
+        return weightedSum / similaritySum;
+    }
+
+    public record Recommendations(List<RecommendedEventProto> events, Set<Long> historyEventIds) {
+    }
+}
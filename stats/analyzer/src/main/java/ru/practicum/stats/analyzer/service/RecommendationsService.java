@@ -2,16 +2,29 @@ package ru.practicum.stats.analyzer.service;
 
 import ru.practicum.stats.proto.InteractionsCountRequestProto;
 import ru.practicum.stats.proto.RecommendedEventProto;
+import ru.practicum.stats.proto.SimilarEventsBatchRequestProto;
 import ru.practicum.stats.proto.SimilarEventsRequestProto;
+import ru.practicum.stats.proto.TrendingEventsRequestProto;
+import ru.practicum.stats.proto.UserPredictionsBatchRequestProto;
 import ru.practicum.stats.proto.UserPredictionsRequestProto;
 
-import java.util.stream.Stream;
+import java.util.List;
+import java.util.Map;
 
+// Методы возвращают готовые списки: транзакция чтения закрывается до того, как ответ начнёт уходить клиенту
 public interface RecommendationsService {
 
-    Stream<RecommendedEventProto> getRecommendationsForUser(UserPredictionsRequestProto request);
+    List<RecommendedEventProto> getRecommendationsForUser(UserPredictionsRequestProto request);
 
-    Stream<RecommendedEventProto> getSimilarEvents(SimilarEventsRequestProto request);
+    List<RecommendedEventProto> getSimilarEvents(SimilarEventsRequestProto request);
 
-    Stream<RecommendedEventProto> getInteractionsCount(InteractionsCountRequestProto request);
+    List<RecommendedEventProto> getInteractionsCount(InteractionsCountRequestProto request);
+
+    List<RecommendedEventProto> getTrendingEvents(TrendingEventsRequestProto request);
+
+    // Пакетные запросы: список на каждый идентификатор запроса, без повторов, в порядке запроса
+
+    Map<Long, List<RecommendedEventProto>> getRecommendationsForUsers(UserPredictionsBatchRequestProto request);
+
+    Map<Long, List<RecommendedEventProto>> getSimilarEventsBatch(SimilarEventsBatchRequestProto request);
 }
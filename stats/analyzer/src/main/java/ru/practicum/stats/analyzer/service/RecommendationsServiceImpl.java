@@ -3,20 +3,23 @@ package ru.practicum.stats.analyzer.service;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import ru.practicum.stats.analyzer.mapper.RecommendationsMapper;
-import ru.practicum.stats.analyzer.model.EventSimilarity;
+import ru.practicum.stats.analyzer.model.EventScore;
 import ru.practicum.stats.analyzer.model.UserAction;
-import ru.practicum.stats.analyzer.repository.SimilarityRepository;
+import ru.practicum.stats.analyzer.repository.EventScoreRepository;
 import ru.practicum.stats.analyzer.repository.UserInteractionRepository;
 import ru.practicum.stats.proto.InteractionsCountRequestProto;
 import ru.practicum.stats.proto.RecommendedEventProto;
+import ru.practicum.stats.proto.SimilarEventsBatchRequestProto;
 import ru.practicum.stats.proto.SimilarEventsRequestProto;
+import ru.practicum.stats.proto.TrendingEventsRequestProto;
+import ru.practicum.stats.proto.UserPredictionsBatchRequestProto;
 import ru.practicum.stats.proto.UserPredictionsRequestProto;
 
 import java.util.*;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 @Slf4j
 @Service
@@ -25,13 +28,14 @@ import java.util.stream.Stream;
 public class RecommendationsServiceImpl implements RecommendationsService{
 
     private final UserInteractionRepository userInteractionRepository;
-    private final SimilarityRepository similarityRepository;
-
-    // Параметры алгоритма
-    private static final int K_NEIGHBORS = 10; // Количество ближайших соседей для предсказания
+    private final EventScoreRepository eventScoreRepository;
+    private final SimilarityIndex similarityIndex;
+    private final RecommendationsCalculator recommendationsCalculator;
+    private final RecommendationsCache recommendationsCache;
+    private final TrendingEvents trendingEvents;
 
     @Override
-    public Stream<RecommendedEventProto> getRecommendationsForUser(UserPredictionsRequestProto request) {
+    public List<RecommendedEventProto> getRecommendationsForUser(UserPredictionsRequestProto request) {
         log.info("Получение рекомендаций для пользователя {} (max_results: {})",
                 request.getUserId(), request.getMaxResults());
 
@@ -40,73 +44,54 @@ public class RecommendationsServiceImpl implements RecommendationsService{
 
         if (maxResults <= 0) {
             log.warn("Запрошено недопустимое количество результатов: {}", maxResults);
-            return Stream.empty();
+            return List.of();
         }
 
-        // 1. Получить все взаимодействия пользователя
-        List<UserAction> userInteractions = userInteractionRepository.findAllByUserId(userId);
-
-        if (userInteractions.isEmpty()) {
-            log.info("Пользователь {} не имеет взаимодействий, рекомендации невозможны", userId);
-            return Stream.empty();
+        List<RecommendedEventProto> recommendations;
+        if (maxResults > recommendationsCache.getListSize()) {
+            // хранимый список короче запрошенного - считаем заново, это же и принудительный пересчёт
+            recommendations = recommendationsCalculator.calculate(userId, maxResults).events();
+        } else if (request.getRefresh()) {
+            recommendations = recommendationsCache.refresh(userId);
+        } else {
+            recommendations = recommendationsCache.get(userId);
         }
+        return recommendations.size() > maxResults ? recommendations.subList(0, maxResults) : recommendations;
+    }
 
-        // Сортируем по времени (новые сначала)
-        List<UserAction> sortedInteractions = RecommendationsMapper.sortByTimestampDesc(userInteractions);
-
-        // 2. События, с которыми пользователь уже взаимодействовал
-        Set<Long> alreadyInteractedEventIds = sortedInteractions.stream()
-                .map(UserAction::getEventId)
-                .collect(Collectors.toSet());
-
-        // 3. Собираем все потенциально похожие события
-        Map<Long, Double> candidateEvents = new HashMap<>();
-
-        for (UserAction interaction : sortedInteractions) {
-            Long eventId = interaction.getEventId();
-            List<EventSimilarity> similarities = similarityRepository.findAllByEventId(eventId);
-
-            for (EventSimilarity similarity : similarities) {
-                Long candidateEventId = similarity.getEvent1().equals(eventId)
-                        ? similarity.getEvent2()
-                        : similarity.getEvent1();
 
-                // Пропускаем события, с которыми пользователь уже взаимодействовал
-                if (alreadyInteractedEventIds.contains(candidateEventId)) {
-                    continue;
-                }
+    @Override
+    public Map<Long, List<RecommendedEventProto>> getRecommendationsForUsers(UserPredictionsBatchRequestProto request) {
+        log.info("Получение рекомендаций для {} пользователей (max_results: {})",
+                request.getUserIdCount(), request.getMaxResults());
 
-                // Используем максимальное значение сходства для кандидата
-                double currentScore = candidateEvents.getOrDefault(candidateEventId, 0.0);
-                candidateEvents.put(candidateEventId, Math.max(currentScore, similarity.getSimilarity()));
-            }
+        int maxResults = (int) request.getMaxResults();
+        Set<Long> userIds = new LinkedHashSet<>(request.getUserIdList());
+        Map<Long, List<RecommendedEventProto>> result = new LinkedHashMap<>();
+        if (maxResults <= 0) {
+            log.warn("Запрошено недопустимое количество результатов: {}", maxResults);
+            userIds.forEach(userId -> result.put(userId, List.of()));
+            return result;
         }
 
-        if (candidateEvents.isEmpty()) {
-            log.info("Для пользователя {} не найдено кандидатов для рекомендаций", userId);
-            return Stream.empty();
+        Map<Long, List<RecommendedEventProto>> recommendations;
+        if (maxResults > recommendationsCache.getListSize()) {
+            // хранимые списки короче запрошенных - все пользователи считаются одним общим расчётом
+            recommendations = new HashMap<>();
+            recommendationsCalculator.calculateAll(userIds, maxResults)
+                    .forEach((userId, calculated) -> recommendations.put(userId, calculated.events()));
+        } else {
+            recommendations = recommendationsCache.getAll(userIds);
         }
-
-        // 4. Для каждого кандидата вычисляем предсказанную оценку
-        return candidateEvents.entrySet().stream()
-                .parallel() // Параллельная обработка для производительности
-                .map(entry -> {
-                    Long candidateEventId = entry.getKey();
-                    Double predictedScore = calculatePredictedScore(userId, candidateEventId, alreadyInteractedEventIds);
-
-                    if (predictedScore != null) {
-                        return RecommendationsMapper.toRecommendedEventProto(candidateEventId, predictedScore);
-                    }
-                    return null;
-                })
-                .filter(Objects::nonNull)
-                .sorted(Comparator.comparing(RecommendedEventProto::getScore).reversed())
-                .limit(maxResults);
+        for (Long userId : userIds) {
+            List<RecommendedEventProto> events = recommendations.getOrDefault(userId, List.of());
+            result.put(userId, events.size() > maxResults ? events.subList(0, maxResults) : events);
+        }
+        return result;
     }
 
-
     @Override
-    public Stream<RecommendedEventProto> getSimilarEvents(SimilarEventsRequestProto request) {
+    public List<RecommendedEventProto> getSimilarEvents(SimilarEventsRequestProto request) {
         log.info("Поиск похожих событий для события {} (user_id: {}, max_results: {})",
                 request.getEventId(), request.getUserId(), request.getMaxResults());
 
@@ -116,126 +101,103 @@ public class RecommendationsServiceImpl implements RecommendationsService{
 
         if (maxResults <= 0) {
             log.warn("Запрошено недопустимое количество результатов: {}", maxResults);
-            return Stream.empty();
+            return List.of();
         }
 
-        // 1. Получить все похожие мероприятия
-        List<EventSimilarity> similarities = similarityRepository.findAllByEventId(eventId);
+        // 1. Получить события, с которыми пользователь уже взаимодействовал
+        // (если пользователь не указан, возвращаем все похожие события)
+        Set<Long> userInteractedEventIds = userId == 0
+                ? Set.of()
+                : userInteractionRepository.findAllByUserId(userId).stream()
+                        .map(UserAction::getEventId)
+                        .collect(Collectors.toSet());
+        CallCancellation.throwIfCancelled();
+
+        // 2. Лучшие похожие мероприятия без уже знакомых пользователю - фильтр и ограничение выполняет индекс
+        EventNeighbours neighbours = similarityIndex.topNeighbours(eventId, maxResults, userInteractedEventIds);
 
-        if (similarities.isEmpty()) {
+        if (neighbours.size() == 0) {
             log.info("Для события {} не найдено похожих событий", eventId);
-            return Stream.empty();
+            return List.of();
         }
 
-        if (userId == 0) {
-            // Если пользователь не указан, возвращаем все похожие события
-            return similarities.stream()
-                    .sorted(Comparator.comparing(EventSimilarity::getSimilarity).reversed())
-                    .limit(maxResults)
-                    .map(similarity -> RecommendationsMapper.toRecommendedEventProto(similarity, eventId))
-                    .filter(Objects::nonNull);
+        List<RecommendedEventProto> result = new ArrayList<>(neighbours.size());
+        for (int i = 0; i < neighbours.size(); i++) {
+            result.add(RecommendationsMapper.toRecommendedEventProto(neighbours.eventId(i), neighbours.score(i)));
         }
-
-        // 2. Получить события, с которыми пользователь уже взаимодействовал
-        Set<Long> userInteractedEventIds = userInteractionRepository.findAllByUserId(userId).stream()
-                .map(UserAction::getEventId)
-                .collect(Collectors.toSet());
-
-        // 3. Фильтруем и сортируем
-        return similarities.stream()
-                .filter(similarity -> {
-                    Long otherEventId = similarity.getEvent1().equals(eventId)
-                            ? similarity.getEvent2()
-                            : similarity.getEvent1();
-                    return !userInteractedEventIds.contains(otherEventId);
-                })
-                .sorted(Comparator.comparing(EventSimilarity::getSimilarity).reversed())
-                .limit(maxResults)
-                .map(similarity -> RecommendationsMapper.toRecommendedEventProto(similarity, eventId))
-                .filter(Objects::nonNull);
+        return result;
     }
 
     @Override
-    public Stream<RecommendedEventProto> getInteractionsCount(InteractionsCountRequestProto request) {
-        log.info("Получение суммы взаимодействий для {} событий", request.getEventIdCount());
-
-        // Обрабатываем все запрошенные события
-        return request.getEventIdList().stream()
-                .distinct()
-                .map(eventId -> {
-                    List<UserAction> interactions = userInteractionRepository.findAllByEventId(eventId);
-
-                    if (interactions.isEmpty()) {
-                        return RecommendationsMapper.toRecommendedEventProto(eventId, 0.0);
-                    }
-
-                    // Группируем по пользователям и берем максимальный рейтинг для каждого
-                    double totalScore = interactions.stream()
-                            .collect(Collectors.groupingBy(
-                                    UserAction::getUserId,
-                                    Collectors.collectingAndThen(
-                                            Collectors.maxBy(Comparator.comparing(UserAction::getRating)),
-                                            opt -> opt.map(UserAction::getRating).orElse(0.0)
-                                    )
-                            ))
-                            .values()
-                            .stream()
-                            .mapToDouble(Double::doubleValue)
-                            .sum();
-
-                    return RecommendationsMapper.toRecommendedEventProto(eventId, totalScore);
-                })
-                .sorted(Comparator.comparing(RecommendedEventProto::getScore).reversed());
-    }
+    public Map<Long, List<RecommendedEventProto>> getSimilarEventsBatch(SimilarEventsBatchRequestProto request) {
+        log.info("Поиск похожих событий для {} событий (user_id: {}, max_results: {})",
+                request.getEventIdCount(), request.getUserId(), request.getMaxResults());
 
-    /**
-     * Вычисляет предсказанную оценку для кандидата на основе K ближайших соседей
-     */
-    private Double calculatePredictedScore(Long userId, Long candidateEventId, Set<Long> userInteractedEventIds) {
-        // 1. Получаем все сходства для кандидата
-        List<EventSimilarity> allSimilarities = similarityRepository.findAllByEventId(candidateEventId);
-
-        // 2. Фильтруем только те события, с которыми пользователь взаимодействовал
-        List<EventSimilarity> neighborSimilarities = allSimilarities.stream()
-                .filter(similarity -> {
-                    Long similarEventId = similarity.getEvent1().equals(candidateEventId)
-                            ? similarity.getEvent2()
-                            : similarity.getEvent1();
-                    return userInteractedEventIds.contains(similarEventId);
-                })
-                .sorted(Comparator.comparing(EventSimilarity::getSimilarity).reversed())
-                .limit(K_NEIGHBORS)
-                .toList();
+        int maxResults = (int) request.getMaxResults();
+        Set<Long> eventIds = new LinkedHashSet<>(request.getEventIdList());
+        Map<Long, List<RecommendedEventProto>> result = new LinkedHashMap<>();
+        if (maxResults <= 0) {
+            log.warn("Запрошено недопустимое количество результатов: {}", maxResults);
+            eventIds.forEach(eventId -> result.put(eventId, List.of()));
+            return result;
+        }
 
-        if (neighborSimilarities.isEmpty()) {
-            // Если нет соседей, возвращаем null (кандидат не подходит)
-            return null;
+        // история пользователя читается один раз на весь пакет
+        Set<Long> userInteractedEventIds = request.getUserId() == 0
+                ? Set.of()
+                : userInteractionRepository.findAllByUserId(request.getUserId()).stream()
+                        .map(UserAction::getEventId)
+                        .collect(Collectors.toSet());
+        CallCancellation.throwIfCancelled();
+
+        // лучшие соседи всех мероприятий пакета - одно обращение к индексу
+        Map<Long, EventNeighbours> neighboursByEvent =
+                similarityIndex.topNeighbours(eventIds, maxResults, userInteractedEventIds);
+
+        for (Long eventId : eventIds) {
+            CallCancellation.throwIfCancelled();
+            EventNeighbours neighbours = neighboursByEvent.getOrDefault(eventId, EventNeighbours.EMPTY);
+            List<RecommendedEventProto> events = new ArrayList<>(neighbours.size());
+            for (int i = 0; i < neighbours.size(); i++) {
+                events.add(RecommendationsMapper.toRecommendedEventProto(neighbours.eventId(i), neighbours.score(i)));
+            }
+            result.put(eventId, events);
         }
+        return result;
+    }
 
-        // 3. Вычисляем взвешенную оценку
-        double weightedSum = 0.0;
-        double similaritySum = 0.0;
+    @Override
+    public List<RecommendedEventProto> getInteractionsCount(InteractionsCountRequestProto request) {
+        log.info("Получение суммы взаимодействий для {} событий", request.getEventIdCount());
 
-        for (EventSimilarity similarity : neighborSimilarities) {
-            Long similarEventId = similarity.getEvent1().equals(candidateEventId)
-                    ? similarity.getEvent2()
-                    : similarity.getEvent1();
+        if (request.getEventIdCount() == 0) {
+            return List.of();
+        }
 
-            Optional<UserAction> userAction = userInteractionRepository.findByUserIdAndEventId(userId, similarEventId);
+        // Суммы поддерживаются при сохранении взаимодействий - один запрос по первичному ключу
+        Set<Long> eventIds = new HashSet<>(request.getEventIdList());
+        Map<Long, Double> scores = eventScoreRepository.findAllByEventIdIn(eventIds).stream()
+                .collect(Collectors.toMap(EventScore::getEventId, EventScore::getScore));
 
-            if (userAction.isPresent()) {
-                double rating = userAction.get().getRating();
-                double similarityScore = similarity.getSimilarity();
+        return request.getEventIdList().stream()
+                .distinct()
+                .map(eventId -> RecommendationsMapper.toRecommendedEventProto(eventId,
+                        scores.getOrDefault(eventId, 0.0)))
+                .sorted(Comparator.comparing(RecommendedEventProto::getScore).reversed())
+                .toList();
+    }
 
-                weightedSum += rating * similarityScore;
-                similaritySum += similarityScore;
-            }
-        }
+    @Override
+    // счётчики в памяти - транзакция и соединение с базой не нужны
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public List<RecommendedEventProto> getTrendingEvents(TrendingEventsRequestProto request) {
+        log.info("Получение популярных мероприятий (max_results: {})", request.getMaxResults());
 
-        if (similaritySum == 0) {
-            return 0.0;
+        int maxResults = (int) request.getMaxResults();
+        if (maxResults <= 0) {
+            log.warn("Запрошено недопустимое количество результатов: {}", maxResults);
+            return List.of();
         }
-
-        return weightedSum / similaritySum;
+        return trendingEvents.top(maxResults);
     }
 }
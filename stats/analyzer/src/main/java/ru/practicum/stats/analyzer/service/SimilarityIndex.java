@@ -0,0 +1,88 @@
+package ru.practicum.stats.analyzer.service;
+
+import ru.practicum.stats.analyzer.model.EventSimilarity;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Источник соседей мероприятия для чтения рекомендаций.
+ * Реализация выбирается свойством analyzer.similarity-index: MEMORY (по умолчанию) или DATABASE.
+ */
+public interface SimilarityIndex {
+
+    /**
+     * Соседи мероприятия по убыванию сходства. Если соседей нет, возвращается пустой набор.
+     */
+    EventNeighbours neighbours(long eventId);
+
+    /**
+     * Соседи сразу нескольких мероприятий. Мероприятий без соседей в результате нет.
+     */
+    default Map<Long, EventNeighbours> neighbours(Collection<Long> eventIds) {
+        Map<Long, EventNeighbours> result = new HashMap<>();
+        for (Long eventId : eventIds) {
+            EventNeighbours neighbours = neighbours(eventId);
+            if (neighbours.size() > 0) {
+                result.put(eventId, neighbours);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Лучшие limit соседей мероприятия по убыванию сходства, кроме мероприятий из excluded.
+     */
+    default EventNeighbours topNeighbours(long eventId, int limit, Set<Long> excluded) {
+        EventNeighbours neighbours = neighbours(eventId);
+        EventNeighbours.Builder builder = EventNeighbours.builder(Math.min(limit, neighbours.size()));
+        for (int i = 0; i < neighbours.size() && builder.size() < limit; i++) {
+            if (!excluded.contains(neighbours.eventId(i))) {
+                builder.add(neighbours.eventId(i), neighbours.score(i));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Лучшие limit соседей каждого из мероприятий, кроме мероприятий из excluded.
+     * Мероприятий без таких соседей в результате нет.
+     */
+    default Map<Long, EventNeighbours> topNeighbours(Collection<Long> eventIds, int limit, Set<Long> excluded) {
+        Map<Long, EventNeighbours> result = new HashMap<>();
+        for (Long eventId : eventIds) {
+            EventNeighbours neighbours = topNeighbours(eventId, limit, excluded);
+            if (neighbours.size() > 0) {
+                result.put(eventId, neighbours);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Соседи мероприятий, входящие в набор within. Мероприятий без таких соседей в результате нет.
+     */
+    default Map<Long, EventNeighbours> neighboursWithin(Collection<Long> eventIds, Set<Long> within) {
+        Map<Long, EventNeighbours> result = new HashMap<>();
+        for (Map.Entry<Long, EventNeighbours> entry : neighbours(eventIds).entrySet()) {
+            EventNeighbours neighbours = entry.getValue();
+            EventNeighbours.Builder builder = EventNeighbours.builder(Math.min(within.size(), neighbours.size()));
+            for (int i = 0; i < neighbours.size(); i++) {
+                if (within.contains(neighbours.eventId(i))) {
+                    builder.add(neighbours.eventId(i), neighbours.score(i));
+                }
+            }
+            if (builder.size() > 0) {
+                result.put(entry.getKey(), builder.build());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Применяет изменения сходств, уже сохранённые в базе. Сходство 0 означает удаление пары.
+     */
+    void apply(Collection<EventSimilarity> similarities);
+}
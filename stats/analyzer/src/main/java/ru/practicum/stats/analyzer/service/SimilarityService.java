@@ -1,7 +1,18 @@
 package ru.practicum.stats.analyzer.service;
 
+import ru.practicum.stats.analyzer.model.EventSimilarity;
 import ru.practicum.stats.avro.EventSimilarityAvro;
 
+import java.util.Collection;
+
 public interface SimilarityService {
     void save(EventSimilarityAvro eventSimilarityAvro);
+
+    /**
+     * Сохраняет итоговые сходства пар одной транзакцией; пары со сходством 0 удаляются.
+     * Каждая пара должна встречаться не больше одного раза.
+     */
+    void saveAll(Collection<EventSimilarity> similarities);
+
+    void delete(long eventA, long eventB);
 }
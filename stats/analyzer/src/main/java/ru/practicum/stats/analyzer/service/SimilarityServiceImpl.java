@@ -2,6 +2,8 @@ package ru.practicum.stats.analyzer.service;
 
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import ru.practicum.stats.analyzer.mapper.EventSimilarityMapper;
@@ -9,6 +11,11 @@ import ru.practicum.stats.analyzer.model.EventSimilarity;
 import ru.practicum.stats.analyzer.repository.SimilarityRepository;
 import ru.practicum.stats.avro.EventSimilarityAvro;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 @Slf4j
 @Service
 @AllArgsConstructor
@@ -28,42 +35,40 @@ public class SimilarityServiceImpl implements SimilarityService{
             log.error("Не удалось конвертировать EventSimilarityAvro в Entity: {}", eventSimilarityAvro);
             return;
         }
+        // одиночная запись идёт тем же путём, что и пакет, чтобы event_neighbours не расходилась с similarities
+        saveAll(List.of(newSimilarity));
+    }
 
-        // Проверяем, что событие не связано с самим собой
-        if (newSimilarity.getEvent1().equals(newSimilarity.getEvent2())) {
-            log.warn("Попытка сохранить сходство события {} с самим собой. Пропускаем.",
-                    newSimilarity.getEvent1());
-            return;
+    @Override
+    public void saveAll(Collection<EventSimilarity> similarities) {
+        List<EventSimilarity> upserts = new ArrayList<>(similarities.size());
+        List<EventSimilarity> deletions = new ArrayList<>();
+        for (EventSimilarity similarity : similarities) {
+            if (similarity.getEvent1().equals(similarity.getEvent2())) {
+                log.warn("Пропускаем сходство события {} с самим собой", similarity.getEvent1());
+            } else if (similarity.getSimilarity() > 0) {
+                upserts.add(similarity);
+            } else {
+                deletions.add(similarity);
+            }
         }
-
-        // Ищем существующую запись / сохраняем
-        similarityRepository
-                .findByEvent1AndEvent2(newSimilarity.getEvent1(), newSimilarity.getEvent2())
-                .ifPresentOrElse(
-                        existingSimilarity -> updateExistingSimilarity(existingSimilarity, newSimilarity),
-                        () -> createNewSimilarity(newSimilarity)
-                );
+        similarityRepository.upsertAll(upserts);
+        similarityRepository.deleteAllPairs(deletions);
+        log.info("Сохранено сходств: {}, удалено пар: {}", upserts.size(), deletions.size());
     }
 
-    private void updateExistingSimilarity(EventSimilarity existing, EventSimilarity updated) {
-        // Обновляем score и timestamp
-        log.debug("Обновляем сходство событий {} и {}: {} -> {}",
-                existing.getEvent1(),
-                existing.getEvent2(),
-                existing.getSimilarity(),
-                updated.getSimilarity());
-
-        existing.setSimilarity(updated.getSimilarity());
-        existing.setTimestamp(updated.getTimestamp());
-        similarityRepository.save(existing);
+    @Override
+    public void delete(long eventA, long eventB) {
+        log.info("Удаление сходства событий А {} и Б {}", eventA, eventB);
+        similarityRepository.deleteAllPairs(List.of(EventSimilarityMapper.removed(eventA, eventB, Instant.now())));
     }
 
-    private void createNewSimilarity(EventSimilarity newSimilarity) {
-        log.debug("Создаем новую связь между событиями {} и {} со сходством {}",
-                newSimilarity.getEvent1(),
-                newSimilarity.getEvent2(),
-                newSimilarity.getSimilarity());
-
-        similarityRepository.save(newSimilarity);
+    // таблица соседей появилась, когда сходства уже накопились, - заполняем её до запуска процессоров
+    @EventListener(ApplicationReadyEvent.class)
+    public void fillNeighboursIfEmpty() {
+        int rows = similarityRepository.fillNeighboursIfEmpty();
+        if (rows > 0) {
+            log.info("Таблица соседей заполнена из similarities: {} строк", rows);
+        }
     }
 }
@@ -0,0 +1,232 @@
+package ru.practicum.stats.analyzer.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.sql.init.dependency.DependsOnDatabaseInitialization;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.stats.analyzer.config.TrendingConfig;
+import ru.practicum.stats.analyzer.mapper.RecommendationsMapper;
+import ru.practicum.stats.analyzer.mapper.UserActionMapper;
+import ru.practicum.stats.analyzer.model.EventTrend;
+import ru.practicum.stats.analyzer.repository.EventTrendRepository;
+import ru.practicum.stats.avro.UserActionAvro;
+import ru.practicum.stats.proto.RecommendedEventProto;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Популярность мероприятий «сейчас»: у каждого мероприятия счётчик рейтингов действий, который
+ * экспоненциально затухает с периодом полураспада analyzer.trending.half-life.
+ * <p>
+ * Счётчики хранятся приведёнными к опорному моменту: значение в момент t равно value * 2^(-(t - landmark) / halfLife).
+ * Общий множитель не меняет порядок, поэтому действие только прибавляет к счётчику своего мероприятия,
+ * а лучшие top-size мероприятий держатся упорядоченными и читаются без обхода всех счётчиков.
+ * Счётчики растут только на действиях, так что мероприятие попадает в лучшие только на своём
+ * обновлении - набор лучших остаётся точным.
+ * <p>
+ * Счётчики обновляет процессор действий после сохранения пакета. Контрольная точка по расписанию
+ * и при остановке переносит опорный момент, удаляет затухшие счётчики и сохраняет значения в event_trends,
+ * откуда они читаются при старте. Строка хранит значение вместе с моментом записи, а затухание одинаково для всех
+ * счётчиков, поэтому точка записывает только счётчики, изменённые действиями с прошлой точки, и удаляет строки
+ * затухших. Офсеты процессора фиксируются независимо от контрольной точки, поэтому
+ * при аварийной остановке действия после последней точки теряются для популярности: топик дочитывается
+ * с зафиксированных офсетов и повторно их не отдаёт. Потеря ограничена интервалом checkpoint-cron.
+ */
+@Slf4j
+@Component
+@DependsOnDatabaseInitialization
+public class TrendingEvents {
+    private static final Comparator<Trend> ORDER = Comparator.comparingDouble(Trend::value).reversed()
+            .thenComparingLong(Trend::eventId);
+    // опорный момент переносится раньше, чем приведённые значения приблизятся к пределу double
+    private static final double MAX_HALF_LIVES = 512;
+
+    private final EventTrendRepository eventTrendRepository;
+    // контрольная точка вызывается и из @PreDestroy, где транзакционный прокси бина не участвует
+    private final TransactionTemplate transactionTemplate;
+    private final double halfLifeMillis;
+    private final int topSize;
+    private final double minScore;
+
+    private final Map<Long, Double> counters = new HashMap<>();
+    private final TreeSet<Trend> top = new TreeSet<>(ORDER);
+    // изменения с прошлой контрольной точки
+    private Set<Long> changed = new HashSet<>();
+    private Set<Long> removed = new HashSet<>();
+    private long landmark = System.currentTimeMillis();
+
+    public TrendingEvents(TrendingConfig config, EventTrendRepository eventTrendRepository,
+                          PlatformTransactionManager transactionManager) {
+        this.eventTrendRepository = eventTrendRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.halfLifeMillis = config.getHalfLife().toMillis();
+        this.topSize = config.getTopSize();
+        this.minScore = config.getMinScore();
+    }
+
+    @PostConstruct
+    public void load() {
+        List<EventTrend> trends = eventTrendRepository.findAll();
+        synchronized (this) {
+            for (EventTrend trend : trends) {
+                add(trend.getEventId(), trend.getScore() * decay(landmark - toMillis(trend.getTimestamp())));
+            }
+            // загруженные значения уже лежат в таблице
+            changed.clear();
+        }
+        log.info("Загружены счётчики популярности {} мероприятий", trends.size());
+    }
+
+    /**
+     * Учитывает действия, уже сохранённые процессором.
+     */
+    public synchronized void record(Collection<UserActionAvro> userActions) {
+        for (UserActionAvro userAction : userActions) {
+            long timestamp = userAction.getTimestamp().toEpochMilli();
+            if ((timestamp - landmark) / halfLifeMillis > MAX_HALF_LIVES) {
+                rebase(timestamp);
+            }
+            double rating = UserActionMapper.toEntity(userAction).getRating();
+            add(userAction.getEventId(), rating / decay(timestamp - landmark));
+        }
+    }
+
+    /**
+     * Самые популярные мероприятия по убыванию текущего значения счётчика, не больше top-size.
+     */
+    public List<RecommendedEventProto> top(int limit) {
+        List<Trend> trends = new ArrayList<>(Math.min(limit, topSize));
+        long currentLandmark;
+        synchronized (this) {
+            Iterator<Trend> iterator = top.iterator();
+            while (iterator.hasNext() && trends.size() < limit) {
+                trends.add(iterator.next());
+            }
+            currentLandmark = landmark;
+        }
+        double scale = decay(System.currentTimeMillis() - currentLandmark);
+        List<RecommendedEventProto> result = new ArrayList<>(trends.size());
+        for (Trend trend : trends) {
+            result.add(RecommendationsMapper.toRecommendedEventProto(trend.eventId(), trend.value() * scale));
+        }
+        return result;
+    }
+
+    @Scheduled(cron = "${analyzer.trending.checkpoint-cron:0 * * * * *}")
+    public void checkpoint() {
+        long now = System.currentTimeMillis();
+        Map<Long, Double> scores = new HashMap<>();
+        Set<Long> deleted;
+        synchronized (this) {
+            rebase(now);
+            for (Long eventId : changed) {
+                scores.put(eventId, counters.get(eventId));
+            }
+            deleted = removed;
+            changed = new HashSet<>();
+            removed = new HashSet<>();
+        }
+        LocalDateTime timestamp = LocalDateTime.ofInstant(Instant.ofEpochMilli(now), ZoneId.systemDefault());
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                eventTrendRepository.deleteAllByEventIds(deleted);
+                eventTrendRepository.upsertAll(scores, timestamp);
+            });
+        } catch (RuntimeException e) {
+            restorePending(scores.keySet(), deleted);
+            throw e;
+        }
+        log.debug("Сохранены счётчики популярности {} мероприятий, удалены {}", scores.size(), deleted.size());
+    }
+
+    // изменения несохранённой точки уйдут со следующей, если их не перекрыли новые действия
+    private synchronized void restorePending(Set<Long> upserted, Set<Long> deleted) {
+        for (Long eventId : upserted) {
+            if (counters.containsKey(eventId)) {
+                changed.add(eventId);
+            }
+        }
+        for (Long eventId : deleted) {
+            if (!counters.containsKey(eventId)) {
+                removed.add(eventId);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        try {
+            checkpoint();
+            log.info("Счётчики популярности сохранены при остановке");
+        } catch (Exception e) {
+            log.warn("Не удалось сохранить счётчики популярности при остановке", e);
+        }
+    }
+
+    // приводит счётчики к новому опорному моменту, удаляет затухшие и пересобирает набор лучших
+    private void rebase(long newLandmark) {
+        double scale = decay(newLandmark - landmark);
+        landmark = newLandmark;
+        top.clear();
+        Iterator<Map.Entry<Long, Double>> iterator = counters.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Double> counter = iterator.next();
+            double value = counter.getValue() * scale;
+            if (value < minScore) {
+                changed.remove(counter.getKey());
+                removed.add(counter.getKey());
+                iterator.remove();
+                continue;
+            }
+            counter.setValue(value);
+            offer(new Trend(counter.getKey(), value));
+        }
+    }
+
+    private void add(long eventId, double delta) {
+        Double previous = counters.get(eventId);
+        double value = previous == null ? delta : previous + delta;
+        counters.put(eventId, value);
+        changed.add(eventId);
+        removed.remove(eventId);
+        if (previous != null) {
+            top.remove(new Trend(eventId, previous));
+        }
+        offer(new Trend(eventId, value));
+    }
+
+    private void offer(Trend trend) {
+        top.add(trend);
+        if (top.size() > topSize) {
+            top.pollLast();
+        }
+    }
+
+    // множитель затухания за elapsed миллисекунд
+    private double decay(long elapsed) {
+        return Math.pow(2, -elapsed / halfLifeMillis);
+    }
+
+    private static long toMillis(LocalDateTime timestamp) {
+        return timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private record Trend(long eventId, double value) {
+    }
+}
@@ -2,6 +2,14 @@ package ru.practicum.stats.analyzer.service;
 
 import ru.practicum.stats.avro.UserActionAvro;
 
+import java.util.Collection;
+
 public interface UserActionService {
     void save(UserActionAvro userActionAvro);
+
+    /**
+     * Сохраняет действия одной транзакцией: для каждой пары пользователь-мероприятие остаётся
+     * наибольший рейтинг и время действия, которое его дало. Возвращает число записанных пар.
+     */
+    int saveAll(Collection<UserActionAvro> userActions);
 }
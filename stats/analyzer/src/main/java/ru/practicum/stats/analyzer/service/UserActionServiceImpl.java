@@ -6,9 +6,14 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import ru.practicum.stats.analyzer.mapper.UserActionMapper;
 import ru.practicum.stats.analyzer.model.UserAction;
+import ru.practicum.stats.analyzer.repository.EventScoreRepository;
 import ru.practicum.stats.analyzer.repository.UserInteractionRepository;
 import ru.practicum.stats.avro.UserActionAvro;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
 @Slf4j
 @Service
 @AllArgsConstructor
@@ -16,6 +21,7 @@ import ru.practicum.stats.avro.UserActionAvro;
 public class UserActionServiceImpl implements UserActionService {
 
     private final UserInteractionRepository userInteractionRepository;
+    private final EventScoreRepository eventScoreRepository;
 
     @Override
     public void save(UserActionAvro userActionAvro) {
@@ -32,6 +38,34 @@ public class UserActionServiceImpl implements UserActionService {
                 );
     }
 
+    @Override
+    public int saveAll(Collection<UserActionAvro> userActions) {
+        // в пакете остаётся первое действие с наибольшим рейтингом - так же, как при сохранении по одному
+        // строки блокируются в порядке ключей, чтобы параллельные пакеты потоков не ждали друг друга по кругу
+        Map<UserEventKey, UserAction> strongest = new TreeMap<>();
+        for (UserActionAvro userActionAvro : userActions) {
+            UserAction userAction = UserActionMapper.toEntity(userActionAvro);
+            strongest.merge(new UserEventKey(userAction.getUserId(), userAction.getEventId()), userAction,
+                    (current, candidate) -> candidate.getRating() > current.getRating() ? candidate : current);
+        }
+        // сумма рейтингов мероприятия растёт на прирост максимального рейтинга каждого пользователя
+        Map<Long, Double> scoreDeltas = new TreeMap<>();
+        for (UserAction userAction : strongest.values()) {
+            scoreDeltas.merge(userAction.getEventId(), userAction.getRating(), Double::sum);
+        }
+        for (UserAction existing : userInteractionRepository.findAllPairsForUpdate(strongest.values())) {
+            UserAction incoming = strongest.get(new UserEventKey(existing.getUserId(), existing.getEventId()));
+            double delta = Math.max(incoming.getRating(), existing.getRating()) - existing.getRating();
+            scoreDeltas.merge(existing.getEventId(), delta - incoming.getRating(), Double::sum);
+        }
+        scoreDeltas.values().removeIf(delta -> delta == 0);
+
+        userInteractionRepository.upsertAllKeepingMaxRating(strongest.values());
+        eventScoreRepository.addAll(scoreDeltas);
+        log.info("Сохранено действий: {}, пар пользователь-мероприятие: {}", userActions.size(), strongest.size());
+        return strongest.size();
+    }
+
     private void updateExistingAction(UserAction existingAction, UserAction newAction) {
         // Проверяем, что новый рейтинг выше текущего
         if (newAction.getRating() > existingAction.getRating()) {
@@ -41,6 +75,8 @@ public class UserActionServiceImpl implements UserActionService {
                     existingAction.getRating(),
                     newAction.getRating());
 
+            eventScoreRepository.addAll(Map.of(existingAction.getEventId(),
+                    newAction.getRating() - existingAction.getRating()));
             existingAction.setRating(newAction.getRating());
             existingAction.setTimestamp(newAction.getTimestamp());
             userInteractionRepository.save(existingAction);
@@ -60,5 +96,14 @@ public class UserActionServiceImpl implements UserActionService {
                 newAction.getRating());
 
         userInteractionRepository.save(newAction);
+        eventScoreRepository.addAll(Map.of(newAction.getEventId(), newAction.getRating()));
+    }
+
+    private record UserEventKey(long userId, long eventId) implements Comparable<UserEventKey> {
+        @Override
+        public int compareTo(UserEventKey other) {
+            int byUser = Long.compare(userId, other.userId);
+            return byUser != 0 ? byUser : Long.compare(eventId, other.eventId);
+        }
     }
 }
@@ -18,3 +18,29 @@ CREATE TABLE IF NOT EXISTS similarities (
     UNIQUE (event1, event2)
 );
 
+
+-- создаем таблицу сумм рейтингов мероприятий, её поддерживает сохранение взаимодействий
+CREATE TABLE IF NOT EXISTS event_scores (
+    event_id BIGINT PRIMARY KEY,
+    score FLOAT NOT NULL
+);
+
+-- создаем таблицу соседей мероприятий: каждая пара similarities в обе стороны,
+-- индекс по убыванию сходства отдаёт лучших соседей без сортировки и без обращения к таблице
+CREATE TABLE IF NOT EXISTS event_neighbours (
+    event_id BIGINT NOT NULL,
+    neighbour_id BIGINT NOT NULL,
+    similarity FLOAT NOT NULL,
+    PRIMARY KEY (event_id, neighbour_id)
+);
+
+CREATE INDEX IF NOT EXISTS event_neighbours_event_similarity_idx
+    ON event_neighbours (event_id, similarity DESC, neighbour_id);
+
+-- создаем таблицу контрольных точек затухающих счётчиков популярности мероприятий:
+-- score - значение счётчика на момент ts, между точками счётчики живут в памяти анализатора
+CREATE TABLE IF NOT EXISTS event_trends (
+    event_id BIGINT PRIMARY KEY,
+    score FLOAT NOT NULL,
+    ts TIMESTAMP WITH TIME ZONE NOT NULL
+);
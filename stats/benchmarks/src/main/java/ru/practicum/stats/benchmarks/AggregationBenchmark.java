@@ -0,0 +1,186 @@
+package ru.practicum.stats.benchmarks;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.practicum.stats.aggregator.config.DeliveryMode;
+import ru.practicum.stats.aggregator.config.HeavyUserPolicy;
+import ru.practicum.stats.aggregator.config.PipelineConfig;
+import ru.practicum.stats.aggregator.config.SimilarityConfig;
+import ru.practicum.stats.aggregator.config.SimilarityFormat;
+import ru.practicum.stats.aggregator.config.StateStoreConfig;
+import ru.practicum.stats.aggregator.config.StorageConfiguration;
+import ru.practicum.stats.aggregator.service.EventsSimilarityServiceImpl;
+import ru.practicum.stats.aggregator.storage.StorageType;
+import ru.practicum.stats.aggregator.storage.WeightSumsStore;
+import ru.practicum.stats.avro.EventSimilarityAvro;
+import ru.practicum.stats.avro.UserActionAvro;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пропускная способность агрегатора в действиях в секунду на пакетном пути countSimilarity.
+ * <p>
+ * Перед каждой итерацией состояние создаётся заново и наполняется prefill действиями, чтобы замер шёл
+ * на «прогретых» матрицах, а не на пустых. Параметры покрывают хранилища, число обработчиков
+ * и фильтры публикации; лишние комбинации отсекаются через -p.
+ * <p>
+ * При heavyUserThreshold больше 0 после итерации печатается доля пропущенных мероприятий-партнёров -
+ * вместе с пропускной способностью она показывает, чем оплачено ускорение.
+ * <p>
+ * Рядом с пропускной способностью JMH выводит счётчики {@link Emissions}: сколько действий обработано,
+ * сколько сходств отправлено и сколько отложено фильтром значимых изменений - по ним сравнивается объём
+ * записи при разных minScoreChange и topK.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@OperationsPerInvocation(AggregationBenchmark.BATCH_SIZE)
+public class AggregationBenchmark {
+    static final int BATCH_SIZE = 500;
+    private static final int MEASURED_ACTIONS = 2_000_000;
+
+    @Param({"HEAP", "PRIMITIVE", "MAPPED"})
+    private StorageType storage;
+
+    @Param({"1", "2", "4", "8"})
+    private int workers;
+
+    @Param({"0", "0.01"})
+    private double minScoreChange;
+
+    @Param({"0"})
+    private int topK;
+
+    @Param({"0"})
+    private int heavyUserThreshold;
+
+    @Param({"CAP_RECENT"})
+    private HeavyUserPolicy heavyUserPolicy;
+
+    @Param({"500"})
+    private int heavyUserPartners;
+
+    @Param({"100000"})
+    private int users;
+
+    @Param({"10000"})
+    private int events;
+
+    @Param({"1.1"})
+    private double exponent;
+
+    @Param({"200000"})
+    private int prefill;
+
+    private List<List<UserActionAvro>> prefillBatches;
+    private List<List<UserActionAvro>> measuredBatches;
+    private int cursor;
+
+    private Path mappedDirectory;
+    private WeightSumsStore weightSumsStore;
+    private EventsSimilarityServiceImpl service;
+    private MeterRegistry meterRegistry;
+    private Counter suppressedCounter;
+
+    @Setup(Level.Trial)
+    public void generateWorkload() throws IOException {
+        PowerLawWorkload workload = new PowerLawWorkload(users, events, exponent, 42);
+        prefillBatches = workload.batches(prefill, BATCH_SIZE);
+        measuredBatches = workload.batches(MEASURED_ACTIONS, BATCH_SIZE);
+        mappedDirectory = Files.createTempDirectory("aggregator-benchmark");
+    }
+
+    @Setup(Level.Iteration)
+    public void createState() {
+        StateStoreConfig stateConfig = new StateStoreConfig(storage, mappedDirectory, events, 1_000_000);
+        PipelineConfig pipelineConfig = new PipelineConfig(workers, DeliveryMode.FLUSH_PER_POLL, "benchmark",
+                SimilarityFormat.PAIR, 1000);
+        StorageConfiguration storageConfiguration = new StorageConfiguration();
+        SimilarityConfig similarityConfig = new SimilarityConfig(minScoreChange, Duration.ofMinutes(1), topK,
+                heavyUserThreshold, heavyUserPolicy, heavyUserPartners);
+        weightSumsStore = storageConfiguration.weightSumsStore(stateConfig);
+        meterRegistry = new SimpleMeterRegistry();
+        service = new EventsSimilarityServiceImpl(
+                storageConfiguration.userWeightsStore(stateConfig, pipelineConfig), weightSumsStore,
+                pipelineConfig, similarityConfig, meterRegistry);
+        for (List<UserActionAvro> batch : prefillBatches) {
+            service.countSimilarity(batch);
+        }
+        suppressedCounter = meterRegistry.counter("aggregator.similarity.emissions.suppressed");
+        cursor = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void releaseState() throws Exception {
+        if (heavyUserThreshold > 0) {
+            double visited = meterRegistry.summary("aggregator.similarity.events.visited").totalAmount();
+            double skipped = meterRegistry.counter("aggregator.similarity.heavy-user.partners.skipped").count();
+            System.out.printf("heavy-user actions: %.0f, skipped partners: %.0f (%.1f%% of pair updates)%n",
+                    meterRegistry.counter("aggregator.similarity.heavy-user.actions").count(), skipped,
+                    100 * skipped / Math.max(1, visited + skipped));
+        }
+        service.shutdown();
+        if (weightSumsStore instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+
+    /**
+     * Если итерация успевает пройти весь поток, он начинается заново; повторные действия в основном
+     * не меняют веса, поэтому результат такой итерации завышен - в этом случае нужно увеличить MEASURED_ACTIONS.
+     */
+    @Benchmark
+    public List<EventSimilarityAvro> countSimilarity(Emissions emissions) {
+        List<UserActionAvro> batch = measuredBatches.get(cursor);
+        cursor = cursor + 1 == measuredBatches.size() ? 0 : cursor + 1;
+        double suppressedBefore = suppressedCounter.count();
+        List<EventSimilarityAvro> similarities = service.countSimilarity(batch);
+        emissions.actions += batch.size();
+        emissions.emitted += similarities.size();
+        emissions.suppressed += (long) (suppressedCounter.count() - suppressedBefore);
+        return similarities;
+    }
+
+    /**
+     * Обработанные действия, отправленные и отложенные сходства за итерацию, обнуляются перед каждой итерацией.
+     * Итерации успевают обработать разное число действий, поэтому пороги сравниваются по emitted / actions.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Emissions {
+        public long actions;
+        public long emitted;
+        public long suppressed;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            actions = 0;
+            emitted = 0;
+            suppressed = 0;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package ru.practicum.stats.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Запуск бенчмарков: java -jar stats/benchmarks/target/benchmarks.jar [обычные параметры JMH].
+ * <p>
+ * В отличие от стандартного запуска JMH, результаты по умолчанию пишутся в JSON (jmh-result.json),
+ * чтобы замеры разных сборок можно было сравнить, и всегда включён профилировщик gc,
+ * который даёт выделение памяти на операцию (gc.alloc.rate.norm).
+ */
+public class BenchmarkRunner {
+    private static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        Options options = new OptionsBuilder()
+                .parent(commandLine)
+                .resultFormat(commandLine.getResultFormat().orElse(ResultFormatType.JSON))
+                .result(commandLine.getResult().orElse(DEFAULT_RESULT_FILE))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
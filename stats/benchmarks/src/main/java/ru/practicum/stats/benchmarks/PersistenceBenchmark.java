@@ -0,0 +1,268 @@
+package ru.practicum.stats.benchmarks;
+
+import org.h2.tools.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.stats.analyzer.mapper.EventSimilarityMapper;
+import ru.practicum.stats.analyzer.model.EventSimilarity;
+import ru.practicum.stats.analyzer.model.UserAction;
+import ru.practicum.stats.analyzer.repository.EventScoreBatchRepositoryImpl;
+import ru.practicum.stats.analyzer.repository.EventScoreRepository;
+import ru.practicum.stats.analyzer.repository.SimilarityBatchRepositoryImpl;
+import ru.practicum.stats.analyzer.repository.SimilarityRepository;
+import ru.practicum.stats.analyzer.repository.UserActionBatchRepositoryImpl;
+import ru.practicum.stats.analyzer.repository.UserInteractionRepository;
+import ru.practicum.stats.analyzer.service.SimilarityServiceImpl;
+import ru.practicum.stats.analyzer.service.UserActionServiceImpl;
+import ru.practicum.stats.avro.EventSimilarityAvro;
+import ru.practicum.stats.avro.UserActionAvro;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Скорость сохранения записей топиков анализатором в записях в секунду: по одной записи в своей транзакции,
+ * как до пакетной записи, и одним пакетом на опрос.
+ * <p>
+ * Оба пути вызывают настоящие сервисы анализатора. База - файловая H2 в режиме PostgreSQL со схемой
+ * из schema.sql, пакетные методы репозиториев - настоящие реализации (на H2 они выполняют MERGE).
+ * Одиночные методы JPA-репозитория действий (поиск пары и сохранение строки) заменены однострочными
+ * запросами JDBC без Hibernate, поэтому путь по одной записи выглядит быстрее, чем в приложении,
+ * и ускорение пакета получается заниженным.
+ * <p>
+ * EMBEDDED открывает базу в процессе замера, TCP - через сервер H2 на локальном порту: так каждый запрос
+ * платит за обмен с сервером базы, как в приложении с PostgreSQL.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@OperationsPerInvocation(PersistenceBenchmark.POLL_SIZE)
+public class PersistenceBenchmark {
+    static final int POLL_SIZE = 500;
+    private static final int POLLS = 2_000;
+    private static final String FIND_ACTION = "SELECT id, rating FROM interactions WHERE user_id = ? AND event_id = ?";
+    private static final String INSERT_ACTION =
+            "INSERT INTO interactions (user_id, event_id, rating, ts) VALUES (?, ?, ?, ?)";
+    private static final String UPDATE_ACTION = "UPDATE interactions SET rating = ?, ts = ? WHERE id = ?";
+
+    // PER_RECORD - транзакция на каждую запись, BATCH - транзакция на опрос
+    @Param({"PER_RECORD", "BATCH"})
+    private String path;
+
+    @Param({"EMBEDDED", "TCP"})
+    private String connection;
+
+    @Param({"100000"})
+    private int users;
+
+    @Param({"10000"})
+    private int events;
+
+    private Path databaseDirectory;
+    private Server server;
+    private SingleConnectionDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private UserActionServiceImpl userActionService;
+    private SimilarityServiceImpl similarityService;
+
+    private List<List<UserActionAvro>> actionPolls;
+    private List<List<EventSimilarityAvro>> similarityPolls;
+    private int actionCursor;
+    private int similarityCursor;
+
+    @Setup
+    public void setUp() throws IOException, SQLException {
+        databaseDirectory = Files.createTempDirectory("persistence-benchmark");
+        String location = "file:" + databaseDirectory.resolve("analyzer");
+        if ("TCP".equals(connection)) {
+            server = Server.createTcpServer("-tcpPort", String.valueOf(freePort()), "-ifNotExists").start();
+            location = "tcp://localhost:" + server.getPort() + "/" + databaseDirectory.resolve("analyzer");
+        }
+        dataSource = new SingleConnectionDataSource("jdbc:h2:" + location
+                + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;CACHE_SIZE=1048576", "sa", "", true);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        ScriptUtils.executeSqlScript(dataSource.getConnection(), new ClassPathResource("schema.sql"));
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+
+        userActionService = new UserActionServiceImpl(interactionRepository(), eventScoreRepository());
+        similarityService = new SimilarityServiceImpl(similarityRepository());
+
+        actionPolls = new PowerLawWorkload(users, events, 1.1, 42).batches(POLLS * POLL_SIZE, POLL_SIZE);
+        similarityPolls = similarityPolls();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        dataSource.destroy();
+        if (server != null) {
+            server.stop();
+        }
+        try (Stream<Path> files = Files.walk(databaseDirectory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void userActions() {
+        List<UserActionAvro> poll = actionPolls.get(actionCursor);
+        actionCursor = (actionCursor + 1) % actionPolls.size();
+        if ("BATCH".equals(path)) {
+            transactionTemplate.executeWithoutResult(status -> userActionService.saveAll(poll));
+        } else {
+            for (UserActionAvro userAction : poll) {
+                transactionTemplate.executeWithoutResult(status -> userActionService.save(userAction));
+            }
+        }
+    }
+
+    @Benchmark
+    public void similarities() {
+        List<EventSimilarityAvro> poll = similarityPolls.get(similarityCursor);
+        similarityCursor = (similarityCursor + 1) % similarityPolls.size();
+        if ("BATCH".equals(path)) {
+            List<EventSimilarity> entities = new ArrayList<>(poll.size());
+            for (EventSimilarityAvro similarity : poll) {
+                entities.add(EventSimilarityMapper.toEntity(similarity));
+            }
+            transactionTemplate.executeWithoutResult(status -> similarityService.saveAll(entities));
+        } else {
+            for (EventSimilarityAvro similarity : poll) {
+                transactionTemplate.executeWithoutResult(status -> similarityService.save(similarity));
+            }
+        }
+    }
+
+    // Опросы топика сходств: в опросе пары не повторяются, как после свёртки пакета процессором
+    private List<List<EventSimilarityAvro>> similarityPolls() {
+        Random random = new Random(7);
+        Instant timestamp = Instant.parse("2025-01-01T00:00:00Z");
+        List<List<EventSimilarityAvro>> polls = new ArrayList<>(POLLS);
+        for (int i = 0; i < POLLS; i++) {
+            List<EventSimilarityAvro> poll = new ArrayList<>(POLL_SIZE);
+            long eventA = 1 + random.nextInt(events - POLL_SIZE);
+            for (int j = 0; j < POLL_SIZE; j++) {
+                poll.add(EventSimilarityAvro.newBuilder()
+                        .setEventA(eventA + j)
+                        .setEventB(eventA + j + 1 + random.nextInt(events))
+                        .setScore(random.nextDouble())
+                        .setTimestamp(timestamp.plusMillis((long) i * POLL_SIZE + j))
+                        .build());
+            }
+            polls.add(poll);
+        }
+        return polls;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private UserInteractionRepository interactionRepository() {
+        UserActionBatchRepositoryImpl batch = new UserActionBatchRepositoryImpl(jdbcTemplate, "");
+        return (UserInteractionRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{UserInteractionRepository.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "findAllPairsForUpdate" -> batch.findAllPairsForUpdate(castActions(args[0]));
+                    case "upsertAllKeepingMaxRating" -> {
+                        batch.upsertAllKeepingMaxRating(castActions(args[0]));
+                        yield null;
+                    }
+                    case "findByUserIdAndEventId" -> findAction((Long) args[0], (Long) args[1]);
+                    case "save" -> saveAction((UserAction) args[0]);
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private EventScoreRepository eventScoreRepository() {
+        EventScoreBatchRepositoryImpl batch = new EventScoreBatchRepositoryImpl(jdbcTemplate, "");
+        return (EventScoreRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{EventScoreRepository.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("addAll")) {
+                        @SuppressWarnings("unchecked")
+                        Map<Long, Double> deltas = (Map<Long, Double>) args[0];
+                        batch.addAll(deltas);
+                        return null;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private SimilarityRepository similarityRepository() {
+        SimilarityBatchRepositoryImpl batch = new SimilarityBatchRepositoryImpl(jdbcTemplate, "");
+        return (SimilarityRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{SimilarityRepository.class}, (proxy, method, args) -> {
+                    @SuppressWarnings("unchecked")
+                    Collection<EventSimilarity> similarities = (Collection<EventSimilarity>) args[0];
+                    switch (method.getName()) {
+                        case "upsertAll" -> batch.upsertAll(similarities);
+                        case "deleteAllPairs" -> batch.deleteAllPairs(similarities);
+                        default -> throw new UnsupportedOperationException(method.getName());
+                    }
+                    return null;
+                });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Collection<UserAction> castActions(Object userActions) {
+        return (Collection<UserAction>) userActions;
+    }
+
+    private Optional<UserAction> findAction(long userId, long eventId) {
+        return jdbcTemplate.query(FIND_ACTION, resultSet -> resultSet.next()
+                ? Optional.of(UserAction.builder()
+                        .id(resultSet.getLong(1))
+                        .userId(userId)
+                        .eventId(eventId)
+                        .rating(resultSet.getDouble(2))
+                        .build())
+                : Optional.empty(), userId, eventId);
+    }
+
+    private UserAction saveAction(UserAction userAction) {
+        Timestamp timestamp = Timestamp.valueOf(userAction.getTimestamp());
+        if (userAction.getId() == null) {
+            jdbcTemplate.update(INSERT_ACTION, userAction.getUserId(), userAction.getEventId(),
+                    userAction.getRating(), timestamp);
+        } else {
+            jdbcTemplate.update(UPDATE_ACTION, userAction.getRating(), timestamp, userAction.getId());
+        }
+        return userAction;
+    }
+}
@@ -0,0 +1,84 @@
+package ru.practicum.stats.benchmarks;
+
+import ru.practicum.stats.avro.ActionTypeAvro;
+import ru.practicum.stats.avro.UserActionAvro;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Синтетический поток действий пользователей. Пользователи и мероприятия выбираются по степенному закону
+ * (распределение Ципфа): немного очень активных пользователей и популярных мероприятий и длинный хвост остальных.
+ * Поток детерминирован для одного и того же seed, поэтому замеры разных сборок сравнимы.
+ */
+public class PowerLawWorkload {
+    private static final Instant START = Instant.parse("2025-01-01T00:00:00Z");
+
+    private final double[] userDistribution;
+    private final double[] eventDistribution;
+    private final Random random;
+    private long sequence;
+
+    public PowerLawWorkload(int users, int events, double exponent, long seed) {
+        this.userDistribution = cumulativeZipf(users, exponent);
+        this.eventDistribution = cumulativeZipf(events, exponent);
+        this.random = new Random(seed);
+    }
+
+    public UserActionAvro nextAction() {
+        return UserActionAvro.newBuilder()
+                .setUserId(sample(userDistribution))
+                .setEventId(sample(eventDistribution))
+                .setActionType(nextActionType())
+                .setTimestamp(START.plusMillis(sequence++))
+                .build();
+    }
+
+    /**
+     * Разбивает следующие count действий на пакеты по batchSize, как их вернул бы poll консьюмера.
+     */
+    public List<List<UserActionAvro>> batches(int count, int batchSize) {
+        List<List<UserActionAvro>> batches = new ArrayList<>(count / batchSize + 1);
+        for (int produced = 0; produced < count; produced += batchSize) {
+            int size = Math.min(batchSize, count - produced);
+            List<UserActionAvro> batch = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                batch.add(nextAction());
+            }
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    // Просмотры встречаются чаще регистраций, регистрации - чаще лайков
+    private ActionTypeAvro nextActionType() {
+        int roll = random.nextInt(10);
+        if (roll < 7) {
+            return ActionTypeAvro.VIEW;
+        }
+        return roll < 9 ? ActionTypeAvro.REGISTER : ActionTypeAvro.LIKE;
+    }
+
+    // Идентификаторы начинаются с 1, чем меньше идентификатор, тем чаще он выбирается
+    private long sample(double[] distribution) {
+        int index = Arrays.binarySearch(distribution, random.nextDouble());
+        return (index >= 0 ? index : -index - 1) + 1;
+    }
+
+    private static double[] cumulativeZipf(int size, double exponent) {
+        double[] cumulative = new double[size];
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += 1.0 / Math.pow(i + 1, exponent);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < size; i++) {
+            cumulative[i] /= sum;
+        }
+        cumulative[size - 1] = 1.0;
+        return cumulative;
+    }
+}
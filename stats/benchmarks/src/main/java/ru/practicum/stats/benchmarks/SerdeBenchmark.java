@@ -0,0 +1,149 @@
+package ru.practicum.stats.benchmarks;
+
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.practicum.stats.avro.ActionTypeAvro;
+import ru.practicum.stats.avro.EventSimilarityAvro;
+import ru.practicum.stats.avro.UserActionAvro;
+import ru.practicum.stats.avro.deserializer.EventsSimilarityDeserializer;
+import ru.practicum.stats.avro.deserializer.UserActionDeserializer;
+import ru.practicum.stats.avro.serializer.GeneralAvroSerializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Стоимость сериализации и десериализации сообщений топиков действий и сходства одной записью.
+ * Выделение памяти на запись показывает профилировщик gc (gc.alloc.rate.norm).
+ * <p>
+ * Методы *Baseline повторяют прежнюю реализацию: новый писатель и поток на каждую запись,
+ * новые декодер и запись при каждом чтении. Методы *Reuse читают в одну и ту же запись.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerdeBenchmark {
+    private static final String TOPIC = "benchmark";
+
+    private GeneralAvroSerializer serializer;
+    private UserActionDeserializer userActionDeserializer;
+    private EventsSimilarityDeserializer similarityDeserializer;
+
+    private UserActionAvro userAction;
+    private EventSimilarityAvro similarity;
+    private byte[] userActionBytes;
+    private byte[] similarityBytes;
+
+    private UserActionAvro reusedUserAction;
+    private EventSimilarityAvro reusedSimilarity;
+    private BinaryEncoder baselineEncoder;
+    private SpecificDatumReader<UserActionAvro> baselineUserActionReader;
+    private SpecificDatumReader<EventSimilarityAvro> baselineSimilarityReader;
+
+    @Setup
+    public void setUp() {
+        serializer = new GeneralAvroSerializer();
+        userActionDeserializer = new UserActionDeserializer();
+        similarityDeserializer = new EventsSimilarityDeserializer();
+
+        userAction = UserActionAvro.newBuilder()
+                .setUserId(123_456)
+                .setEventId(7_890)
+                .setActionType(ActionTypeAvro.REGISTER)
+                .setTimestamp(Instant.parse("2025-01-01T00:00:00Z"))
+                .build();
+        similarity = EventSimilarityAvro.newBuilder()
+                .setEventA(7_890)
+                .setEventB(7_891)
+                .setScore(0.4242)
+                .setTimestamp(Instant.parse("2025-01-01T00:00:00Z"))
+                .build();
+        userActionBytes = serializer.serialize(TOPIC, userAction);
+        similarityBytes = serializer.serialize(TOPIC, similarity);
+        reusedUserAction = new UserActionAvro();
+        reusedSimilarity = new EventSimilarityAvro();
+        baselineUserActionReader = new SpecificDatumReader<>(UserActionAvro.getClassSchema());
+        baselineSimilarityReader = new SpecificDatumReader<>(EventSimilarityAvro.getClassSchema());
+    }
+
+    @Benchmark
+    public byte[] serializeUserAction() {
+        return serializer.serialize(TOPIC, userAction);
+    }
+
+    @Benchmark
+    public UserActionAvro deserializeUserAction() {
+        return userActionDeserializer.deserialize(TOPIC, userActionBytes);
+    }
+
+    @Benchmark
+    public byte[] serializeSimilarity() {
+        return serializer.serialize(TOPIC, similarity);
+    }
+
+    @Benchmark
+    public EventSimilarityAvro deserializeSimilarity() {
+        return similarityDeserializer.deserialize(TOPIC, similarityBytes);
+    }
+
+    @Benchmark
+    public UserActionAvro deserializeUserActionReuse() {
+        return userActionDeserializer.deserialize(TOPIC, userActionBytes, reusedUserAction);
+    }
+
+    @Benchmark
+    public EventSimilarityAvro deserializeSimilarityReuse() {
+        return similarityDeserializer.deserialize(TOPIC, similarityBytes, reusedSimilarity);
+    }
+
+    @Benchmark
+    public byte[] serializeUserActionBaseline() throws IOException {
+        return serializeBaseline(userAction);
+    }
+
+    @Benchmark
+    public UserActionAvro deserializeUserActionBaseline() throws IOException {
+        BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(userActionBytes, null);
+        return baselineUserActionReader.read(null, decoder);
+    }
+
+    @Benchmark
+    public byte[] serializeSimilarityBaseline() throws IOException {
+        return serializeBaseline(similarity);
+    }
+
+    @Benchmark
+    public EventSimilarityAvro deserializeSimilarityBaseline() throws IOException {
+        BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(similarityBytes, null);
+        return baselineSimilarityReader.read(null, decoder);
+    }
+
+    private byte[] serializeBaseline(SpecificRecordBase data) throws IOException {
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            baselineEncoder = EncoderFactory.get().binaryEncoder(out, baselineEncoder);
+            new SpecificDatumWriter<SpecificRecordBase>(data.getSchema()).write(data, baselineEncoder);
+            baselineEncoder.flush();
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package ru.practicum.stats.benchmarks;
+
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.record.DefaultRecord;
+import org.apache.kafka.common.record.DefaultRecordBatch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.practicum.stats.avro.EventSimilarityAvro;
+import ru.practicum.stats.avro.EventSimilarityBatchAvro;
+import ru.practicum.stats.avro.EventSimilarityEntryAvro;
+import ru.practicum.stats.avro.deserializer.EventSimilarityBatchDeserializer;
+import ru.practicum.stats.avro.serializer.GeneralAvroSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Форматы топика сходств: запись на каждую пару против пакета сходств на опрос.
+ * <p>
+ * Замер показывает стоимость кодирования сходств одного опроса. Размер на проводе считается при подготовке
+ * и печатается один раз: записи кодируются в формате пакета записей Kafka без сжатия, в одну партицию.
+ * Частота запросов к брокеру при linger.ms 0 пропорциональна числу записей, на живом брокере её показывают
+ * метрики продюсера request-rate и outgoing-byte-rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SimilarityFormatBenchmark {
+    private static final String TOPIC = "benchmark";
+    private static final int BATCH_ENTRIES = 1000;
+    private static final Header[] NO_HEADERS = new Header[0];
+    private static final Header[] BATCH_HEADERS = {new RecordHeader(EventSimilarityBatchDeserializer.FORMAT_HEADER,
+            EventSimilarityBatchDeserializer.BATCH_FORMAT.getBytes(StandardCharsets.UTF_8))};
+
+    @Param({"20", "500", "5000"})
+    private int pairsPerPoll;
+
+    private GeneralAvroSerializer serializer;
+    private List<EventSimilarityAvro> similarities;
+
+    @Setup
+    public void setUp() {
+        serializer = new GeneralAvroSerializer();
+        Random random = new Random(42);
+        Instant timestamp = Instant.parse("2025-01-01T00:00:00Z");
+        similarities = new ArrayList<>(pairsPerPoll);
+        for (int i = 0; i < pairsPerPoll; i++) {
+            long eventA = 1 + random.nextInt(10_000);
+            similarities.add(EventSimilarityAvro.newBuilder()
+                    .setEventA(eventA)
+                    .setEventB(eventA + 1 + random.nextInt(10_000))
+                    .setScore(random.nextDouble())
+                    .setTimestamp(timestamp.plusMillis(i))
+                    .build());
+        }
+
+        WireSize pairs = new WireSize();
+        for (EventSimilarityAvro similarity : similarities) {
+            pairs.add(keyOf(similarity).length, serializer.serialize(TOPIC, similarity).length, NO_HEADERS);
+        }
+        WireSize batches = new WireSize();
+        for (EventSimilarityBatchAvro batch : toBatches(similarities)) {
+            batches.add(0, serializer.serialize(TOPIC, batch).length, BATCH_HEADERS);
+        }
+        System.out.printf("%d pairs: PAIR %d records, %d bytes; BATCH %d records, %d bytes%n",
+                pairsPerPoll, pairs.records, pairs.bytes(), batches.records, batches.bytes());
+    }
+
+    @Benchmark
+    public long pairFormat() {
+        long bytes = 0;
+        for (EventSimilarityAvro similarity : similarities) {
+            bytes += keyOf(similarity).length + serializer.serialize(TOPIC, similarity).length;
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public long batchFormat() {
+        long bytes = 0;
+        for (EventSimilarityBatchAvro batch : toBatches(similarities)) {
+            bytes += serializer.serialize(TOPIC, batch).length;
+        }
+        return bytes;
+    }
+
+    private static byte[] keyOf(EventSimilarityAvro similarity) {
+        return (similarity.getEventA() + "_" + similarity.getEventB()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Та же раскладка, что у агрегатора в формате BATCH, для одной партиции
+    private static List<EventSimilarityBatchAvro> toBatches(List<EventSimilarityAvro> similarities) {
+        List<EventSimilarityBatchAvro> batches = new ArrayList<>();
+        for (int from = 0; from < similarities.size(); from += BATCH_ENTRIES) {
+            List<EventSimilarityAvro> chunk =
+                    similarities.subList(from, Math.min(from + BATCH_ENTRIES, similarities.size()));
+            List<EventSimilarityEntryAvro> entries = new ArrayList<>(chunk.size());
+            Instant timestamp = Instant.EPOCH;
+            for (EventSimilarityAvro similarity : chunk) {
+                entries.add(EventSimilarityEntryAvro.newBuilder()
+                        .setEventA(similarity.getEventA())
+                        .setEventB(similarity.getEventB())
+                        .setScore(similarity.getScore())
+                        .build());
+                if (similarity.getTimestamp().isAfter(timestamp)) {
+                    timestamp = similarity.getTimestamp();
+                }
+            }
+            batches.add(EventSimilarityBatchAvro.newBuilder().setEntries(entries).setTimestamp(timestamp).build());
+        }
+        return batches;
+    }
+
+    // Размер записей в пакете записей Kafka: заголовок пакета плюс записи с дельтами офсета и времени
+    private static class WireSize {
+        private int records;
+        private long recordBytes;
+
+        private void add(int keySize, int valueSize, Header[] headers) {
+            recordBytes += DefaultRecord.sizeInBytes(records, records, keySize, valueSize, headers);
+            records++;
+        }
+
+        private long bytes() {
+            return DefaultRecordBatch.RECORD_BATCH_OVERHEAD + recordBytes;
+        }
+    }
+}
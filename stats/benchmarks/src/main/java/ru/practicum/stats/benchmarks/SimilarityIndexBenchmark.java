@@ -0,0 +1,224 @@
+package ru.practicum.stats.benchmarks;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import ru.practicum.stats.analyzer.config.RecommendationsConfig;
+import ru.practicum.stats.analyzer.model.UserAction;
+import ru.practicum.stats.analyzer.repository.SimilarityBatchRepositoryImpl;
+import ru.practicum.stats.analyzer.repository.UserInteractionRepository;
+import ru.practicum.stats.analyzer.service.DatabaseSimilarityIndex;
+import ru.practicum.stats.analyzer.service.InMemorySimilarityIndex;
+import ru.practicum.stats.analyzer.service.RecommendationsCache;
+import ru.practicum.stats.analyzer.service.RecommendationsCalculator;
+import ru.practicum.stats.analyzer.service.RecommendationsServiceImpl;
+import ru.practicum.stats.analyzer.service.SimilarityIndex;
+import ru.practicum.stats.proto.SimilarEventsBatchRequestProto;
+import ru.practicum.stats.proto.SimilarEventsRequestProto;
+import ru.practicum.stats.proto.UserPredictionsRequestProto;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Задержка чтений рекомендаций анализатора из графа сходств в памяти и из таблицы event_neighbours.
+ * <p>
+ * Режим SampleTime даёт распределение времени запроса, в том числе p0.99. Схема берётся из schema.sql
+ * анализатора, база - файловая H2 в режиме PostgreSQL во временном каталоге, поэтому замер DATABASE
+ * не включает сетевой обмен с сервером базы и занижает его задержку относительно боевой.
+ * Взаимодействия пользователей отдаёт заглушка репозитория, чтобы обе реализации отличались
+ * только источником соседей.
+ * <p>
+ * Пар сходств events * neighbours / 2: для десятков миллионов пар -p events=400000 -p neighbours=50
+ * и заметное время на наполнение базы.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class SimilarityIndexBenchmark {
+    private static final int USERS = 1_000;
+    private static final int MAX_RESULTS = 10;
+    private static final int CARDS = 10;
+    // у каждого мероприятия neighbours / 2 более поздних соседей с разными смещениями, так что пары не повторяются
+    private static final String FILL_SIMILARITIES = "INSERT INTO similarities (event1, event2, similarity, ts) "
+            + "SELECT e.x, e.x + 1 + MOD(k.x * 7919 + e.x * 104729, ?), RAND(), TIMESTAMP '2025-01-01 00:00:00' "
+            + "FROM SYSTEM_RANGE(1, ?) AS e (x) CROSS JOIN SYSTEM_RANGE(0, ?) AS k (x)";
+
+    @Param({"MEMORY", "DATABASE"})
+    private String source;
+
+    @Param({"20000"})
+    private int events;
+
+    // среднее число соседей мероприятия
+    @Param({"50"})
+    private int neighbours;
+
+    // длина истории пользователя
+    @Param({"5", "20", "100"})
+    private int history;
+
+    private Path databaseDirectory;
+    private SingleConnectionDataSource dataSource;
+    private RecommendationsCalculator calculator;
+    private RecommendationsCache cache;
+    private RecommendationsServiceImpl service;
+    private final Random random = new Random(42);
+
+    @Setup
+    public void setUp() throws IOException, SQLException {
+        databaseDirectory = Files.createTempDirectory("similarity-benchmark");
+        dataSource = new SingleConnectionDataSource("jdbc:h2:file:" + databaseDirectory.resolve("analyzer")
+                + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;CACHE_SIZE=1048576", "sa", "", true);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        ScriptUtils.executeSqlScript(dataSource.getConnection(), new ClassPathResource("schema.sql"));
+        long started = System.nanoTime();
+        int pairs = jdbcTemplate.update(FILL_SIMILARITIES, events, events - 1, neighbours / 2 - 1);
+        int rows = new SimilarityBatchRepositoryImpl(jdbcTemplate, "").fillNeighboursIfEmpty();
+        System.out.printf("%d pairs, %d neighbour rows loaded in %d s%n", pairs, rows,
+                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started));
+
+        SimilarityIndex index;
+        if ("MEMORY".equals(source)) {
+            InMemorySimilarityIndex memoryIndex =
+                    new InMemorySimilarityIndex(dataSource, new DataSourceTransactionManager(dataSource));
+            memoryIndex.load();
+            index = memoryIndex;
+        } else {
+            index = new DatabaseSimilarityIndex(jdbcTemplate);
+        }
+        UserInteractionRepository interactions = interactions();
+        calculator = new RecommendationsCalculator(interactions, index);
+        cache = new RecommendationsCache(new RecommendationsConfig(MAX_RESULTS, USERS, 1, 0.05),
+                calculator, index, new SimpleMeterRegistry());
+        // суммы рейтингов и счётчики популярности мероприятий в замерах не читаются
+        service = new RecommendationsServiceImpl(interactions, null, index, calculator, cache, null);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        cache.shutdown();
+        dataSource.destroy();
+        try (Stream<Path> files = Files.walk(databaseDirectory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long similarEvents() {
+        SimilarEventsRequestProto request = SimilarEventsRequestProto.newBuilder()
+                .setEventId(1 + random.nextInt(events))
+                .setUserId(1 + random.nextInt(USERS))
+                .setMaxResults(MAX_RESULTS)
+                .build();
+        return service.getSimilarEvents(request).size();
+    }
+
+    // страница с CARDS карточками: похожие мероприятия для каждой по одному вызову
+    @Benchmark
+    public long similarEventsPerCard() {
+        long userId = 1 + random.nextInt(USERS);
+        long found = 0;
+        for (int i = 0; i < CARDS; i++) {
+            SimilarEventsRequestProto request = SimilarEventsRequestProto.newBuilder()
+                    .setEventId(1 + random.nextInt(events))
+                    .setUserId(userId)
+                    .setMaxResults(MAX_RESULTS)
+                    .build();
+            found += service.getSimilarEvents(request).size();
+        }
+        return found;
+    }
+
+    // та же страница одним пакетным вызовом
+    @Benchmark
+    public long similarEventsBatch() {
+        SimilarEventsBatchRequestProto.Builder request = SimilarEventsBatchRequestProto.newBuilder()
+                .setUserId(1 + random.nextInt(USERS))
+                .setMaxResults(MAX_RESULTS);
+        for (int i = 0; i < CARDS; i++) {
+            request.addEventId(1 + random.nextInt(events));
+        }
+        return service.getSimilarEventsBatch(request.build()).size();
+    }
+
+    // расчёт с нуля, как при пересчёте хранимого списка
+    @Benchmark
+    public long recommendationsForUser() {
+        return calculator.calculate(1 + random.nextInt(USERS), MAX_RESULTS).events().size();
+    }
+
+    // запрос, который читает хранимый список; первые обращения к каждому пользователю считают его синхронно
+    @Benchmark
+    public long materializedRecommendations() {
+        UserPredictionsRequestProto request = UserPredictionsRequestProto.newBuilder()
+                .setUserId(1 + random.nextInt(USERS))
+                .setMaxResults(MAX_RESULTS)
+                .build();
+        return service.getRecommendationsForUser(request).size();
+    }
+
+    // Заглушка репозитория: у каждого пользователя history случайных мероприятий
+    private UserInteractionRepository interactions() {
+        Random actions = new Random(11);
+        Map<Long, List<UserAction>> byUser = new HashMap<>();
+        LocalDateTime timestamp = LocalDateTime.of(2025, 1, 1, 0, 0);
+        for (long userId = 1; userId <= USERS; userId++) {
+            List<UserAction> userActions = new ArrayList<>(history);
+            for (int i = 0; i < history; i++) {
+                userActions.add(UserAction.builder()
+                        .userId(userId)
+                        .eventId(1L + actions.nextInt(events))
+                        .rating(0.4 + 0.2 * actions.nextInt(4))
+                        .timestamp(timestamp.plusMinutes(i))
+                        .build());
+            }
+            byUser.put(userId, userActions);
+        }
+        return (UserInteractionRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{UserInteractionRepository.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("findAllByUserId")) {
+                        return byUser.getOrDefault((Long) args[0], List.of());
+                    }
+                    if (method.getName().equals("findAllByUserIdIn")) {
+                        List<UserAction> userActions = new ArrayList<>();
+                        for (Object userId : (Collection<?>) args[0]) {
+                            userActions.addAll(byUser.getOrDefault((Long) userId, List.of()));
+                        }
+                        return userActions;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
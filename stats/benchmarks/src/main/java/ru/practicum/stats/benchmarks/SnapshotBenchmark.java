@@ -0,0 +1,111 @@
+package ru.practicum.stats.benchmarks;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.TopicPartition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.practicum.stats.aggregator.config.DeliveryMode;
+import ru.practicum.stats.aggregator.config.HeavyUserPolicy;
+import ru.practicum.stats.aggregator.config.PipelineConfig;
+import ru.practicum.stats.aggregator.config.SimilarityConfig;
+import ru.practicum.stats.aggregator.config.SimilarityFormat;
+import ru.practicum.stats.aggregator.config.SnapshotConfig;
+import ru.practicum.stats.aggregator.config.StateStoreConfig;
+import ru.practicum.stats.aggregator.config.StorageConfiguration;
+import ru.practicum.stats.aggregator.service.EventsSimilarityServiceImpl;
+import ru.practicum.stats.aggregator.service.StateSnapshotServiceImpl;
+import ru.practicum.stats.aggregator.storage.StorageType;
+import ru.practicum.stats.aggregator.storage.UserWeightsStore;
+import ru.practicum.stats.aggregator.storage.WeightSumsStore;
+import ru.practicum.stats.avro.UserActionAvro;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Время записи снимка состояния агрегатора и восстановления из него в пустые хранилища.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class SnapshotBenchmark {
+    private static final Map<TopicPartition, Long> OFFSETS = Map.of(new TopicPartition("stats.user-actions.v1", 0), 0L);
+
+    @Param({"HEAP", "PRIMITIVE"})
+    private StorageType storage;
+
+    @Param({"1000000"})
+    private int actions;
+
+    private StateStoreConfig stateConfig;
+    private PipelineConfig pipelineConfig;
+    private Path writeDirectory;
+    private Path restoreDirectory;
+
+    private StateSnapshotServiceImpl writer;
+    private StateSnapshotServiceImpl reader;
+
+    @Setup(Level.Trial)
+    public void fillState() throws IOException {
+        stateConfig = new StateStoreConfig(storage, Files.createTempDirectory("snapshot-benchmark-state"), 10_000,
+                1_000_000);
+        pipelineConfig = new PipelineConfig(1, DeliveryMode.FLUSH_PER_POLL, "benchmark",
+                SimilarityFormat.PAIR, 1000);
+        writeDirectory = Files.createTempDirectory("snapshot-benchmark-write");
+        restoreDirectory = Files.createTempDirectory("snapshot-benchmark-restore");
+
+        StorageConfiguration storageConfiguration = new StorageConfiguration();
+        UserWeightsStore userWeightsStore = storageConfiguration.userWeightsStore(stateConfig, pipelineConfig);
+        WeightSumsStore weightSumsStore = storageConfiguration.weightSumsStore(stateConfig);
+        EventsSimilarityServiceImpl service = new EventsSimilarityServiceImpl(userWeightsStore, weightSumsStore,
+                pipelineConfig, new SimilarityConfig(0, Duration.ofMinutes(1), 0, 0, HeavyUserPolicy.CAP_RECENT, 500), new SimpleMeterRegistry());
+        for (List<UserActionAvro> batch : new PowerLawWorkload(100_000, 10_000, 1.1, 42).batches(actions, 500)) {
+            service.countSimilarity(batch);
+        }
+
+        writer = new StateSnapshotServiceImpl(snapshotConfig(writeDirectory), userWeightsStore, weightSumsStore);
+        new StateSnapshotServiceImpl(snapshotConfig(restoreDirectory), userWeightsStore, weightSumsStore)
+                .takeSnapshot(OFFSETS);
+    }
+
+    // Восстановление каждый раз идёт в новые пустые хранилища
+    @Setup(Level.Invocation)
+    public void createEmptyStores() {
+        StorageConfiguration storageConfiguration = new StorageConfiguration();
+        reader = new StateSnapshotServiceImpl(snapshotConfig(restoreDirectory),
+                storageConfiguration.userWeightsStore(stateConfig, pipelineConfig),
+                storageConfiguration.weightSumsStore(stateConfig));
+    }
+
+    @Benchmark
+    public void write() {
+        writer.takeSnapshot(OFFSETS);
+    }
+
+    @Benchmark
+    public Map<TopicPartition, Long> restore() {
+        return reader.restoreLatest(offsets -> true);
+    }
+
+    private static SnapshotConfig snapshotConfig(Path directory) {
+        return new SnapshotConfig(true, directory, Duration.ofMinutes(5), 1);
+    }
+}
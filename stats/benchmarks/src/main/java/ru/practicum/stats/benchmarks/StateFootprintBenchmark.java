@@ -0,0 +1,130 @@
+package ru.practicum.stats.benchmarks;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.practicum.stats.aggregator.config.DeliveryMode;
+import ru.practicum.stats.aggregator.config.HeavyUserPolicy;
+import ru.practicum.stats.aggregator.config.PipelineConfig;
+import ru.practicum.stats.aggregator.config.SimilarityConfig;
+import ru.practicum.stats.aggregator.config.SimilarityFormat;
+import ru.practicum.stats.aggregator.config.StateStoreConfig;
+import ru.practicum.stats.aggregator.config.StorageConfiguration;
+import ru.practicum.stats.aggregator.service.EventsSimilarityServiceImpl;
+import ru.practicum.stats.aggregator.storage.StorageType;
+import ru.practicum.stats.aggregator.storage.UserWeightsStore;
+import ru.practicum.stats.aggregator.storage.WeightSumsStore;
+import ru.practicum.stats.avro.UserActionAvro;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.ref.Reference;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Объём кучи, который занимает состояние агрегатора после обработки потока действий.
+ * <p>
+ * Каждый замер наполняет новые хранилища и сравнивает занятую кучу после принудительной сборки мусора
+ * до и после наполнения. Разница выводится счётчиком {@link Footprint#retainedMb}, время замера значения не имеет.
+ * MAPPED не входит в параметры: суммы весов в нём хранятся вне кучи.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class StateFootprintBenchmark {
+    private static final int BATCH_SIZE = 500;
+
+    @Param({"HEAP", "PRIMITIVE"})
+    private StorageType storage;
+
+    @Param({"100000"})
+    private int users;
+
+    @Param({"10000"})
+    private int events;
+
+    @Param({"1.1"})
+    private double exponent;
+
+    // при 1 000 000 действий состояние HEAP подходит к пределу кучи в 4 ГБ и замер упирается в сборку мусора
+    @Param({"300000"})
+    private int actions;
+
+    private List<List<UserActionAvro>> batches;
+
+    @Setup(Level.Trial)
+    public void generateWorkload() {
+        batches = new PowerLawWorkload(users, events, exponent, 42).batches(actions, BATCH_SIZE);
+    }
+
+    @Benchmark
+    public long fill(Footprint footprint) {
+        long before = usedHeapAfterGc();
+
+        StateStoreConfig stateConfig = new StateStoreConfig(storage, Path.of("unused"), events, 1_000_000);
+        PipelineConfig pipelineConfig = new PipelineConfig(1, DeliveryMode.FLUSH_PER_POLL, "benchmark",
+                SimilarityFormat.PAIR, 1000);
+        StorageConfiguration storageConfiguration = new StorageConfiguration();
+        UserWeightsStore userWeightsStore = storageConfiguration.userWeightsStore(stateConfig, pipelineConfig);
+        WeightSumsStore weightSumsStore = storageConfiguration.weightSumsStore(stateConfig);
+        EventsSimilarityServiceImpl service = new EventsSimilarityServiceImpl(userWeightsStore, weightSumsStore,
+                pipelineConfig, new SimilarityConfig(0, Duration.ofMinutes(1), 0, 0, HeavyUserPolicy.CAP_RECENT, 500),
+                new SimpleMeterRegistry());
+        for (List<UserActionAvro> batch : batches) {
+            service.countSimilarity(batch);
+        }
+        service.shutdown();
+
+        long after = usedHeapAfterGc();
+        footprint.retainedMb = (after - before) / (1024.0 * 1024.0);
+        footprint.weights = userWeightsStore.size();
+        footprint.pairs = weightSumsStore.pairsCount();
+        // хранилища должны оставаться достижимыми до второго замера кучи
+        Reference.reachabilityFence(userWeightsStore);
+        Reference.reachabilityFence(weightSumsStore);
+        return after - before;
+    }
+
+    // Несколько сборок подряд: одной System.gc() может не хватить, чтобы освободить всё недостижимое
+    private static long usedHeapAfterGc() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            long current = memory.getHeapMemoryUsage().getUsed();
+            if (current >= used) {
+                break;
+            }
+            used = current;
+        }
+        return used;
+    }
+
+    /**
+     * Занятая состоянием куча в мегабайтах и размер состояния: число весов пользователей и пар мероприятий.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public double retainedMb;
+        public long weights;
+        public long pairs;
+    }
+}
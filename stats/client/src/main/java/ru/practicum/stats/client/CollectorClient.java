@@ -4,19 +4,35 @@ import com.google.protobuf.Empty;
 import lombok.extern.slf4j.Slf4j;
 import net.devh.boot.grpc.client.inject.GrpcClient;
 import org.springframework.stereotype.Service;
+import ru.practicum.stats.proto.EventInfoControllerGrpc;
+import ru.practicum.stats.proto.EventInfoProto;
 import ru.practicum.stats.proto.UserActionControllerGrpc;
 import ru.practicum.stats.proto.UserActionProto;
 
+import java.util.concurrent.TimeUnit;
+
 @Slf4j
 @Service
 public class CollectorClient {
+    // Данные мероприятия отправляются из потока запроса - медленный коллектор не должен его задерживать
+    private static final long EVENT_INFO_DEADLINE_MILLIS = 2000;
 
     @GrpcClient("collector")
     UserActionControllerGrpc.UserActionControllerBlockingStub userActionClient;
 
+    @GrpcClient("collector")
+    EventInfoControllerGrpc.EventInfoControllerBlockingStub eventInfoClient;
+
     public void sendUserAction(UserActionProto userAction) {
         log.info("отправка действия пользователя через клиент в контроллер коллектора");
         Empty empty = userActionClient.collectUserAction(userAction);
         log.info("действие пользователя через клиент в контроллер коллектора отправлено");
     }
+
+    public void sendEventInfo(EventInfoProto eventInfo) {
+        log.info("отправка данных мероприятия {} через клиент в контроллер коллектора", eventInfo.getEventId());
+        Empty empty = eventInfoClient.withDeadlineAfter(EVENT_INFO_DEADLINE_MILLIS, TimeUnit.MILLISECONDS)
+                .collectEventInfo(eventInfo);
+        log.info("данные мероприятия {} через клиент в контроллер коллектора отправлены", eventInfo.getEventId());
+    }
 }
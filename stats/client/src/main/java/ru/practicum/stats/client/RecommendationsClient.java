@@ -6,7 +6,10 @@ import net.devh.boot.grpc.client.inject.GrpcClient;
 import org.springframework.stereotype.Service;
 import ru.practicum.stats.proto.*;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 @Slf4j
 @Service
@@ -26,4 +29,24 @@ public class RecommendationsClient {
     public List<RecommendedEventProto> getInteractionsCount(InteractionsCountRequestProto request) {
         return Lists.newArrayList(recommendationClient.getInteractionsCount(request));
     }
+
+    public List<RecommendedEventProto> getTrendingEvents(TrendingEventsRequestProto request) {
+        return Lists.newArrayList(recommendationClient.getTrendingEvents(request));
+    }
+
+    // Рекомендации нескольких пользователей за один вызов: id пользователя -> мероприятия в порядке запроса
+    public Map<Long, List<RecommendedEventProto>> getRecommendationsForUsers(UserPredictionsBatchRequestProto request) {
+        return toMap(recommendationClient.getRecommendationsForUsers(request));
+    }
+
+    // Похожие мероприятия для нескольких мероприятий за один вызов: id мероприятия -> похожие мероприятия
+    public Map<Long, List<RecommendedEventProto>> getSimilarEventsBatch(SimilarEventsBatchRequestProto request) {
+        return toMap(recommendationClient.getSimilarEventsBatch(request));
+    }
+
+    private static Map<Long, List<RecommendedEventProto>> toMap(Iterator<RecommendedEventsGroupProto> groups) {
+        Map<Long, List<RecommendedEventProto>> result = new LinkedHashMap<>();
+        groups.forEachRemaining(group -> result.put(group.getId(), group.getEventsList()));
+        return result;
+    }
 }
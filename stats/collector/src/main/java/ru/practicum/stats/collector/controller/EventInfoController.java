@@ -0,0 +1,35 @@
+package ru.practicum.stats.collector.controller;
+
+import com.google.protobuf.Empty;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import net.devh.boot.grpc.server.service.GrpcService;
+import ru.practicum.stats.collector.service.EventInfoHandler;
+import ru.practicum.stats.proto.EventInfoControllerGrpc;
+import ru.practicum.stats.proto.EventInfoProto;
+
+@Slf4j
+@GrpcService
+@RequiredArgsConstructor
+public class EventInfoController extends EventInfoControllerGrpc.EventInfoControllerImplBase {
+
+    private final EventInfoHandler eventInfoHandler;
+
+    @Override
+    public void collectEventInfo(EventInfoProto request, StreamObserver<Empty> responseObserver) {
+        try {
+            eventInfoHandler.handle(request);
+            responseObserver.onNext(Empty.getDefaultInstance());
+            responseObserver.onCompleted();
+        } catch (Exception e) {
+            responseObserver.onError(new StatusRuntimeException(
+                    Status.INTERNAL
+                            .withDescription(e.getLocalizedMessage())
+                            .withCause(e)
+            ));
+        }
+    }
+}
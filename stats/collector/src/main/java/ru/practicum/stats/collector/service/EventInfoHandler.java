@@ -0,0 +1,7 @@
+package ru.practicum.stats.collector.service;
+
+import ru.practicum.stats.proto.EventInfoProto;
+
+public interface EventInfoHandler {
+    void handle(EventInfoProto eventInfo);
+}
@@ -0,0 +1,62 @@
+package ru.practicum.stats.collector.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.practicum.stats.avro.EventAvro;
+import ru.practicum.stats.proto.EventInfoProto;
+
+import java.time.Instant;
+
+@Slf4j
+@Service
+public class EventInfoHandlerImpl implements EventInfoHandler {
+
+    private final KafkaEventProducer kafkaEventProducer;
+    private final String topic;
+
+    public EventInfoHandlerImpl(KafkaEventProducer kafkaEventProducer,
+                                @Value("${kafka.topic.event-info}") String topic) {
+        this.kafkaEventProducer = kafkaEventProducer;
+        this.topic = topic;
+        log.info("EventInfoHandlerImpl initialized with topic: {}", topic);
+    }
+
+    @Override
+    public void handle(EventInfoProto eventInfo) {
+        if (eventInfo == null) {
+            log.error("Received null event info");
+            return;
+        }
+
+        try {
+            EventAvro avroEvent = EventAvro.newBuilder()
+                    .setId(eventInfo.getEventId())
+                    .setCategoryId(eventInfo.getCategoryId())
+                    .setEventDate(Instant.ofEpochSecond(eventInfo.getEventDate().getSeconds(),
+                            eventInfo.getEventDate().getNanos()))
+                    .build();
+            Producer<String, SpecificRecordBase> producer = kafkaEventProducer.getProducer();
+            log.info("Начинаю отправку сообщений {} в топик {}", avroEvent, topic);
+
+            // ключ - идентификатор мероприятия: в топике достаточно хранить последнюю версию данных мероприятия
+            ProducerRecord<String, SpecificRecordBase> record =
+                    new ProducerRecord<>(topic, String.valueOf(avroEvent.getId()), avroEvent);
+            producer.send(record, (metadata, exception) -> {
+                if (exception != null) {
+                    log.error("Ошибка отправки сообщения в топик {}", topic, exception);
+                } else {
+                    log.info("Сообщение отправлено в топик {} partition {} offset {}",
+                            topic, metadata.partition(), metadata.offset());
+                }
+            });
+            log.info("Event info processed successfully: eventId={}, eventDate={}",
+                    avroEvent.getId(), avroEvent.getEventDate());
+        } catch (Exception e) {
+            log.error("Ошибка обработки данных мероприятия", e);
+        }
+    }
+}
@@ -37,7 +37,10 @@ public class UserActionHandlerImpl implements UserActionHandler {
             Producer<String, SpecificRecordBase> producer = kafkaEventProducer.getProducer();
             log.info("Начинаю отправку сообщений {} в топик {}", avroEvent, topic);
 
-            ProducerRecord<String, SpecificRecordBase> record = new ProducerRecord<>(topic, avroEvent);
+            // ключ - идентификатор пользователя: все действия пользователя попадают в одну партицию
+            // и обрабатываются анализатором в одном потоке в порядке отправки
+            ProducerRecord<String, SpecificRecordBase> record =
+                    new ProducerRecord<>(topic, String.valueOf(avroEvent.getUserId()), avroEvent);
             producer.send(record, (metadata, exception) -> {
                 if (exception != null) {
                     log.error("Ошибка отправки сообщения в топик {}", topic, exception);
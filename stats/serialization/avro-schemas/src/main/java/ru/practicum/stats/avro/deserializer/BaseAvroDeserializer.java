@@ -8,10 +8,19 @@ import org.apache.avro.specific.SpecificDatumReader;
 import org.apache.avro.specific.SpecificRecordBase;
 import org.apache.kafka.common.serialization.Deserializer;
 
+/**
+ * Десериализатор Avro-записей одной схемы. Декодер у каждого потока свой и переиспользуется между записями.
+ * <p>
+ * Через Kafka всегда возвращается новая запись: консьюмер десериализует весь ответ poll заранее,
+ * и общая запись оказалась бы значением всех сообщений пакета. Переиспользовать запись можно,
+ * вызывая {@link #deserialize(String, byte[], SpecificRecordBase)} самостоятельно, когда предыдущий
+ * результат уже обработан.
+ */
 public class BaseAvroDeserializer<T extends SpecificRecordBase> implements Deserializer<T> {
     private final DecoderFactory decoderFactory;
     private final Schema schema;
     private final DatumReader<T> reader;
+    private final ThreadLocal<BinaryDecoder> decoders = new ThreadLocal<>();
 
 
     public BaseAvroDeserializer(Schema schema) {
@@ -26,14 +35,28 @@ public class BaseAvroDeserializer<T extends SpecificRecordBase> implements Deser
 
     @Override
     public T deserialize(String topic, byte[] data) {
+        return deserialize(topic, data, null);
+    }
+
+    /**
+     * Декодирует данные в запись reuse, если она передана, иначе в новую запись.
+     * Возвращённая запись может быть тем же объектом reuse.
+     */
+    public T deserialize(String topic, byte[] data, T reuse) {
         try {
             if (data != null) {
-                BinaryDecoder decoder = decoderFactory.binaryDecoder(data, null);
-                return this.reader.read(null, decoder);
+                BinaryDecoder decoder = decoderFactory.binaryDecoder(data, decoders.get());
+                decoders.set(decoder);
+                return this.reader.read(reuse, decoder);
             }
             return null;
         } catch (Exception e) {
             throw new DeserializationException("Ошибка десериализации данных из топика [" + topic + "]", e);
         }
     }
+
+    @Override
+    public void close() {
+        decoders.remove();
+    }
 }
@@ -0,0 +1,9 @@
+package ru.practicum.stats.avro.deserializer;
+
+import ru.practicum.stats.avro.EventAvro;
+
+public class EventDeserializer extends BaseAvroDeserializer<EventAvro> {
+    public EventDeserializer() {
+        super(EventAvro.getClassSchema());
+    }
+}
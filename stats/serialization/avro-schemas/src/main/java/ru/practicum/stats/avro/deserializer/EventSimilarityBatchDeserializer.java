@@ -0,0 +1,54 @@
+package ru.practicum.stats.avro.deserializer;
+
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import ru.practicum.stats.avro.EventSimilarityAvro;
+import ru.practicum.stats.avro.EventSimilarityBatchAvro;
+import ru.practicum.stats.avro.EventSimilarityEntryAvro;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Читает топик сходств в обоих форматах: пакет сходств помечен заголовком {@link #FORMAT_HEADER},
+ * запись без заголовка содержит сходство одной пары и возвращается пакетом из одной пары.
+ * Пустое значение (tombstone) возвращается как null.
+ */
+public class EventSimilarityBatchDeserializer extends BaseAvroDeserializer<EventSimilarityBatchAvro> {
+    public static final String FORMAT_HEADER = "similarity-format";
+    public static final String BATCH_FORMAT = "batch";
+    private static final byte[] BATCH_FORMAT_BYTES = BATCH_FORMAT.getBytes(StandardCharsets.UTF_8);
+
+    private final EventsSimilarityDeserializer pairDeserializer = new EventsSimilarityDeserializer();
+
+    public EventSimilarityBatchDeserializer() {
+        super(EventSimilarityBatchAvro.getClassSchema());
+    }
+
+    @Override
+    public EventSimilarityBatchAvro deserialize(String topic, Headers headers, byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        Header format = headers == null ? null : headers.lastHeader(FORMAT_HEADER);
+        if (format != null && Arrays.equals(format.value(), BATCH_FORMAT_BYTES)) {
+            return deserialize(topic, data);
+        }
+        EventSimilarityAvro pair = pairDeserializer.deserialize(topic, data);
+        return EventSimilarityBatchAvro.newBuilder()
+                .setEntries(List.of(EventSimilarityEntryAvro.newBuilder()
+                        .setEventA(pair.getEventA())
+                        .setEventB(pair.getEventB())
+                        .setScore(pair.getScore())
+                        .build()))
+                .setTimestamp(pair.getTimestamp())
+                .build();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        pairDeserializer.close();
+    }
+}
@@ -1,5 +1,6 @@
 package ru.practicum.stats.avro.serializer;
 
+import org.apache.avro.Schema;
 import org.apache.avro.io.BinaryEncoder;
 import org.apache.avro.io.DatumWriter;
 import org.apache.avro.io.EncoderFactory;
@@ -10,26 +11,46 @@ import org.apache.kafka.common.serialization.Serializer;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Сериализатор любых Avro-записей. Писатель создаётся один раз на схему и используется всеми потоками,
+ * а кодировщик и буфер у каждого потока свои, поэтому на запись выделяется только итоговый массив байт.
+ */
 public class GeneralAvroSerializer implements Serializer<SpecificRecordBase> {
 
     private final EncoderFactory encoderFactory = EncoderFactory.get();
-    private BinaryEncoder encoder;
+    private final Map<Schema, DatumWriter<SpecificRecordBase>> writers = new ConcurrentHashMap<>();
+    private final ThreadLocal<EncoderBuffer> buffers = ThreadLocal.withInitial(EncoderBuffer::new);
 
     @Override
     public byte[] serialize(String topic, SpecificRecordBase data) {
-        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-            byte[] result = null;
-            encoder = encoderFactory.binaryEncoder(out, encoder);
-            if (data != null) {
-                DatumWriter<SpecificRecordBase> writer = new SpecificDatumWriter<>(data.getSchema());
-                writer.write(data, encoder);
-                encoder.flush();
-                result = out.toByteArray();
-            }
-            return result;
+        if (data == null) {
+            return null;
+        }
+        try {
+            DatumWriter<SpecificRecordBase> writer = writers.computeIfAbsent(data.getSchema(),
+                    SpecificDatumWriter::new);
+            EncoderBuffer buffer = buffers.get();
+            buffer.out.reset();
+            buffer.encoder = encoderFactory.binaryEncoder(buffer.out, buffer.encoder);
+            writer.write(data, buffer.encoder);
+            buffer.encoder.flush();
+            return buffer.out.toByteArray();
         } catch (IOException ex) {
             throw new SerializationException("Ошибка сериализации данных для топика [" + topic + "]", ex);
         }
     }
+
+    @Override
+    public void close() {
+        buffers.remove();
+    }
+
+    // Кодировщик и буфер одного потока: растут до размера самой большой записи и больше не выделяются
+    private static class EncoderBuffer {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private BinaryEncoder encoder;
+    }
 }